@@ -0,0 +1,144 @@
+/**
+ * AnalysisDaemon.java
+ *
+ * A resident process that runs templates over input files on request,
+ * so that a long series of runs over many small files (as in ExtremalTemplate.automateMe())
+ * pays for starting the JVM, loading classes, initializing Colt and warming up the JIT compiler only once.
+ *
+ * The daemon listens on a port of the loopback interface only, so that it accepts jobs from the local machine.
+ * A job consists of the name of the template class, the name of the input file and the parameters of the template,
+ * and it is run by TemplateRunner just as from the command line of the template.
+ * Each connection may send any number of jobs, which are run one after another.
+ * Jobs of different connections are accepted at the same time, but they are also run one at a time,
+ * since runs share the static configuration of TemplateRunner and the cache and drawing sink of Graph.
+ * For each job, the daemon responds whether it succeeded and how many milliseconds it took,
+ * including the time spent waiting for jobs of other connections.
+ *
+ * Start the daemon in the folder with graph files, since templates write .dot files
+ * into its working directory, with
+ *     java AnalysisDaemon [port]
+ * and send jobs with DaemonClient.
+ */
+import java.io.*;
+import java.net.*;
+
+public class AnalysisDaemon {
+    /**
+     * Port on which the daemon listens, unless another one is given.
+     */
+    public static final int DEFAULT_PORT = 50106;
+
+    // Requests sent by clients
+    public static final int RUN = 1;
+    public static final int SHUTDOWN = 2;
+
+    private ServerSocket server;
+    private int jobs;                   // number of jobs received so far
+    private final Object running = new Object();   // held while a job runs
+
+    public AnalysisDaemon(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Accepts clients until one of them requests shutdown.
+     */
+    public void serve() {
+        warmUp();
+        System.out.println("Analysis daemon listening on port " + server.getLocalPort());
+
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                Thread client = new Thread(() -> serveClient(socket));
+                client.setDaemon(true);
+                client.start();
+            }
+        }
+        catch (IOException e) {             // server socket closed on shutdown
+        }
+        System.out.println("Analysis daemon stopped after " + jobs + " jobs");
+    }
+
+    /**
+     * Runs jobs of a single client, one after another.
+     */
+    private void serveClient(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            while (true) {
+                int request;
+                try {
+                    request = in.readInt();
+                }
+                catch (EOFException e) {    // client has no more jobs
+                    break;
+                }
+
+                if (request == SHUTDOWN) {
+                    out.writeBoolean(true);
+                    out.writeLong(0);
+                    out.writeUTF("Shutting down");
+                    out.flush();
+                    server.close();
+                    break;
+                }
+
+                String templateName = in.readUTF();
+                String inputFileName = in.readUTF();
+                String[] params = new String[in.readInt()];
+                for (int i=0; i<params.length; i++)
+                    params[i] = in.readUTF();
+
+                int job;
+                synchronized (this) {
+                    job = ++jobs;
+                }
+
+                long startTime = System.nanoTime();
+                boolean succeeded = true;
+                String message = "Done";
+                try {
+                    synchronized (running) {
+                        TemplateRunner.run(TemplateRunner.newTemplate(templateName, params), inputFileName);
+                    }
+                }
+                catch (Throwable e) {       // a failed job, even one out of memory, does not stop the daemon
+                    succeeded = false;
+                    message = e.toString();
+                }
+                long latency = (System.nanoTime() - startTime) / 1000000;
+
+                System.out.println("Job " + job + ": " + templateName + " " + inputFileName + (params.length > 0 ? " " : "") +
+                                   String.join(" ", params) + ": " + message + " in " + latency + " ms");
+                out.writeBoolean(succeeded);
+                out.writeLong(latency);
+                out.writeUTF(message);
+                out.flush();
+            }
+
+            socket.close();
+        }
+        catch (IOException e) {
+            System.out.println("Client disconnected (" + e + ")");
+        }
+    }
+
+    /**
+     * Loads the classes of graphs and Colt, and lets the JIT compiler see
+     * the most common invariants before the first job arrives.
+     */
+    private static void warmUp() {
+        Graph g = new Graph("GCQvBw");                  // an arbitrary graph on 8 vertices
+        for (int i=0; i<2000; i++) {
+            g.Aspectrum();
+            g.energy();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new AnalysisDaemon(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT).serve();
+    }
+}
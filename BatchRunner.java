@@ -0,0 +1,330 @@
+/**
+ * BatchRunner.java
+ *
+ * Runs a template over a whole batch of input files on all processors of a single machine,
+ * instead of processing them one after another as in ExtremalTemplate.automateMe().
+ *
+ * Input files are given by glob patterns such as "graph10cm*.g6" (quoted, so that the shell leaves them alone),
+ * or by manifests "@list.txt" naming one input file per line.
+ * The cost of each file is estimated from the number of its graphs (file size divided by the length of a line)
+ * and from their order n, as the spectral invariants take O(n^3) time per graph.
+ * Files are scheduled largest first, and large files are split into units of consecutive byte ranges,
+ * so that the threads of the pool keep taking units of the remaining files until the last file is done.
+ * Partial results of units of the same file are merged in the order of units (see GraphTemplate.mergePartial()),
+ * so that the results of each file are exactly those of a single run over it.
+ * A file consisting of a single unit is simply run from beginning to end.
+ *
+ * At the end, a summary reports the number of graphs, units, elapsed time and throughput of each file.
+ * Usage:
+ *     java BatchRunner [--threads=N] [--unit-size=B] Template pattern... [-- template parameters]
+ * for example,
+ *     java BatchRunner ExtremalTemplate "graph10cm*.g6" -- 1 1
+ * Options are:
+ *     --threads=N      number of threads in the pool (default: number of processors)
+ *     --unit-size=B    maximum number of bytes of input file in a unit (default: 4 MB)
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class BatchRunner {
+    private String templateName;                // template to be run
+    private String[] params;                    // its parameters
+    private ArrayList<Input> inputs;            // input files, largest first
+    private LinkedList<Unit> pending;           // units not taken by threads yet
+
+    /**
+     * An input file together with the template merging the partial results of its units.
+     */
+    private static class Input {
+        String fileName;
+        long length;
+        int n;                                  // order of graphs, from the first g6code
+        double cost;                            // estimated cost
+        GraphTemplate merger;
+        byte[][] partials;                      // partial results of completed units not merged yet
+        int merged;                             // number of units merged so far
+        boolean merging;                        // whether a thread is merging partial results at the moment
+        long counter;                           // number of graphs processed so far
+        long startTime, endTime;                // when the first unit was taken and when the results were reported
+        String failure;                         // error message, if processing of the file failed
+    }
+
+    /**
+     * A byte range of an input file.
+     */
+    private static class Unit {
+        Input input;
+        int index;
+        long start, end;
+    }
+
+    /**
+     * Prepares the run of the template with parameters over input files,
+     * split into units of at most unitSize bytes.
+     */
+    public BatchRunner(String templateName, String[] params, List<String> inputFileNames, long unitSize) throws IOException {
+        this.templateName = templateName;
+        this.params = params;
+        inputs = new ArrayList<Input>();
+        pending = new LinkedList<Unit>();
+
+        for (String fileName : inputFileNames) {
+            Input input = new Input();
+            input.fileName = fileName;
+            input.length = new File(fileName).length();
+            estimateCost(input);
+            inputs.add(input);
+        }
+
+        inputs.sort((a, b) -> Double.compare(b.cost, a.cost));     // largest first
+        for (Input input : inputs) {
+            int units = (int) Math.max(1, (input.length + unitSize - 1) / unitSize);
+            input.partials = new byte[units][];
+
+            for (int i=0; i<units; i++) {
+                Unit unit = new Unit();
+                unit.input = input;
+                unit.index = i;
+                unit.start = i * input.length / units;
+                unit.end = (i+1) * input.length / units;
+                pending.add(unit);
+            }
+        }
+    }
+
+    /**
+     * Estimates the cost of processing a file as the number of its graphs times n^3.
+     */
+    private static void estimateCost(Input input) throws IOException {
+        G6Reader in = new G6Reader(input.fileName);
+        String first = in.readLine();
+        in.close();
+
+        if (first == null || first.length() == 0) {
+            input.n = 0;
+            input.cost = 0;
+            return;
+        }
+
+        try {
+            input.n = GraphCodec.order(first);
+        }
+        catch (IllegalArgumentException e) {        // not a g6code, so there is nothing to estimate
+            input.n = 0;
+            input.cost = 0;
+            return;
+        }
+        double graphs = (double) input.length / (first.length()+1);
+        input.cost = graphs * input.n * input.n * input.n;
+    }
+
+    /**
+     * Processes all units with the given number of threads and prints the summary.
+     */
+    public void run(int threads) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        System.out.println("Running " + templateName + " over " + inputs.size() + " files in " +
+                           pending.size() + " units with " + threads + " threads");
+
+        Thread[] pool = new Thread[threads];
+        for (int t=0; t<threads; t++) {
+            pool[t] = new Thread(() -> {
+                Unit unit;
+                while ((unit = nextUnit()) != null)
+                    process(unit);
+            });
+            pool[t].start();
+        }
+        for (int t=0; t<threads; t++)
+            pool[t].join();
+
+        printSummary(System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Takes the next unit, or returns null if there are none left.
+     */
+    private synchronized Unit nextUnit() {
+        Unit unit = pending.pollFirst();
+        if (unit != null && unit.input.startTime == 0)
+            unit.input.startTime = System.currentTimeMillis();
+        return unit;
+    }
+
+    /**
+     * Runs the template over a unit and merges its partial results as soon as possible.
+     */
+    private void process(Unit unit) {
+        Input input = unit.input;
+        if (input.failure != null)
+            return;
+
+        try {
+            GraphTemplate template = TemplateRunner.newTemplate(templateName, params);
+
+            if (input.partials.length == 1) {       // the whole file in a single unit
+                template.begin(input.fileName, input.fileName, null);
+                long counter = TemplateRunner.process(template, input.fileName, 0, input.length);
+                template.end();
+
+                synchronized (input) {
+                    input.counter = counter;
+                    input.merged = 1;
+                    input.endTime = System.currentTimeMillis();
+                }
+                return;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream partial = new DataOutputStream(bytes);
+            long counter = TemplateRunner.runPart(template, input.fileName,
+                TemplateRunner.shardPrefix(input.fileName, unit.index, input.partials.length),
+                unit.start, unit.end, partial);
+            partial.close();
+
+            synchronized (input) {
+                input.partials[unit.index] = bytes.toByteArray();
+                input.counter += counter;
+                if (input.merging)                  // the merging thread will take these partial results
+                    return;
+                input.merging = true;
+            }
+            merge(input);
+        }
+        catch (Exception e) {                       // a failed file does not stop the others
+            synchronized (input) {
+                if (input.failure == null)
+                    input.failure = e.toString();
+            }
+        }
+    }
+
+    /**
+     * Merges partial results of units in the order of units for as long as the next one is available,
+     * and reports the results after the last one. Only one thread merges partial results of a file at a time,
+     * and it does so outside the lock of the file, so that other threads may store their partial results meanwhile.
+     */
+    private void merge(Input input) throws IOException {
+        while (true) {
+            byte[] next;
+            synchronized (input) {
+                if (input.merged == input.partials.length || input.partials[input.merged] == null) {
+                    input.merging = false;
+                    return;
+                }
+                next = input.partials[input.merged];
+                input.partials[input.merged] = null;
+            }
+
+            if (input.merger == null) {
+                input.merger = TemplateRunner.newTemplate(templateName, params);
+                input.merger.begin(input.fileName, input.fileName, null);
+            }
+            input.merger.mergePartial(new DataInputStream(new ByteArrayInputStream(next)));
+
+            boolean last;
+            synchronized (input) {
+                input.merged++;
+                last = (input.merged == input.partials.length);
+            }
+            if (last) {
+                input.merger.end();
+                for (int i=0; i<input.partials.length; i++)    // outputs of units are no longer needed
+                    TemplateRunner.deleteOutputs(TemplateRunner.shardPrefix(input.fileName, i, input.partials.length));
+                synchronized (input) {
+                    input.endTime = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the number of graphs, units, elapsed time and throughput of each file and of the whole batch.
+     */
+    private void printSummary(long totalTime) {
+        long totalGraphs = 0;
+
+        System.out.println(String.format("%-40s %4s %6s %12s %10s %12s", "file", "n", "units", "graphs", "sec", "graphs/sec"));
+        for (Input input : inputs) {
+            if (input.failure != null) {
+                System.out.println(String.format("%-40s %4d %6d failed: %s", input.fileName, input.n,
+                                                 input.partials.length, input.failure));
+                continue;
+            }
+
+            double seconds = (input.endTime - input.startTime) / 1000.0;
+            System.out.println(String.format("%-40s %4d %6d %12d %10.3f %12.1f", input.fileName, input.n,
+                                             input.partials.length, input.counter, seconds,
+                                             seconds > 0 ? input.counter / seconds : 0.0));
+            totalGraphs += input.counter;
+        }
+
+        double seconds = totalTime / 1000.0;
+        System.out.println(String.format("%-40s %4s %6s %12d %10.3f %12.1f", "total", "", "", totalGraphs, seconds,
+                                         seconds > 0 ? totalGraphs / seconds : 0.0));
+    }
+
+    /**
+     * Expands a glob pattern or a manifest @fileName into the names of input files.
+     */
+    public static List<String> expand(String pattern) throws IOException {
+        ArrayList<String> fileNames = new ArrayList<String>();
+
+        if (pattern.startsWith("@")) {              // manifest with one file per line
+            BufferedReader manifest = new BufferedReader(new FileReader(pattern.substring(1)));
+            String line;
+            while ((line = manifest.readLine()) != null)
+                if (line.trim().length() > 0)
+                    fileNames.add(line.trim());
+            manifest.close();
+        }
+        else if (pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0) {
+            Path path = Paths.get(pattern);
+            Path directory = (path.getParent() == null) ? Paths.get(".") : path.getParent();
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+
+            DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+            for (Path entry : entries)
+                if (Files.isRegularFile(entry) && matcher.matches(entry.getFileName()))
+                    fileNames.add((path.getParent() == null) ? entry.getFileName().toString() : entry.toString());
+            entries.close();
+            Collections.sort(fileNames);
+        }
+        else
+            fileNames.add(pattern);
+
+        return fileNames;
+    }
+
+    /**
+     * Arguments are options, the name of the template class, patterns of input files,
+     * and after "--" the parameters of the template.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long unitSize = 4L << 20;
+
+        int i = 0;
+        for (; i<args.length && args[i].startsWith("--") && !args[i].equals("--"); i++) {
+            if (args[i].indexOf('=') < 0)
+                throw new IllegalArgumentException("Option " + args[i] + " has no value");
+            String name = args[i].substring(0, args[i].indexOf('='));
+            String value = args[i].substring(args[i].indexOf('=')+1);
+            if (name.equals("--threads"))
+                threads = Integer.parseInt(value);
+            else if (name.equals("--unit-size"))
+                unitSize = Long.parseLong(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+
+        String templateName = args[i++];
+        ArrayList<String> inputFileNames = new ArrayList<String>();
+        for (; i<args.length && !args[i].equals("--"); i++)
+            inputFileNames.addAll(expand(args[i]));
+        String[] params = (i < args.length) ? Arrays.copyOfRange(args, i+1, args.length) : new String[0];
+
+        new BatchRunner(templateName, params, inputFileNames, unitSize).run(threads);
+    }
+}
@@ -37,25 +37,26 @@ public class Broom extends Graph
         outResults.close();
     }
 
-    public static void testBroomsForZero()
+    public static void testBroomsForZero() throws IOException
     {
-        int zeroFound=0;
-        
-        for (int n=10; n<=100; n++) {
-            for (int a=3; a<=n-2; a++) {
-                int b=n-a;
-                Broom g = new Broom(a,b);
+        // pairs (n, a) with 10<=n<=100 and 3<=a<=n-2, enumerated in parallel
+        FamilyEnumerator enumerator = new FamilyEnumerator(
+            ParameterSpace.tuples(new int[] {10, 3}, new int[] {100, 98}),
+            params -> new Broom(params[1], params[0]-params[1]),
+            (params, g) -> {
+                int a = params[1], b = params[0]-params[1];
                 double[] fv = g.fiedlerVector();
-            
+
+                String zeros = null;
                 for (int i=0; i<fv.length; i++)
-                    if (DoubleUtil.equals(fv[i],0)) {
-                        System.out.println("A zero component with a=" + a + ", b=" + b + " and i=" + i);
-                        zeroFound=1;
-                    }
-            }
-        }
-        
-        if (zeroFound==0)
+                    if (DoubleUtil.equals(fv[i],0))
+                        zeros = (zeros == null ? "" : zeros + System.lineSeparator()) +
+                                "A zero component with a=" + a + ", b=" + b + " and i=" + i;
+                return zeros;
+            });
+        enumerator.setFilter(params -> params[1] <= params[0]-2);
+
+        if (enumerator.run(null, null) == 0)
             System.out.println("No zero component found.");
     }
     
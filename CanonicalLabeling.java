@@ -0,0 +1,348 @@
+/**
+ * CanonicalLabeling.java
+ *
+ * Computes a canonical labeling of a graph with at most 64 vertices,
+ * given by adjacency bitsets (bit j of adj[i] is set if i and j are adjacent),
+ * so that two graphs are isomorphic if and only if their canonical forms are equal.
+ *
+ * The labeling is found by the individualization-refinement method, as in nauty:
+ * an ordered partition of vertices is refined until it is equitable,
+ * after which a vertex of the first non-singleton cell is individualized, and so on,
+ * until the partition becomes discrete and yields a labeling (a leaf of the search tree).
+ * The canonical labeling is the leaf with the largest permuted adjacency bitsets.
+ * Two leaves with equal permuted graphs reveal an automorphism, which is used
+ * to skip children of search nodes in the same orbit of the automorphisms fixing the path to the node,
+ * and to jump back over subtrees equivalent to the first path.
+ * The automorphisms found generate the automorphism group, so they also give its orbits on vertices.
+ *
+ * An initial coloring of vertices may be given, in which case only color-preserving
+ * isomorphisms and automorphisms are considered.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class CanonicalLabeling {
+    private int n;                      // number of vertices
+    private long[] adj;                 // adjacency bitsets
+
+    private int[] bestLab;              // canonical labeling: bestLab[i] is the vertex at position i
+    private long[] bestCode;            // canonical form: adjacency bitsets of the relabeled graph
+    private int[] firstLab;             // labeling of the first leaf
+    private long[] firstCode;           // permuted graph of the first leaf
+    private int[] firstPath;            // vertices individualized on the path to the first leaf
+    private int firstDepth;
+
+    private ArrayList<int[]> automorphisms;     // automorphisms found so far
+    private int[] orbit;                // union-find forest of orbits of the automorphism group
+
+    /**
+     * Computes the canonical labeling of the graph.
+     */
+    public CanonicalLabeling(long[] adj, int n) {
+        this(adj, n, null);
+    }
+
+    /**
+     * Computes the canonical labeling of the graph whose vertices are colored:
+     * vertices with smaller colors come first, and colors are preserved by automorphisms.
+     */
+    public CanonicalLabeling(long[] adj, int n, int[] colors) {
+        if (n > 64)
+            throw new IllegalArgumentException("Canonical labeling supports at most 64 vertices");
+
+        this.n = n;
+        this.adj = adj;
+        automorphisms = new ArrayList<int[]>();
+        orbit = new int[n];
+        for (int v=0; v<n; v++)
+            orbit[v] = v;
+        if (n == 0) {
+            bestLab = new int[0];
+            bestCode = new long[0];
+            return;
+        }
+
+        // The initial partition: all vertices in one cell, or one cell per color
+        Integer[] order = new Integer[n];
+        for (int v=0; v<n; v++)
+            order[v] = v;
+        if (colors != null)
+            Arrays.sort(order, (a, b) -> Integer.compare(colors[a], colors[b]));
+
+        int[] lab = new int[n];
+        boolean[] cellEnd = new boolean[n];     // cellEnd[i] if position i is the last one of its cell
+        for (int i=0; i<n; i++) {
+            lab[i] = order[i];
+            cellEnd[i] = (i == n-1) || (colors != null && colors[order[i]] != colors[order[i+1]]);
+        }
+
+        firstPath = new int[n];
+        search(lab, cellEnd, new int[n], 0);
+    }
+
+    /**
+     * Canonical labeling: labeling()[i] is the vertex placed at position i.
+     */
+    public int[] labeling() {
+        return bestLab;
+    }
+
+    /**
+     * Canonical form: adjacency bitsets of the graph relabeled by the canonical labeling.
+     * Two graphs are isomorphic if and only if their canonical forms are equal.
+     */
+    public long[] form() {
+        return bestCode;
+    }
+
+    /**
+     * Canonical form as a g6code.
+     */
+    public String g6code() {
+        return Graph.encodeG6(bestCode, n);
+    }
+
+    /**
+     * Generators of the automorphism group, each given as a permutation of vertices.
+     */
+    public ArrayList<int[]> automorphisms() {
+        return automorphisms;
+    }
+
+    /**
+     * Responds whether the graph has a nontrivial automorphism.
+     */
+    public boolean hasAutomorphisms() {
+        return !automorphisms.isEmpty();
+    }
+
+    /**
+     * Representative of the orbit of the vertex under the automorphism group.
+     */
+    public int orbit(int v) {
+        while (orbit[v] != v)
+            v = orbit[v] = orbit[orbit[v]];
+        return v;
+    }
+
+    /**
+     * Responds whether some automorphism maps vertex u to vertex v.
+     */
+    public boolean sameOrbit(int u, int v) {
+        return orbit(u) == orbit(v);
+    }
+
+    /**
+     * Explores the search tree below the node with the ordered partition (lab, cellEnd),
+     * reached by individualizing path[0..depth-1].
+     *
+     * @return int Depth to which the search should jump back.
+     */
+    private int search(int[] lab, boolean[] cellEnd, int[] path, int depth) {
+        refine(lab, cellEnd);
+
+        int start = -1, end = -1;               // the first non-singleton cell
+        for (int i=0, cellStart=0; i<n; i++)
+            if (cellEnd[i]) {
+                if (i > cellStart) {
+                    start = cellStart;
+                    end = i;
+                    break;
+                }
+                cellStart = i+1;
+            }
+
+        if (start == -1)                         // discrete partition
+            return leaf(lab, path, depth);
+
+        int[] cell = Arrays.copyOfRange(lab, start, end+1);
+        Arrays.sort(cell);
+        for (int u : cell) {
+            if (!minimalInOrbit(u, cell, path, depth))
+                continue;                        // an automorphism fixing the path maps a visited child here
+
+            int[] childLab = lab.clone();
+            boolean[] childEnd = cellEnd.clone();
+            for (int i=start; i<=end; i++)       // move u to the front of its cell and split it off
+                if (childLab[i] == u) {
+                    childLab[i] = childLab[start];
+                    childLab[start] = u;
+                    break;
+                }
+            childEnd[start] = true;
+
+            path[depth] = u;
+            if (firstLab == null)
+                firstPath[depth] = u;
+            int jump = search(childLab, childEnd, path, depth+1);
+            if (jump < depth)
+                return jump;
+        }
+
+        return depth;
+    }
+
+    /**
+     * Processes a discrete partition.
+     *
+     * @return int Depth to which the search should jump back.
+     */
+    private int leaf(int[] lab, int[] path, int depth) {
+        long[] code = new long[n];
+        int[] position = new int[n];
+        for (int i=0; i<n; i++)
+            position[lab[i]] = i;
+        for (int i=0; i<n; i++) {
+            long row = adj[lab[i]];
+            long permuted = 0;
+            while (row != 0) {
+                int j = Long.numberOfTrailingZeros(row);
+                row &= row-1;
+                permuted |= 1L << position[j];
+            }
+            code[i] = permuted;
+        }
+
+        if (firstLab == null) {
+            firstLab = lab.clone();
+            firstCode = code;
+            firstDepth = depth;
+            bestLab = firstLab;
+            bestCode = firstCode;
+            return depth;
+        }
+
+        if (Arrays.equals(code, firstCode)) {    // an automorphism mapping the first leaf to this one
+            addAutomorphism(firstLab, lab);
+
+            int common = 0;                      // the subtree containing this leaf is equivalent to the first one
+            while (common < depth && common < firstDepth && path[common] == firstPath[common])
+                common++;
+            return common;
+        }
+
+        int cmp = compare(code, bestCode);
+        if (cmp == 0)
+            addAutomorphism(bestLab, lab);
+        else if (cmp > 0) {
+            bestLab = lab.clone();
+            bestCode = code;
+        }
+        return depth;
+    }
+
+    /**
+     * Records the automorphism mapping from[i] to to[i] for each i, and merges orbits accordingly.
+     */
+    private void addAutomorphism(int[] from, int[] to) {
+        int[] gamma = new int[n];
+        for (int i=0; i<n; i++)
+            gamma[from[i]] = to[i];
+        automorphisms.add(gamma);
+
+        for (int v=0; v<n; v++) {
+            int a = orbit(v), b = orbit(gamma[v]);
+            if (a != b)
+                orbit[Math.max(a, b)] = Math.min(a, b);
+        }
+    }
+
+    /**
+     * Responds whether u is the smallest vertex of the cell in its orbit
+     * under the automorphisms found so far that fix the path pointwise.
+     */
+    private boolean minimalInOrbit(int u, int[] cell, int[] path, int depth) {
+        if (automorphisms.isEmpty())
+            return true;
+
+        int[] local = new int[n];               // union-find forest of orbits of the pointwise stabilizer
+        for (int v=0; v<n; v++)
+            local[v] = v;
+
+        for (int[] gamma : automorphisms) {
+            boolean fixes = true;
+            for (int d=0; d<depth && fixes; d++)
+                fixes = (gamma[path[d]] == path[d]);
+            if (!fixes)
+                continue;
+
+            for (int v=0; v<n; v++) {
+                int a = find(local, v), b = find(local, gamma[v]);
+                if (a != b)
+                    local[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+
+        int root = find(local, u);
+        for (int v : cell)
+            if (v < u && find(local, v) == root)
+                return false;
+        return true;
+    }
+
+    private static int find(int[] forest, int v) {
+        while (forest[v] != v)
+            v = forest[v] = forest[forest[v]];
+        return v;
+    }
+
+    /**
+     * Refines the ordered partition until it is equitable: vertices of each cell
+     * have the same number of neighbours in each cell. A cell is split into new cells
+     * ordered by the increasing numbers of neighbours in the splitting cell,
+     * so that the result does not depend on the labeling of the graph.
+     */
+    private void refine(int[] lab, boolean[] cellEnd) {
+        int[] count = new int[n];
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int w=0; w<n && !changed; ) {   // splitting cell lab[w..wEnd]
+                int wEnd = w;
+                while (!cellEnd[wEnd])
+                    wEnd++;
+                long mask = 0;
+                for (int i=w; i<=wEnd; i++)
+                    mask |= 1L << lab[i];
+
+                for (int c=0; c<n && !changed; ) {   // cell lab[c..cEnd] to be split
+                    int cEnd = c;
+                    while (!cellEnd[cEnd])
+                        cEnd++;
+
+                    if (cEnd > c) {
+                        boolean equal = true;
+                        for (int i=c; i<=cEnd; i++) {
+                            count[lab[i]] = Long.bitCount(adj[lab[i]] & mask);
+                            if (count[lab[i]] != count[lab[c]])
+                                equal = false;
+                        }
+
+                        if (!equal) {
+                            Integer[] cell = new Integer[cEnd-c+1];
+                            for (int i=c; i<=cEnd; i++)
+                                cell[i-c] = lab[i];
+                            Arrays.sort(cell, (a, b) -> Integer.compare(count[a], count[b]));
+                            for (int i=c; i<=cEnd; i++) {
+                                lab[i] = cell[i-c];
+                                cellEnd[i] = (i == cEnd) || count[cell[i-c]] != count[cell[i-c+1]];
+                            }
+                            changed = true;
+                        }
+                    }
+                    c = cEnd+1;
+                }
+                w = wEnd+1;
+            }
+        }
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i=0; i<a.length; i++)
+            if (a[i] != b[i])
+                return Long.compareUnsigned(a[i], b[i]);
+        return 0;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Checkpoint.java
+ *
+ * This class periodically saves the state of a long run to a file,
+ * from which the run can later be resumed.
+ *
+ * The state is first collected into a byte array, which is quick,
+ * and then written by a separate background thread, so that computation is not stalled
+ * by disk writes. The file is written under a temporary name, forced to disk
+ * and only then renamed, so that a crash during writing leaves the previous checkpoint intact.
+ * No new checkpoint is due while the previous one is still being written,
+ * so that the state is not collected in vain. Templates whose state only grows keep it
+ * in files of their own as it grows, so that the state in a checkpoint stays small (see KeyJournal).
+ * Such files are forced to disk by the background thread as well, before the checkpoint referring to them
+ * is renamed into place, so that a crash never leaves a checkpoint referring to data that are lost.
+ */
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class Checkpoint {
+    private String fileName;            // checkpoint file
+    private long interval;              // milliseconds between two checkpoints
+    private long lastTime;              // time of the last checkpoint
+    private ExecutorService writer;     // background thread writing checkpoints
+    private Future<?> pending;          // the last checkpoint being written
+
+    public Checkpoint(String fileName, int intervalSeconds) {
+        this.fileName = fileName;
+        interval = intervalSeconds * 1000L;
+        lastTime = System.currentTimeMillis();
+
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint writer");
+            t.setDaemon(true);
+            return t;
+        });
+        pending = null;
+    }
+
+    /**
+     * Responds whether enough time has passed since the last checkpoint,
+     * and the last checkpoint has already been written.
+     */
+    public boolean due() {
+        return System.currentTimeMillis() - lastTime >= interval && (pending == null || pending.isDone());
+    }
+
+    /**
+     * State of a run collected for a checkpoint,
+     * together with the files that have to be on disk before the checkpoint is written.
+     */
+    public static class State extends DataOutputStream {
+        private ArrayList<File> files = new ArrayList<File>();
+
+        public State() {
+            super(new ByteArrayOutputStream());
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    /**
+     * Makes the file be forced to disk before the checkpoint collected in the stream is written.
+     * The background thread forces it, so that computation is not stalled.
+     * Other streams, such as partial results, are not written atomically anyway, and the file is left alone.
+     */
+    public static void forceBefore(DataOutputStream checkpoint, File file) {
+        if (checkpoint instanceof State)
+            ((State) checkpoint).files.add(file);
+    }
+
+    /**
+     * Writes the collected state to the checkpoint file in the background,
+     * after forcing the files it refers to.
+     */
+    public void save(State state) throws IOException {
+        state.close();
+        save(state.toByteArray(), state.files.toArray(new File[0]));
+    }
+
+    /**
+     * Writes the state to the checkpoint file in the background.
+     */
+    public void save(byte[] state) {
+        save(state, new File[0]);
+    }
+
+    private void save(byte[] state, File[] files) {
+        lastTime = System.currentTimeMillis();
+        if (pending != null && !pending.isDone())
+            return;
+
+        pending = writer.submit(() -> {
+            try {
+                for (File file : files) {
+                    if (!file.exists())     // the run is done with the file, so the checkpoint would be of no use
+                        return;
+                    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                    channel.force(false);
+                    channel.close();
+                }
+                write(state);
+            }
+            catch (IOException e) {
+                System.out.println("Checkpoint could not be written: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits for the last checkpoint to be written and deletes the checkpoint file,
+     * since a finished run has no use of it.
+     */
+    public void finish() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(Paths.get(fileName));
+    }
+
+    /**
+     * Opens the checkpoint file for reading, or returns null if there is no checkpoint.
+     */
+    public static DataInputStream load(String fileName) throws IOException {
+        if (!new File(fileName).exists())
+            return null;
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+    }
+
+    private void write(byte[] state) throws IOException {
+        Path temporary = Paths.get(fileName + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(temporary.toFile());
+        out.write(state);
+        out.getFD().sync();
+        out.close();
+
+        Files.move(temporary, Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
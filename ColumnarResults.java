@@ -0,0 +1,715 @@
+/**
+ * ColumnarResults.java
+ *
+ * Binary columnar file of results, with one row per graph and one column per invariant,
+ * so that templates such as ReporterTemplate need not format millions of numbers as text
+ * that is parsed again by the next tool in the chain.
+ *
+ * Columns have fixed types: G for g6codes, I for int, L for long and D for double values.
+ * Rows are collected by a Writer in blocks of BLOCK_ROWS rows, and each block is written
+ * column by column, so that a column of a block is a single chunk of the file:
+ * values of fixed-width columns one after another, and for a g6code column
+ * the end of each g6code (int) followed by the g6codes packed one after another without separators.
+ * Chunks may be compressed with Deflater, in which case only chunks that actually become smaller are compressed.
+ *
+ * The file starts with a small schema header (MAGIC, VERSION, compression, names and types of columns),
+ * and ends with the index of blocks (number of rows, offset and lengths of each chunk),
+ * followed by the offset of the index and MAGIC again. The index is written by Writer.close(),
+ * so an unfinished file is recognized as such.
+ *
+ * A finished file is opened for reading by open(). Chunks are memory mapped when they are first accessed,
+ * and only chunks of the columns asked for are read, so that selecting one invariant of many is cheap.
+ * The file may also be exported to text with exportCSV() and exportTeX(), or by main():
+ *     java ColumnarResults graphs.g6.results.col csv [columns...]
+ * writes graphs.g6.results.csv in the layout of ReporterTemplate,
+ * with numbers formatted exactly as string concatenation formats them, while
+ *     java ColumnarResults graphs.g6.results.col tex [columns...]
+ * writes graphs.g6.results.tex with a LaTeX longtable of the selected columns (all by default).
+ *
+ * The state of a Writer can be saved in a checkpoint of TemplateRunner and resumed from it,
+ * and finished files of shards are appended to the merged file block by block, without decoding chunks.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ColumnarResults {
+    public static final int BLOCK_ROWS = 1 << 16;
+
+    private static final int MAGIC = 0x47365243;    // "G6RC"
+    private static final int VERSION = 1;
+
+    private String fileName;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private String[] names;
+    private char[] types;
+    private boolean compressed;
+    private ArrayList<Block> blocks;
+    private long rows;
+
+    /**
+     * Opens a finished file for reading.
+     */
+    public static ColumnarResults open(String fileName) throws IOException {
+        return new ColumnarResults(fileName);
+    }
+
+    private ColumnarResults(String fileName) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+        readHeader(file);
+
+        long length = file.length();
+        if (length < 12) {
+            file.close();
+            throw new IOException(fileName + " is not finished");
+        }
+        file.seek(length - 12);
+        long indexOffset = file.readLong();
+        if (file.readInt() != MAGIC || indexOffset < 0 || indexOffset > length - 12) {
+            file.close();
+            throw new IOException(fileName + " is not finished");
+        }
+
+        byte[] index = new byte[(int) (length - 12 - indexOffset)];
+        file.seek(indexOffset);
+        file.readFully(index);
+        blocks = readIndex(new DataInputStream(new ByteArrayInputStream(index)), names.length);
+        rows = 0;
+        for (Block b : blocks)
+            rows += b.rows;
+    }
+
+    /**
+     * Number of columns.
+     */
+    public int columns() {
+        return names.length;
+    }
+
+    public String name(int column) {
+        return names[column];
+    }
+
+    /**
+     * Type of the column: G, I, L or D.
+     */
+    public char type(int column) {
+        return types[column];
+    }
+
+    /**
+     * Index of the column with the given name, or -1 if there is none.
+     */
+    public int column(String name) {
+        for (int c=0; c<names.length; c++)
+            if (names[c].equals(name))
+                return c;
+        return -1;
+    }
+
+    /**
+     * Total number of rows.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Number of blocks, which are read one at a time.
+     */
+    public int blocks() {
+        return blocks.size();
+    }
+
+    /**
+     * Number of rows in the block.
+     */
+    public int blockRows(int block) {
+        return blocks.get(block).rows;
+    }
+
+    /**
+     * Values of a double column within the block, mapped from the file unless the chunk is compressed.
+     */
+    public DoubleBuffer doubles(int block, int column) throws IOException {
+        return chunk(block, column, 'D').asDoubleBuffer();
+    }
+
+    public IntBuffer ints(int block, int column) throws IOException {
+        return chunk(block, column, 'I').asIntBuffer();
+    }
+
+    public LongBuffer longs(int block, int column) throws IOException {
+        return chunk(block, column, 'L').asLongBuffer();
+    }
+
+    /**
+     * g6codes of a g6code column within the block.
+     */
+    public String[] g6codes(int block, int column) throws IOException {
+        ByteBuffer chunk = chunk(block, column, 'G');
+        int count = blocks.get(block).rows;
+        String[] codes = new String[count];
+
+        byte[] bytes = new byte[chunk.capacity() - 4*count];
+        chunk.position(4*count);
+        chunk.get(bytes);
+        int start = 0;
+        for (int r=0; r<count; r++) {
+            int end = chunk.getInt(4*r);
+            codes[r] = new String(bytes, start, end - start, "US-ASCII");
+            start = end;
+        }
+        return codes;
+    }
+
+    /**
+     * All values of a double column, which has to fit into an array.
+     */
+    public double[] doubles(int column) throws IOException {
+        double[] values = new double[arrayLength()];
+        int done = 0;
+        for (int b=0; b<blocks.size(); b++) {
+            DoubleBuffer chunk = doubles(b, column);
+            chunk.get(values, done, chunk.remaining());
+            done += blocks.get(b).rows;
+        }
+        return values;
+    }
+
+    public int[] ints(int column) throws IOException {
+        int[] values = new int[arrayLength()];
+        int done = 0;
+        for (int b=0; b<blocks.size(); b++) {
+            IntBuffer chunk = ints(b, column);
+            chunk.get(values, done, chunk.remaining());
+            done += blocks.get(b).rows;
+        }
+        return values;
+    }
+
+    public long[] longs(int column) throws IOException {
+        long[] values = new long[arrayLength()];
+        int done = 0;
+        for (int b=0; b<blocks.size(); b++) {
+            LongBuffer chunk = longs(b, column);
+            chunk.get(values, done, chunk.remaining());
+            done += blocks.get(b).rows;
+        }
+        return values;
+    }
+
+    public String[] g6codes(int column) throws IOException {
+        String[] values = new String[arrayLength()];
+        int done = 0;
+        for (int b=0; b<blocks.size(); b++) {
+            String[] chunk = g6codes(b, column);
+            System.arraycopy(chunk, 0, values, done, chunk.length);
+            done += chunk.length;
+        }
+        return values;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Writes the columns (all columns if null) to a text file in the layout of ReporterTemplate:
+     * a header line with names of columns, and then a line per row, with values separated by ", ".
+     */
+    public void exportCSV(String outputFileName, int[] columns) throws IOException {
+        export(outputFileName, columns, false);
+    }
+
+    /**
+     * Writes the columns (all columns if null) as a LaTeX longtable, with g6codes in typewriter font.
+     * The document has to use the package longtable.
+     */
+    public void exportTeX(String outputFileName, int[] columns) throws IOException {
+        export(outputFileName, columns, true);
+    }
+
+    private void export(String outputFileName, int[] columns, boolean tex) throws IOException {
+        if (columns == null) {
+            columns = new int[names.length];
+            for (int c=0; c<columns.length; c++)
+                columns[c] = c;
+        }
+        String separator = tex ? " & " : ", ";
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), "US-ASCII"), 1 << 16);
+        StringBuilder line = new StringBuilder();
+
+        if (tex) {
+            line.append("\\begin{longtable}{");
+            for (int c : columns)
+                line.append(types[c] == 'G' ? 'l' : 'r');
+            line.append("}\n");
+        }
+        for (int i=0; i<columns.length; i++)
+            line.append(i > 0 ? separator : "").append(tex ? escapeTeX(names[columns[i]]) : names[columns[i]]);
+        line.append(tex ? " \\\\\n\\hline\n\\endhead\n" : "\n");
+        out.write(line.toString());
+
+        for (int b=0; b<blocks.size(); b++) {
+            Object[] chunks = new Object[columns.length];      // only the selected columns are read
+            for (int i=0; i<columns.length; i++)
+                switch (types[columns[i]]) {
+                    case 'G': chunks[i] = g6codes(b, columns[i]); break;
+                    case 'I': chunks[i] = ints(b, columns[i]); break;
+                    case 'L': chunks[i] = longs(b, columns[i]); break;
+                    default:  chunks[i] = doubles(b, columns[i]);
+                }
+
+            for (int r=0; r<blocks.get(b).rows; r++) {
+                line.setLength(0);
+                for (int i=0; i<columns.length; i++) {
+                    if (i > 0)
+                        line.append(separator);
+                    switch (types[columns[i]]) {
+                        case 'G':
+                            String code = ((String[]) chunks[i])[r];
+                            line.append(tex ? "\\texttt{" + escapeTeX(code) + "}" : code);
+                            break;
+                        case 'I': line.append(((IntBuffer) chunks[i]).get(r)); break;
+                        case 'L': line.append(((LongBuffer) chunks[i]).get(r)); break;
+                        default:  line.append(((DoubleBuffer) chunks[i]).get(r));
+                    }
+                }
+                line.append(tex ? " \\\\\n" : "\n");
+                out.write(line.toString());
+            }
+        }
+
+        if (tex)
+            out.write("\\end{longtable}\n");
+        out.close();
+    }
+
+    // Characters of g6codes and names that LaTeX would not print as they are
+    private static String escapeTeX(String s) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': escaped.append("\\textbackslash{}"); break;
+                case '^':  escaped.append("\\textasciicircum{}"); break;
+                case '~':  escaped.append("\\textasciitilde{}"); break;
+                case '_': case '{': case '}': case '&': case '%': case '$': case '#':
+                    escaped.append('\\').append(c); break;
+                default:   escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private int arrayLength() {
+        if (rows > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException(fileName + " has too many rows for an array, read it block by block");
+        return (int) rows;
+    }
+
+    /**
+     * Chunk of the column within the block, checked to be of the expected type.
+     */
+    private ByteBuffer chunk(int block, int column, char type) throws IOException {
+        if (types[column] != type)
+            throw new IllegalArgumentException("Column " + names[column] + " is of type " + types[column] + ", not " + type);
+
+        Block b = blocks.get(block);
+        MappedByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, b.offset[column], b.stored[column]);
+        if (b.stored[column] == b.raw[column])
+            return stored;
+
+        byte[] compressedBytes = new byte[b.stored[column]];
+        stored.get(compressedBytes);
+        byte[] raw = new byte[b.raw[column]];
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressedBytes);
+        try {
+            if (inflater.inflate(raw) != raw.length)
+                throw new IOException("Damaged chunk in " + fileName);
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Damaged chunk in " + fileName + ": " + e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    // Reads names and types of columns from the beginning of the file into this object
+    private void readHeader(RandomAccessFile in) throws IOException {
+        if (in.length() < 13 || in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException(fileName + " is not a columnar results file");
+        }
+        if (in.readInt() != VERSION) {
+            in.close();
+            throw new IOException(fileName + " has an unknown version");
+        }
+        compressed = in.readBoolean();
+        names = new String[in.readInt()];
+        types = new char[names.length];
+        for (int c=0; c<names.length; c++) {
+            names[c] = in.readUTF();
+            types[c] = (char) in.readByte();
+        }
+    }
+
+    private static ArrayList<Block> readIndex(DataInputStream in, int columns) throws IOException {
+        int count = in.readInt();
+        ArrayList<Block> blocks = new ArrayList<Block>();
+        for (int i=0; i<count; i++)
+            blocks.add(Block.read(in, columns));
+        return blocks;
+    }
+
+    private static void writeIndex(DataOutputStream out, ArrayList<Block> blocks) throws IOException {
+        out.writeInt(blocks.size());
+        for (Block b : blocks)
+            b.write(out);
+    }
+
+    /**
+     * Creates a new file with the given names and types of columns (see the class description),
+     * whose chunks are compressed if compress is true.
+     */
+    public static Writer create(String fileName, String[] names, String types, boolean compress) throws IOException {
+        return new Writer(fileName, names, types, compress);
+    }
+
+    /**
+     * Continues writing a file from the state saved by Writer.saveState() in a checkpoint,
+     * discarding everything written after the checkpoint was taken.
+     */
+    public static Writer resume(String fileName, DataInputStream checkpoint) throws IOException {
+        return new Writer(fileName, checkpoint);
+    }
+
+    /**
+     * Writes rows value by value: add() is called for each column of a row in turn,
+     * and the row is complete once its last column has been added.
+     */
+    public static class Writer {
+        private String fileName;
+        private RandomAccessFile file;
+        private FileChannel channel;
+        private String[] names;
+        private char[] types;
+        private boolean compress;
+        private long position;          // end of the last block written
+        private ArrayList<Block> blocks;
+
+        // Rows of the current block, column by column
+        private double[][] doubleValues;
+        private int[][] intValues;
+        private long[][] longValues;
+        private byte[][] codeBytes;
+        private int[] codeSize;
+        private int[][] codeEnds;
+        private int rows;               // complete rows of the current block
+        private int column;             // next column of the current row
+
+        private Deflater deflater;
+
+        private Writer(String fileName, String[] names, String types, boolean compress) throws IOException {
+            if (names.length != types.length() || names.length == 0)
+                throw new IllegalArgumentException("Each column needs a name and a type");
+            for (int c=0; c<names.length; c++)
+                if ("GILD".indexOf(types.charAt(c)) < 0)
+                    throw new IllegalArgumentException("Unknown type " + types.charAt(c) + " of column " + names[c]);
+
+            this.fileName = fileName;
+            this.names = names;
+            this.types = types.toCharArray();
+            this.compress = compress;
+            file = new RandomAccessFile(fileName, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeBoolean(compress);
+            header.writeInt(names.length);
+            for (int c=0; c<names.length; c++) {
+                header.writeUTF(names[c]);
+                header.writeByte(types.charAt(c));
+            }
+            header.close();
+            write(ByteBuffer.wrap(bytes.toByteArray()));
+
+            blocks = new ArrayList<Block>();
+            allocate();
+        }
+
+        private Writer(String fileName, DataInputStream checkpoint) throws IOException {
+            this.fileName = fileName;
+            ColumnarResults schema = new ColumnarResults();
+            schema.fileName = fileName;
+            file = new RandomAccessFile(fileName, "rw");
+            schema.readHeader(file);
+            names = schema.names;
+            types = schema.types;
+            compress = schema.compressed;
+            channel = file.getChannel();
+
+            position = checkpoint.readLong();
+            file.setLength(position);
+            blocks = readIndex(checkpoint, names.length);
+            allocate();
+        }
+
+        private void allocate() {
+            doubleValues = new double[names.length][];
+            intValues = new int[names.length][];
+            longValues = new long[names.length][];
+            codeBytes = new byte[names.length][];
+            codeSize = new int[names.length];
+            codeEnds = new int[names.length][];
+            for (int c=0; c<names.length; c++)
+                switch (types[c]) {
+                    case 'G': codeBytes[c] = new byte[16 * BLOCK_ROWS]; codeEnds[c] = new int[BLOCK_ROWS]; break;
+                    case 'I': intValues[c] = new int[BLOCK_ROWS]; break;
+                    case 'L': longValues[c] = new long[BLOCK_ROWS]; break;
+                    default:  doubleValues[c] = new double[BLOCK_ROWS];
+                }
+            rows = 0;
+            column = 0;
+        }
+
+        /**
+         * Adds the g6code to the next column of the row.
+         */
+        public Writer add(String g6code) throws IOException {
+            int c = next('G');
+            int length = g6code.length();
+            if (codeSize[c] + length > codeBytes[c].length)
+                codeBytes[c] = Arrays.copyOf(codeBytes[c], Math.max(codeSize[c] + length, 2*codeBytes[c].length));
+            for (int i=0; i<length; i++)
+                codeBytes[c][codeSize[c]++] = (byte) g6code.charAt(i);
+            codeEnds[c][rows] = codeSize[c];
+            return advance();
+        }
+
+        public Writer add(int value) throws IOException {
+            if (column < types.length && types[column] == 'L')     // ints are also accepted by long columns
+                return add((long) value);
+            if (column < types.length && types[column] == 'D')     // and by double columns
+                return add((double) value);
+            intValues[next('I')][rows] = value;
+            return advance();
+        }
+
+        public Writer add(long value) throws IOException {
+            longValues[next('L')][rows] = value;
+            return advance();
+        }
+
+        public Writer add(double value) throws IOException {
+            doubleValues[next('D')][rows] = value;
+            return advance();
+        }
+
+        private int next(char type) {
+            if (types[column] != type)
+                throw new IllegalArgumentException("Column " + names[column] + " is of type " + types[column] + ", not " + type);
+            return column;
+        }
+
+        private Writer advance() throws IOException {
+            if (++column == names.length) {
+                column = 0;
+                if (++rows == BLOCK_ROWS)
+                    flushBlock();
+            }
+            return this;
+        }
+
+        /**
+         * Writes the rows collected so far as a block, possibly shorter than BLOCK_ROWS.
+         */
+        private void flushBlock() throws IOException {
+            if (column != 0)
+                throw new IllegalStateException("Row " + rows + " of " + fileName + " is not complete");
+            if (rows == 0)
+                return;
+
+            Block b = new Block(rows, names.length);
+            for (int c=0; c<names.length; c++) {
+                ByteBuffer raw;
+                switch (types[c]) {
+                    case 'G':
+                        raw = ByteBuffer.allocate(4*rows + codeSize[c]);
+                        raw.asIntBuffer().put(codeEnds[c], 0, rows);
+                        raw.position(4*rows);
+                        raw.put(codeBytes[c], 0, codeSize[c]);
+                        codeSize[c] = 0;
+                        break;
+                    case 'I':
+                        raw = ByteBuffer.allocate(4*rows);
+                        raw.asIntBuffer().put(intValues[c], 0, rows);
+                        break;
+                    case 'L':
+                        raw = ByteBuffer.allocate(8*rows);
+                        raw.asLongBuffer().put(longValues[c], 0, rows);
+                        break;
+                    default:
+                        raw = ByteBuffer.allocate(8*rows);
+                        raw.asDoubleBuffer().put(doubleValues[c], 0, rows);
+                }
+
+                byte[] bytes = raw.array();
+                b.offset[c] = position;
+                b.raw[c] = bytes.length;
+                b.stored[c] = bytes.length;
+                if (compress) {
+                    if (deflater == null)
+                        deflater = new Deflater(Deflater.BEST_SPEED);
+                    deflater.reset();
+                    deflater.setInput(bytes);
+                    deflater.finish();
+                    byte[] deflated = new byte[bytes.length];
+                    int length = deflater.deflate(deflated);
+                    if (deflater.finished() && length < bytes.length) {      // only chunks that become smaller
+                        bytes = Arrays.copyOf(deflated, length);
+                        b.stored[c] = length;
+                    }
+                }
+                write(ByteBuffer.wrap(bytes));
+            }
+
+            blocks.add(b);
+            rows = 0;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        }
+
+        /**
+         * Writes the rows collected so far, and saves the position and the index of blocks in a checkpoint.
+         */
+        public void saveState(DataOutputStream checkpoint) throws IOException {
+            flushBlock();
+            checkpoint.writeLong(position);
+            writeIndex(checkpoint, blocks);
+        }
+
+        /**
+         * Appends all blocks of a finished file with the same columns, e.g., the output of a shard.
+         * Chunks are copied as they are, compressed or not.
+         */
+        public void append(ColumnarResults other) throws IOException {
+            if (!Arrays.equals(names, other.names) || !Arrays.equals(types, other.types))
+                throw new IllegalArgumentException(other.fileName + " has different columns than " + fileName);
+
+            flushBlock();
+            for (Block ob : other.blocks) {
+                Block b = new Block(ob.rows, names.length);
+                for (int c=0; c<names.length; c++) {
+                    b.offset[c] = position;
+                    b.stored[c] = ob.stored[c];
+                    b.raw[c] = ob.raw[c];
+                    write(other.channel.map(FileChannel.MapMode.READ_ONLY, ob.offset[c], ob.stored[c]));
+                }
+                blocks.add(b);
+            }
+        }
+
+        /**
+         * Writes the remaining rows and the index of blocks, and closes the file.
+         */
+        public void close() throws IOException {
+            flushBlock();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(bytes);
+            writeIndex(index, blocks);
+            index.writeLong(position);
+            index.writeInt(MAGIC);
+            index.close();
+            write(ByteBuffer.wrap(bytes.toByteArray()));
+
+            file.setLength(position);
+            file.close();
+            if (deflater != null)
+                deflater.end();
+        }
+    }
+
+    private ColumnarResults() {         // for reading the header of a file being resumed
+    }
+
+    /**
+     * Rows of a block and the offset, stored length and raw length of each of its chunks.
+     */
+    private static class Block {
+        int rows;
+        long[] offset;
+        int[] stored;
+        int[] raw;
+
+        Block(int rows, int columns) {
+            this.rows = rows;
+            offset = new long[columns];
+            stored = new int[columns];
+            raw = new int[columns];
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(rows);
+            for (int c=0; c<offset.length; c++) {
+                out.writeLong(offset[c]);
+                out.writeInt(stored[c]);
+                out.writeInt(raw[c]);
+            }
+        }
+
+        static Block read(DataInputStream in, int columns) throws IOException {
+            Block b = new Block(in.readInt(), columns);
+            for (int c=0; c<columns; c++) {
+                b.offset[c] = in.readLong();
+                b.stored[c] = in.readInt();
+                b.raw[c] = in.readInt();
+            }
+            return b;
+        }
+    }
+
+    // Exports a file to text: the first argument is the file, the second csv or tex,
+    // and the remaining ones are names of columns to be exported (all by default).
+    // The output file is named as the input file with the extension .csv or .tex instead of .col.
+    public static void main(String[] args) throws IOException {
+        ColumnarResults results = open(args[0]);
+        int[] columns = null;
+        if (args.length > 2) {
+            columns = new int[args.length - 2];
+            for (int i=2; i<args.length; i++)
+                if ((columns[i-2] = results.column(args[i])) < 0)
+                    throw new IllegalArgumentException(args[0] + " has no column " + args[i]);
+        }
+
+        String base = args[0].endsWith(".col") ? args[0].substring(0, args[0].length() - 4) : args[0];
+        if (args[1].equals("csv"))
+            results.exportCSV(base + ".csv", columns);
+        else if (args[1].equals("tex"))
+            results.exportTeX(base + ".tex", columns);
+        else
+            throw new IllegalArgumentException("Unknown format " + args[1] + ", expected csv or tex");
+        results.close();
+
+        System.out.println("" + results.rows() + " rows exported to " + base + "." + args[1]);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * ComponentSpectra.java
+ *
+ * Spectra of disconnected graphs from the spectra of their connected components.
+ * The adjacency, Laplacian and signless Laplacian matrices of a disconnected graph are block diagonal,
+ * with one block per component, so that the spectrum of the graph is the union of the spectra of its components.
+ * Each component is decomposed separately, which takes the sum of k^3 over the component orders k instead of n^3,
+ * and their sorted spectra are then merged.
+ *
+ * Graphs with few edges, such as geng outputs with a bounded number of edges, are full of the same small components:
+ * isolated vertices, K2, paths, triangles, ... Spectra of components with at most CACHED_ORDER vertices
+ * are therefore memoized in a cache shared by all threads, keyed by the matrix and the canonical form
+ * of the component (see CanonicalLabeling), so that each such component is decomposed only once per run.
+ * The cache stops growing at CACHE_CAPACITY entries.
+ */
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class ComponentSpectra {
+    public static final int CACHED_ORDER = 12;
+    public static final int CACHE_CAPACITY = 1 << 16;
+
+    private static final ConcurrentHashMap<String, double[]> cache = new ConcurrentHashMap<String, double[]>();
+    private static final double[] ISOLATED_VERTEX = { 0.0 };     // all matrices of K1 are zero
+
+    /**
+     * Spectrum of the matrix of the graph, given by its name ("A", "L" or "Q") for the cache,
+     * merged from the spectra of the components that the function computes.
+     */
+    public static double[] spectrum(Graph g, String matrix, Function<Graph, double[]> componentSpectrum) {
+        Graph[] components = g.componentGraphs();
+        double[][] spectra = new double[components.length][];
+        for (int c=0; c<components.length; c++)
+            spectra[c] = componentSpectrum(components[c], matrix, componentSpectrum);
+        return merge(spectra);
+    }
+
+    // Spectrum of a connected component, from the cache if it is small enough.
+    // Arrays from the cache are shared, so they are only read by merge().
+    private static double[] componentSpectrum(Graph component, String matrix, Function<Graph, double[]> componentSpectrum) {
+        int k = component.n();
+        if (k == 1)
+            return ISOLATED_VERTEX;
+        if (k > CACHED_ORDER)
+            return componentSpectrum.apply(component);
+
+        String key = matrix + component.canonicalG6code();
+        double[] eigs = cache.get(key);
+        if (eigs == null) {                     // computed from the canonical form, so that rounding errors
+                                                // do not depend on which labeling of the component comes first
+            eigs = componentSpectrum.apply(new Graph(component.canonicalG6code()));
+            if (cache.size() < CACHE_CAPACITY)
+                cache.put(key, eigs);
+        }
+        return eigs;
+    }
+
+    /**
+     * Merges sorted arrays into a new sorted array, pairwise as in merge sort,
+     * so that merging k arrays with n values in total takes O(n log k) time.
+     */
+    public static double[] merge(double[][] spectra) {
+        if (spectra.length == 0)
+            return new double[0];
+        if (spectra.length == 1)
+            return spectra[0].clone();
+
+        int count = spectra.length;
+        while (count > 1) {
+            for (int i=0; i<count/2; i++)
+                spectra[i] = merge(spectra[2*i], spectra[2*i+1]);
+            if (count % 2 == 1)
+                spectra[count/2] = spectra[count-1];
+            count = (count+1) / 2;
+        }
+        return spectra[0];
+    }
+
+    private static double[] merge(double[] a, double[] b) {
+        double[] merged = new double[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length)
+            merged[k++] = (a[i] <= b[j]) ? a[i++] : b[j++];
+        while (i < a.length)
+            merged[k++] = a[i++];
+        while (j < b.length)
+            merged[k++] = b[j++];
+        return merged;
+    }
+}
@@ -0,0 +1,395 @@
+/**
+ * Coordinator.java
+ *
+ * Distributes a template run over a set of input files among several worker JVMs.
+ * Each input file is split into units of consecutive byte ranges (see TemplateRunner.runPart()),
+ * which are handed out to workers connected over TCP (see Worker).
+ * Workers send back partial results of their units, which are merged
+ * in the order of units as soon as possible (see GraphTemplate.mergePartial()),
+ * so that results of each input file are reported exactly as by a single run over that file.
+ *
+ * Once there are no more units to hand out, an idle worker gets a second copy of the unit
+ * that has been running for the longest time, so that a slow or stuck worker does not delay the whole run.
+ * Whichever copy finishes first is merged, the other one is ignored.
+ * Units of a worker that disconnects, or on which the template fails, are handed out again,
+ * but a unit that fails MAX_ATTEMPTS times stops the whole run, as does the loss of all workers.
+ * Output files of units are deleted once the results of the run have been reported.
+ *
+ * The coordinator starts the given number of local workers by itself,
+ * while further workers may be started on other hosts with "java Worker coordinatorHost port",
+ * provided that the coordinator listens on an address reachable from those hosts (see --bind).
+ * For example,
+ *     java Coordinator --workers=4 --port=5000 ExtremalTemplate graph11.g6 graph12.g6 -- 3 1
+ * runs ExtremalTemplate with parameters 3 1 over two files with four local workers.
+ * Options are:
+ *     --workers=N      number of local workers (default: number of processors)
+ *     --port=P         TCP port for workers (default: any free port, printed at start)
+ *     --bind=A         address to listen on (default: loopback only, 0.0.0.0 for all addresses)
+ *     --unit-size=B    number of bytes of input file in a unit of work (default: 16 MB)
+ */
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class Coordinator {
+    public static final int MAX_ATTEMPTS = 3;   // failures of a unit before the run is stopped
+
+    private String templateName;                // template to be run
+    private String[] params;                    // its parameters
+    private ArrayList<Input> inputs;            // input files with their units
+    private LinkedList<Unit> pending;           // units not handed out yet
+    private ArrayList<Unit> running;            // units handed out, but not completed yet
+    private int remainingUnits;                 // units not completed yet
+    private int finishedInputs;                 // input files whose results have been reported
+    private IOException failure;                // error which stops the run
+    private int connectedWorkers;               // workers connected at the moment
+    private boolean anyConnected;               // whether any worker has connected so far
+    private TreeMap<String, Integer> workerUnits;   // number of units completed by each worker
+
+    /**
+     * An input file together with the template merging the partial results of its units.
+     */
+    private static class Input {
+        String fileName;
+        GraphTemplate merger;
+        byte[][] partials;                      // partial results of completed units not merged yet
+        int merged;                             // number of units merged so far
+        long counter;                           // number of graphs processed so far
+    }
+
+    /**
+     * A byte range of an input file.
+     */
+    private static class Unit {
+        Input input;
+        int index;
+        long start, end;
+        int copies;                             // number of copies running at the moment
+        int attempts;                           // number of times it was handed out
+        int failures;                           // number of copies that failed or were lost
+        long handedOut;                         // time when it was last handed out
+        boolean done;
+    }
+
+    /**
+     * Prepares the run of the template with parameters over input files,
+     * split into units of at most unitSize bytes.
+     */
+    public Coordinator(String templateName, String[] params, String[] inputFileNames, long unitSize) throws IOException {
+        this.templateName = templateName;
+        this.params = params;
+        inputs = new ArrayList<Input>();
+        pending = new LinkedList<Unit>();
+        running = new ArrayList<Unit>();
+        workerUnits = new TreeMap<String, Integer>();
+
+        for (String fileName : inputFileNames) {
+            long length = new File(fileName).length();
+            int units = (int) Math.max(1, (length + unitSize - 1) / unitSize);
+
+            Input input = new Input();
+            input.fileName = fileName;
+            input.merger = TemplateRunner.newTemplate(templateName, params);
+            input.merger.begin(fileName, fileName, null);
+            input.partials = new byte[units][];
+            inputs.add(input);
+
+            for (int i=0; i<units; i++) {
+                Unit unit = new Unit();
+                unit.input = input;
+                unit.index = i;
+                unit.start = i * length / units;
+                unit.end = (i+1) * length / units;
+                pending.add(unit);
+            }
+        }
+        remainingUnits = pending.size();
+    }
+
+    /**
+     * Accepts workers at the address (null for loopback) and port (0 for any free port), starts local workers,
+     * and waits until the results of all input files are reported, or the run fails.
+     */
+    public void run(InetAddress address, int port, int localWorkers) throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        if (address == null)
+            address = InetAddress.getLoopbackAddress();
+        ServerSocket server = new ServerSocket(port, 50, address);
+        String host = address.isAnyLocalAddress() ? InetAddress.getLoopbackAddress().getHostAddress()
+                                                  : address.getHostAddress();
+        System.out.println("Coordinator listening on " + address.getHostAddress() + " port " + server.getLocalPort() +
+                           ", " + remainingUnits + " units in " + inputs.size() + " input files");
+
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread serving = new Thread(() -> serve(socket));
+                    serving.setDaemon(true);
+                    serving.start();
+                }
+            }
+            catch (IOException e) {                 // server socket closed at the end of the run
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        ArrayList<Process> processes = new ArrayList<Process>();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i=0; i<localWorkers; i++)
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                             "Worker", host, "" + server.getLocalPort())
+                          .inheritIO().start());
+
+        synchronized (this) {
+            while (finishedInputs < inputs.size() && failure == null) {
+                wait(1000);                         // wakes up now and then to look for live workers
+
+                boolean live = connectedWorkers > 0;
+                for (Process process : processes)
+                    live |= process.isAlive();
+                if (!live && (localWorkers > 0 || anyConnected) && finishedInputs < inputs.size() && failure == null)
+                    failure = new IOException("No live workers remain, " + remainingUnits + " units not completed");
+            }
+            notifyAll();                            // serving threads stop handing out units after a failure
+        }
+
+        server.close();
+        for (Process process : processes)           // workers still running a second copy of a unit are not needed
+            if (process.isAlive())
+                process.destroy();
+        for (Process process : processes)
+            process.waitFor();
+
+        for (Input input : inputs)                  // outputs of all copies of units have been merged or are not needed
+            for (int i=0; i<input.partials.length; i++)
+                TemplateRunner.deleteOutputs(TemplateRunner.shardPrefix(input.fileName, i, input.partials.length));
+
+        if (failure != null)
+            throw failure;
+
+        for (Map.Entry<String, Integer> entry : workerUnits.entrySet())
+            System.out.println("Worker " + entry.getKey() + " completed " + entry.getValue() + " units");
+        long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+
+    /**
+     * Hands out units to a single worker and collects their partial results.
+     */
+    private void serve(Socket socket) {
+        String name = socket.getRemoteSocketAddress().toString();
+        Unit unit = null;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            name = in.readUTF();
+            synchronized (this) {
+                connectedWorkers++;
+                anyConnected = true;
+            }
+
+            while ((unit = nextUnit()) != null) {
+                out.writeBoolean(true);
+                out.writeUTF(templateName);
+                out.writeInt(params.length);
+                for (String param : params)
+                    out.writeUTF(param);
+                out.writeUTF(unit.input.fileName);
+                out.writeUTF(TemplateRunner.shardPrefix(unit.input.fileName, unit.index, unit.input.partials.length) +
+                             ".attempt-" + unit.attempts);   // copies of a unit do not share output files
+                out.writeLong(unit.start);
+                out.writeLong(unit.end);
+                out.flush();
+
+                if (!in.readBoolean()) {                // the template failed on the unit
+                    String error = in.readUTF();
+                    Unit failed = unit;
+                    unit = null;
+                    System.out.println("Unit " + failed.index + " of " + failed.input.fileName +
+                                       " failed on worker " + name + ": " + error);
+                    release(failed, error);
+                    continue;
+                }
+
+                long counter = in.readLong();
+                byte[] partial = new byte[in.readInt()];
+                in.readFully(partial);
+
+                Unit completed = unit;
+                unit = null;
+                if (complete(completed, counter, partial, name))
+                    mergeCompleted(completed.input);
+            }
+
+            out.writeBoolean(false);
+            out.flush();
+        }
+        catch (IOException e) {
+            System.out.println("Worker " + name + " disconnected (" + e + ")");
+            if (unit != null)
+                release(unit, "worker " + name + " disconnected");
+        }
+        finally {
+            synchronized (this) {
+                connectedWorkers--;
+                notifyAll();
+            }
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Returns the next unit to be handed out, waiting if necessary,
+     * or null if all units have been completed.
+     */
+    private synchronized Unit nextUnit() {
+        while (remainingUnits > 0 && failure == null) {
+            Unit unit = pending.pollFirst();
+
+            if (unit == null)                       // look for the unit running for the longest time
+                for (Unit u : running)
+                    if (u.copies == 1 && (unit == null || u.handedOut < unit.handedOut))
+                        unit = u;
+
+            if (unit != null) {
+                if (unit.copies == 0)
+                    running.add(unit);
+                unit.copies++;
+                unit.attempts++;
+                unit.handedOut = System.currentTimeMillis();
+                return unit;
+            }
+
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the partial result of a unit.
+     *
+     * @return boolean False if another copy of the unit has already been completed.
+     */
+    private synchronized boolean complete(Unit unit, long counter, byte[] partial, String worker) {
+        unit.copies--;
+        if (unit.done)
+            return false;
+
+        unit.done = true;
+        running.remove(unit);
+        remainingUnits--;
+        unit.input.partials[unit.index] = partial;
+        unit.input.counter += counter;
+
+        Integer units = workerUnits.get(worker);
+        workerUnits.put(worker, (units == null) ? 1 : units + 1);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the unit of a failed or disconnected worker to the pending units, unless another copy is running,
+     * or stops the run if the unit has failed MAX_ATTEMPTS times.
+     */
+    private synchronized void release(Unit unit, String reason) {
+        unit.copies--;
+        if (!unit.done) {
+            unit.failures++;
+            if (unit.failures >= MAX_ATTEMPTS) {
+                if (failure == null)
+                    failure = new IOException("Unit " + unit.index + " (bytes " + unit.start + " to " + unit.end +
+                                              ") of " + unit.input.fileName + " failed " + unit.failures +
+                                              " times, last: " + reason);
+            }
+            else if (unit.copies == 0) {
+                running.remove(unit);
+                pending.addFirst(unit);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Merges partial results of the input file that are next in the order of units,
+     * and reports the results once all units are merged.
+     */
+    private void mergeCompleted(Input input) {
+        try {
+            synchronized (input) {
+                while (input.merged < input.partials.length && input.partials[input.merged] != null) {
+                    byte[] partial = input.partials[input.merged];
+                    input.partials[input.merged] = null;
+                    input.merged++;
+                    input.merger.mergePartial(new DataInputStream(new ByteArrayInputStream(partial)));
+
+                    if (input.merged == input.partials.length) {
+                        input.merger.end();
+                        System.out.println("Results of " + input.counter + " graphs from " + input.fileName + " reported");
+                        synchronized (this) {
+                            finishedInputs++;
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            synchronized (this) {
+                if (failure == null)
+                    failure = (e instanceof IOException) ? (IOException) e
+                                                         : new IOException("Merging results of " + input.fileName + " failed: " + e, e);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Arguments are options, the name of the template class, input files,
+     * and after "--" the parameters of the template.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int port = 0;
+        InetAddress address = null;
+        long unitSize = 16L << 20;
+
+        int i = 0;
+        for (; i<args.length && args[i].startsWith("--") && !args[i].equals("--"); i++) {
+            if (args[i].indexOf('=') < 0)
+                throw new IllegalArgumentException("Option " + args[i] + " has no value");
+            String name = args[i].substring(0, args[i].indexOf('='));
+            String value = args[i].substring(args[i].indexOf('=')+1);
+            if (name.equals("--workers"))
+                workers = Integer.parseInt(value);
+            else if (name.equals("--port"))
+                port = Integer.parseInt(value);
+            else if (name.equals("--bind"))
+                address = InetAddress.getByName(value);
+            else if (name.equals("--unit-size"))
+                unitSize = Long.parseLong(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+
+        String templateName = args[i++];
+        ArrayList<String> inputFileNames = new ArrayList<String>();
+        for (; i<args.length && !args[i].equals("--"); i++)
+            inputFileNames.add(args[i]);
+        String[] params = (i < args.length) ? Arrays.copyOfRange(args, i+1, args.length) : new String[0];
+
+        new Coordinator(templateName, params, inputFileNames.toArray(new String[0]), unitSize).run(address, port, workers);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * DaemonClient.java
+ *
+ * Sends jobs to AnalysisDaemon and reports how long each of them took. Usage:
+ *     java DaemonClient [--port=P] Template inputFileName [template parameters]
+ * runs a single job, for example "java DaemonClient ExtremalTemplate graph10cm9.g6 1 1",
+ *     java DaemonClient [--port=P] -
+ * runs jobs read from the standard input, one per line in the same form, and
+ *     java DaemonClient [--port=P] --shutdown
+ * stops the daemon. Names of input files are made absolute before they are sent,
+ * so that they may be given relative to the working directory of the client.
+ */
+import java.io.*;
+import java.net.*;
+
+public class DaemonClient {
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    public DaemonClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Runs a job in the daemon and prints its outcome and latency.
+     *
+     * @return boolean True if the job succeeded.
+     */
+    public boolean run(String templateName, String inputFileName, String[] params) throws IOException {
+        long startTime = System.nanoTime();
+
+        out.writeInt(AnalysisDaemon.RUN);
+        out.writeUTF(templateName);
+        out.writeUTF(new File(inputFileName).getAbsolutePath());
+        out.writeInt(params.length);
+        for (String param : params)
+            out.writeUTF(param);
+        out.flush();
+
+        boolean succeeded = in.readBoolean();
+        long latency = in.readLong();
+        String message = in.readUTF();
+        long roundTrip = (System.nanoTime() - startTime) / 1000000;
+
+        System.out.println(templateName + " " + inputFileName + (params.length > 0 ? " " : "") +
+                           String.join(" ", params) + ": " + message + " in " + latency + " ms (" + roundTrip + " ms round trip)");
+        return succeeded;
+    }
+
+    /**
+     * Asks the daemon to stop.
+     */
+    public void shutdown() throws IOException {
+        out.writeInt(AnalysisDaemon.SHUTDOWN);
+        out.flush();
+        in.readBoolean();
+        in.readLong();
+        System.out.println(in.readUTF());
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = AnalysisDaemon.DEFAULT_PORT;
+        int first = 0;
+        if (args.length > 0 && args[0].startsWith("--port=")) {
+            port = Integer.parseInt(args[0].substring("--port=".length()));
+            first = 1;
+        }
+
+        DaemonClient client = new DaemonClient(port);
+        boolean succeeded = true;
+
+        if (args[first].equals("--shutdown"))
+            client.shutdown();
+        else if (args[first].equals("-")) {                 // jobs from the standard input
+            BufferedReader jobs = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = jobs.readLine()) != null) {
+                String[] job = line.trim().split("\\s+");
+                if (job.length < 2)
+                    continue;                               // skip empty lines
+                String[] params = new String[job.length-2];
+                System.arraycopy(job, 2, params, 0, params.length);
+                succeeded &= client.run(job[0], job[1], params);
+            }
+        }
+        else {
+            String[] params = new String[args.length-first-2];
+            System.arraycopy(args, first+2, params, 0, params.length);
+            succeeded = client.run(args[first], args[first+1], params);
+        }
+
+        client.close();
+        if (!succeeded)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * DotSink.java
+ *
+ * Collects Graphviz drawings of many graphs in a single file instead of one .dot file per graph,
+ * since millions of tiny files make the filesystem the bottleneck of a large run.
+ * Once a sink is set by Graph.setDotSink(), Graph.saveDotFormat() passes its drawings to the sink,
+ * so that templates need not be changed (see TemplateRunner.setDotSink() and the option --dots).
+ *
+ * If the name of the file ends with ".zip", each drawing is a compressed entry of a zip archive
+ * named by the file name that the template gave to saveDotFormat().
+ * Otherwise the drawings are appended one after another to a single multi-graph .dot file,
+ * which Graphviz tools process graph by graph, e.g., dot -Tpng -O drawings.dot,
+ * each preceded by a comment line with its name. The file fileName + ".index" then contains a line
+ * "offset length name" for each drawing, so that a single drawing can be cut out of the file.
+ *
+ * Drawings are rendered by the threads that process graphs, but written by a separate writer thread:
+ * they are passed through a queue of at most QUEUE_CAPACITY drawings, so that the processing threads
+ * wait for the writer only when it falls that far behind. At most maxDrawings drawings are accepted,
+ * and further ones are skipped and only counted.
+ *
+ * A sink may be saved in a checkpoint with saveState(), which waits until all drawings accepted so far
+ * are written, and resumed with resume() before any drawing is added in the resumed run.
+ * Files are opened only when the writer thread gets its first drawing, so that a resumed sink
+ * truncates the .dot file and its index to the positions saved in the checkpoint and appends to them,
+ * as TemplateRunner.openOutput() does, while a resumed zip archive is rewritten with the drawings
+ * saved in the checkpoint, since a zip archive cannot be appended to.
+ */
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class DotSink {
+    public static final int QUEUE_CAPACITY = 1024;
+
+    // A rendered drawing on its way to the writer thread, or a request to flush the drawings before it
+    private static class Drawing {
+        final String name;
+        final byte[] dot;
+        final CountDownLatch flushed;           // counted down once the drawings before it are flushed
+
+        Drawing(String name, byte[] dot) {
+            this(name, dot, null);
+        }
+
+        Drawing(String name, byte[] dot, CountDownLatch flushed) {
+            this.name = name;
+            this.dot = dot;
+            this.flushed = flushed;
+        }
+    }
+
+    private static final Drawing END = new Drawing(null, null);    // tells the writer thread to finish
+
+    private final String fileName;
+    private final boolean zipped;               // whether the file is a zip archive
+    private final long maxDrawings;
+    private final AtomicLong accepted = new AtomicLong();
+    private final ArrayBlockingQueue<Drawing> queue = new ArrayBlockingQueue<Drawing>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile IOException failure;       // the first failure of the writer thread, if any
+    private boolean closed;
+
+    // Positions saved in the checkpoint of a resumed sink, used when the files are opened
+    private boolean resumed;
+    private long resumedEntries;                // number of entries of the zip archive
+    private long resumedDots, resumedIndex;     // lengths of the .dot file and its index
+
+    // Output of the writer thread: either the zip archive, or the .dot file and its index
+    private boolean opened;
+    private ZipOutputStream zip;
+    private HashSet<String> entryNames;         // zip entries must have distinct names
+    private long entries;                       // number of entries of the zip archive
+    private FileOutputStream dotsFile, indexFile;
+    private BufferedOutputStream dots;
+    private ResultWriter index;
+    private long offset;                        // current length of the .dot file
+
+    // Positions of the last flush, which saveState() writes to the checkpoint
+    private long flushedEntries, flushedDots, flushedIndex;
+
+    /**
+     * Opens a new sink writing to the file, which accepts at most maxDrawings drawings.
+     */
+    public static DotSink open(String fileName, long maxDrawings) throws IOException {
+        return new DotSink(fileName, maxDrawings);
+    }
+
+    private DotSink(String fileName, long maxDrawings) throws IOException {
+        if (maxDrawings < 0)
+            throw new IllegalArgumentException("Invalid number of drawings " + maxDrawings);
+        this.fileName = fileName;
+        this.maxDrawings = maxDrawings;
+        zipped = fileName.endsWith(".zip");
+        entryNames = new HashSet<String>();
+
+        writer = new Thread(this::write, "DotSink " + fileName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Renders the .dot format description of the graph, with the data vertex unless data is null,
+     * and queues it under the given name.
+     *
+     * @return boolean false if the drawing is skipped, as maxDrawings drawings have been accepted already.
+     */
+    public boolean add(String name, Graph g, String data) throws IOException {
+        if (failure != null)
+            throw new IOException("Writing drawings to " + fileName + " failed: " + failure, failure);
+        if (accepted.incrementAndGet() > maxDrawings)
+            return false;
+
+        ResultWriter out = new ResultWriter();
+        g.writeDotFormat(out, data);
+        out.println();
+        put(new Drawing(name, out.toByteArray()));
+        return true;
+    }
+
+    /**
+     * Number of drawings accepted so far.
+     */
+    public long drawings() {
+        return Math.min(accepted.get(), maxDrawings);
+    }
+
+    /**
+     * Number of drawings skipped so far over the limit.
+     */
+    public long skipped() {
+        return Math.max(accepted.get() - maxDrawings, 0);
+    }
+
+    /**
+     * Waits until the writer thread writes all drawings accepted so far, and writes to the checkpoint
+     * the number of accepted drawings and the positions in the files up to which they are written.
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        Drawing flush = new Drawing(null, null, new CountDownLatch(1));
+        put(flush);
+        try {
+            flush.flushed.await();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while writing drawings to " + fileName);
+        }
+        if (failure != null)
+            throw new IOException("Writing drawings to " + fileName + " failed: " + failure, failure);
+
+        checkpoint.writeLong(accepted.get());
+        if (zipped)
+            checkpoint.writeLong(flushedEntries);
+        else {
+            checkpoint.writeLong(flushedDots);
+            checkpoint.writeLong(flushedIndex);
+        }
+    }
+
+    /**
+     * Continues the sink from the state written by saveState() to a checkpoint,
+     * which has to be done before any drawing is added.
+     */
+    public void resume(DataInputStream checkpoint) throws IOException {
+        if (accepted.get() > 0)
+            throw new IllegalStateException("Drawings added to " + fileName + " before resuming it");
+
+        accepted.set(checkpoint.readLong());
+        if (zipped)
+            resumedEntries = checkpoint.readLong();
+        else {
+            resumedDots = checkpoint.readLong();
+            resumedIndex = checkpoint.readLong();
+        }
+        resumed = true;
+    }
+
+    /**
+     * Waits until the writer thread writes all queued drawings, closes the file and reports the drawings.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        put(END);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while writing drawings to " + fileName);
+        }
+        if (failure != null)
+            throw new IOException("Writing drawings to " + fileName + " failed: " + failure, failure);
+
+        System.out.println("" + drawings() + " drawings written to " + fileName +
+            (skipped() > 0 ? ", " + skipped() + " more skipped over the limit of " + maxDrawings : ""));
+    }
+
+    private void put(Drawing drawing) throws IOException {
+        try {
+            queue.put(drawing);
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while queueing drawings for " + fileName);
+        }
+    }
+
+    // Body of the writer thread: opens the files with the first drawing, and writes drawings until END is taken
+    // from the queue. After a failure, the queue is still drained, so that add(), saveState() and close()
+    // do not wait forever.
+    private void write() {
+        try {
+            while (true) {
+                Drawing drawing = queue.take();
+                if (drawing == END)
+                    break;
+                if (failure == null)
+                    try {
+                        if (!opened)
+                            openFiles();
+                        if (drawing.flushed != null)
+                            flush();
+                        else
+                            writeDrawing(drawing);
+                    }
+                    catch (IOException e) {
+                        failure = e;
+                    }
+                if (drawing.flushed != null)
+                    drawing.flushed.countDown();
+            }
+
+            if (failure == null && !opened)
+                openFiles();
+            if (zip != null)
+                zip.close();
+            if (dots != null)
+                dots.close();
+            if (index != null)
+                index.close();
+        }
+        catch (IOException e) {
+            if (failure == null)
+                failure = e;
+        }
+        catch (InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted while writing drawings to " + fileName);
+        }
+    }
+
+    // Opens new files, or continues the files of a resumed sink
+    private void openFiles() throws IOException {
+        opened = true;
+        if (!zipped) {
+            dotsFile = resumed ? TemplateRunner.openOutput(fileName, resumedDots) : new FileOutputStream(fileName);
+            indexFile = resumed ? TemplateRunner.openOutput(fileName + ".index", resumedIndex)
+                                : new FileOutputStream(fileName + ".index");
+            dots = new BufferedOutputStream(dotsFile, 1 << 16);
+            index = new ResultWriter(indexFile, 1 << 16);
+            offset = resumed ? resumedDots : 0;
+            return;
+        }
+
+        File old = new File(fileName + ".old");
+        if (resumed && !old.exists())           // unless an earlier attempt to resume has already moved it
+            Files.move(new File(fileName).toPath(), old.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        if (!resumed)
+            return;
+
+        ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(old), 1 << 16));
+        byte[] buffer = new byte[1 << 16];
+        for (; entries < resumedEntries; entries++) {
+            ZipEntry entry = in.getNextEntry();
+            if (entry == null) {
+                in.close();
+                throw new EOFException(old + " has fewer drawings than saved in the checkpoint");
+            }
+            entryNames.add(entry.getName());
+            zip.putNextEntry(new ZipEntry(entry.getName()));
+            for (int read; (read = in.read(buffer)) > 0; )
+                zip.write(buffer, 0, read);
+            zip.closeEntry();
+        }
+        in.close();
+        old.delete();
+    }
+
+    // Pushes the drawings written so far to the files and takes a note of their positions
+    private void flush() throws IOException {
+        if (zipped) {
+            zip.flush();
+            flushedEntries = entries;
+        }
+        else {
+            dots.flush();
+            index.flush();
+            flushedDots = offset;
+            flushedIndex = indexFile.getChannel().position();
+        }
+    }
+
+    private void writeDrawing(Drawing drawing) throws IOException {
+        if (zip != null) {
+            String name = drawing.name;
+            int dot = name.lastIndexOf('.');
+            if (dot < 0)
+                dot = name.length();
+            for (int copy=2; !entryNames.add(name); copy++)   // repeated names get a suffix before the extension
+                name = drawing.name.substring(0, dot) + "~" + copy + drawing.name.substring(dot);
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(drawing.dot);
+            zip.closeEntry();
+            entries++;
+            return;
+        }
+
+        byte[] comment = ("// " + drawing.name + "\n").getBytes();
+        dots.write(comment);
+        dots.write(drawing.dot);
+        long length = comment.length + drawing.dot.length;
+        index.print(offset).print(' ').print(length).print(' ').print(drawing.name).print('\n');
+        offset += length;
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * DoubleGroupMap.java
+ *
+ * This class groups long valued references under double valued keys,
+ * in the same way as DoubleMap groups g6codes,
+ * but without TreeMap, Double and Vector objects.
+ * References are typically indices or handles of g6codes kept elsewhere,
+ * so that the map itself consists of primitive arrays only.
+ *
+ * Keys are quantized into cells of width DoubleUtil.DOUBLE_EQUALITY_THRESHOLD,
+ * so that a key approximately equal to the provided one
+ * lies either in the same cell or in one of the two neighbouring cells.
+ * An open-addressing hash table maps cells to groups,
+ * hence putting a new value takes O(1) expected time instead of
+ * two range lookups in a TreeMap.
+ *
+ * As in DoubleMap, if the map already contains an approximately equal key,
+ * a new value is put under the smallest such key,
+ * and values of each group are kept in the order in which they were put into the map.
+ * Groups are sorted by their keys only once, when sortedGroups() is called at report time.
+ */
+import java.io.*;
+import java.util.Arrays;
+
+public class DoubleGroupMap {
+    private static final int MAX_SLOTS = 1 << 30;   // largest hash table, as its size is a power of two
+
+    // Hash table from cells to groups: slotCell[i] is the cell and slotGroup[i] its first group,
+    // with slotGroup[i]==-1 for an empty slot
+    private long[] slotCell;
+    private int[] slotGroup;
+    private int slotMask;
+    private int usedSlots;
+
+    // Groups: key, first and last value, number of values, next group in the same cell
+    private double[] groupKey;
+    private int[] groupFirst;
+    private int[] groupLast;
+    private int[] groupSize;
+    private int[] groupNextInCell;
+    private int groups;
+
+    // Values: reference and the next value in the same group (-1 at the end)
+    private long[] value;
+    private int[] valueNext;
+    private int values;
+
+    public DoubleGroupMap() {
+        this(1024);
+    }
+
+    /**
+     * Creates a map with room for the expected number of groups,
+     * although the map grows whenever necessary.
+     */
+    public DoubleGroupMap(int expectedGroups) {
+        int capacity = 16;
+        while (capacity < 2L*expectedGroups && capacity < MAX_SLOTS)
+            capacity *= 2;
+
+        slotCell = new long[capacity];
+        slotGroup = new int[capacity];
+        Arrays.fill(slotGroup, -1);
+        slotMask = capacity-1;
+        usedSlots = 0;
+
+        groupKey = new double[expectedGroups];
+        groupFirst = new int[expectedGroups];
+        groupLast = new int[expectedGroups];
+        groupSize = new int[expectedGroups];
+        groupNextInCell = new int[expectedGroups];
+        groups = 0;
+
+        value = new long[expectedGroups];
+        valueNext = new int[expectedGroups];
+        values = 0;
+    }
+
+    /**
+     * Number of groups, i.e., of keys that are not approximately equal to each other.
+     */
+    public int size() {
+        return groups;
+    }
+
+    /**
+     * Total number of values put into the map.
+     */
+    public int count() {
+        return values;
+    }
+
+    /**
+     * Key of the group, which is the first key put into it.
+     */
+    public double key(int group) {
+        return groupKey[group];
+    }
+
+    /**
+     * Number of values in the group.
+     */
+    public int groupSize(int group) {
+        return groupSize[group];
+    }
+
+    /**
+     * Values of the group in the order in which they were put into the map.
+     */
+    public long[] values(int group) {
+        long[] result = new long[groupSize[group]];
+        int k = 0;
+        for (int v = groupFirst[group]; v != -1; v = valueNext[v])
+            result[k++] = value[v];
+        return result;
+    }
+
+    /**
+     * Retrieves the group whose key differs from the provided key
+     * by at most DoubleUtil.DOUBLE_EQUALITY_THRESHOLD.
+     * If there are several such groups, the one with the smallest key is returned.
+     *
+     * @param key The provided key.
+     * @return int The group with approximately equal key, or -1 if there is none.
+     */
+    public int getEqualGroup(double key) {
+        long cell = cellOf(key);
+        int found = -1;
+
+        for (long c = cell-1; c <= cell+1; c++) {   // approximately equal keys lie in neighbouring cells
+            int slot = findSlot(c);
+            if (slotGroup[slot] == -1)
+                continue;
+
+            for (int g = slotGroup[slot]; g != -1; g = groupNextInCell[g])
+                if (Math.abs(groupKey[g] - key) <= DoubleUtil.DOUBLE_EQUALITY_THRESHOLD)
+                    if (found == -1 || groupKey[g] < groupKey[found])
+                        found = g;
+        }
+
+        return found;
+    }
+
+    /**
+     * Responds whether the map already contains a key
+     * that is approximately equal to the provided key.
+     */
+    public boolean containsEqualKey(double key) {
+        return getEqualGroup(key) != -1;
+    }
+
+    /**
+     * Puts a value and its corresponding key into the map.
+     * If the map already contains an approximately equal key,
+     * then the value is put under the approximate key found in the map,
+     * otherwise a new group is created for the provided key.
+     *
+     * @return int The group in which the value was put.
+     */
+    public int put(double key, long ref) {
+        int group = getEqualGroup(key);
+        if (group == -1)
+            group = newGroup(key);
+
+        if (values == value.length) {
+            int capacity = DoubleUtil.grownCapacity(values);
+            value = Arrays.copyOf(value, capacity);
+            valueNext = Arrays.copyOf(valueNext, capacity);
+        }
+        value[values] = ref;
+        valueNext[values] = -1;
+
+        if (groupSize[group] == 0)
+            groupFirst[group] = values;
+        else
+            valueNext[groupLast[group]] = values;
+        groupLast[group] = values;
+        groupSize[group]++;
+
+        values++;
+        return group;
+    }
+
+    /**
+     * Returns all groups sorted by increasing values of their keys.
+     */
+    public int[] sortedGroups() {
+        return DoubleUtil.sortedIndices(groupKey, groups);
+    }
+
+    /**
+     * Writes groups and values of the map to a data stream, e.g., to a checkpoint.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(groups);
+        for (int g=0; g<groups; g++) {
+            out.writeDouble(groupKey[g]);
+            out.writeInt(groupFirst[g]);
+            out.writeInt(groupLast[g]);
+            out.writeInt(groupSize[g]);
+        }
+
+        out.writeInt(values);
+        for (int v=0; v<values; v++) {
+            out.writeLong(value[v]);
+            out.writeInt(valueNext[v]);
+        }
+    }
+
+    /**
+     * Reads a map written by write(DataOutputStream).
+     */
+    public static DoubleGroupMap read(DataInputStream in) throws IOException {
+        int groups = in.readInt();
+        DoubleGroupMap map = new DoubleGroupMap(Math.max(groups, 16));
+
+        for (int g=0; g<groups; g++) {
+            map.groupKey[g] = in.readDouble();
+            map.groupFirst[g] = in.readInt();
+            map.groupLast[g] = in.readInt();
+            map.groupSize[g] = in.readInt();
+            map.groups++;
+            map.linkGroup(g);
+        }
+
+        int values = in.readInt();
+        map.value = new long[Math.max(values, 16)];
+        map.valueNext = new int[Math.max(values, 16)];
+        for (int v=0; v<values; v++) {
+            map.value[v] = in.readLong();
+            map.valueNext[v] = in.readInt();
+        }
+        map.values = values;
+
+        return map;
+    }
+
+    /**
+     * Creates an empty group for the key and links it to the cell of the key.
+     */
+    private int newGroup(double key) {
+        if (groups == groupKey.length) {
+            int capacity = DoubleUtil.grownCapacity(groups);
+            groupKey = Arrays.copyOf(groupKey, capacity);
+            groupFirst = Arrays.copyOf(groupFirst, capacity);
+            groupLast = Arrays.copyOf(groupLast, capacity);
+            groupSize = Arrays.copyOf(groupSize, capacity);
+            groupNextInCell = Arrays.copyOf(groupNextInCell, capacity);
+        }
+
+        int g = groups++;
+        groupKey[g] = key;
+        groupSize[g] = 0;
+        linkGroup(g);
+
+        return g;
+    }
+
+    /**
+     * Links the group to the cell of its key in the hash table.
+     */
+    private void linkGroup(int g) {
+        long cell = cellOf(groupKey[g]);
+        int slot = findSlot(cell);
+        if (slotGroup[slot] == -1) {
+            slotCell[slot] = cell;
+            groupNextInCell[g] = -1;
+            usedSlots++;
+        }
+        else
+            groupNextInCell[g] = slotGroup[slot];   // rounding may put two groups in the same cell
+        slotGroup[slot] = g;
+
+        if (2L*usedSlots > slotGroup.length)
+            rehash();
+    }
+
+    /**
+     * Returns the slot holding the cell, or the empty slot where it should be placed.
+     */
+    private int findSlot(long cell) {
+        int slot = hash(cell) & slotMask;
+        while (slotGroup[slot] != -1 && slotCell[slot] != cell)
+            slot = (slot+1) & slotMask;            // linear probing
+        return slot;
+    }
+
+    /**
+     * Doubles the hash table and places the occupied slots anew.
+     * A table of MAX_SLOTS slots is no longer doubled, but filled up to its last empty slot.
+     */
+    private void rehash() {
+        if (slotGroup.length == MAX_SLOTS) {
+            if (usedSlots == MAX_SLOTS-1)
+                throw new IllegalStateException("Map cannot hold more than " + (MAX_SLOTS-1) + " cells of keys");
+            return;
+        }
+
+        long[] oldCell = slotCell;
+        int[] oldGroup = slotGroup;
+
+        slotCell = new long[2*oldCell.length];
+        slotGroup = new int[2*oldGroup.length];
+        Arrays.fill(slotGroup, -1);
+        slotMask = slotGroup.length-1;
+
+        for (int i=0; i<oldGroup.length; i++)
+            if (oldGroup[i] != -1) {
+                int slot = findSlot(oldCell[i]);
+                slotCell[slot] = oldCell[i];
+                slotGroup[slot] = oldGroup[i];
+            }
+    }
+
+    private static long cellOf(double key) {
+        return (long) Math.floor(key / DoubleUtil.DOUBLE_EQUALITY_THRESHOLD);
+    }
+
+    private static int hash(long cell) {
+        long h = cell * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
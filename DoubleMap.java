@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.io.*;
 
 public class DoubleMap extends TreeMap<Double, Vector<String>> {
 
@@ -88,4 +89,35 @@ public class DoubleMap extends TreeMap<Double, Vector<String>> {
             return vec;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes keys and g6codes of the map to a data stream, e.g., to a checkpoint.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (Double key : keySet()) {
+            Vector<String> vec = super.get(key);
+            out.writeDouble(key.doubleValue());
+            out.writeInt(vec.size());
+            for (String g6code : vec)
+                out.writeUTF(g6code);
+        }
+    }
+    
+    /**
+     * Reads a map written by write(DataOutputStream).
+     */
+    public static DoubleMap read(DataInputStream in) throws IOException {
+        DoubleMap map = new DoubleMap();
+        int size = in.readInt();
+        for (int i=0; i<size; i++) {
+            Double key = Double.valueOf(in.readDouble());
+            int count = in.readInt();
+            Vector<String> vec = new Vector<String>();
+            for (int j=0; j<count; j++)
+                vec.add(in.readUTF());
+            map.put(key, vec);
+        }
+        return map;
+    }
+}
@@ -12,6 +12,11 @@ public class DoubleUtil {
      * If two double values differ less than this value, they are considered equal.
      */
     public static final double DOUBLE_EQUALITY_THRESHOLD = 1E-8;
+
+    /**
+     * Largest array that the JVM allocates.
+     */
+    public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     
     /**
      * Checks if two double values can be considered equal.
@@ -71,4 +76,78 @@ public class DoubleUtil {
         else
             return 0;
     }
+    
+    /**
+     * Projects an array of doubles to a single number
+     * p(x) = w_0 x_0 + ... + w_{k-1} x_{k-1} with fixed weights between 1/2 and 1.
+     * If two arrays are equal according to {@see equals(double[], double[])},
+     * their projections differ by less than {@see projectionWidth(int)},
+     * so that approximately equal arrays may be searched for among arrays with close projections.
+     */
+    public static double projection(double[] x) {
+        double p = 0.0;
+        for (int i = 0; i < x.length; i++)
+            p += projectionWeight(i) * x[i];
+        return p;
+    }
+    
+    /**
+     * Bound on the difference of projections of approximately equal arrays of the given length.
+     */
+    public static double projectionWidth(int length) {
+        double width = 0.0;
+        for (int i = 0; i < length; i++)
+            width += projectionWeight(i);
+        return width * DOUBLE_EQUALITY_THRESHOLD;
+    }
+    
+    /**
+     * Weight of the i-th entry in the projection.
+     * Fractional parts of multiples of the golden ratio spread the weights evenly.
+     */
+    private static double projectionWeight(int i) {
+        double t = (i+1) * 0.6180339887498949;
+        return 0.5 + 0.5*(t - Math.floor(t));
+    }
+    
+    /**
+     * Capacity of a full array of keys or values after growing, i.e., twice its length,
+     * but within the limit of array sizes, so that maps with more than 2^30 entries do not overflow.
+     */
+    public static int grownCapacity(int length) {
+        if (length >= MAX_ARRAY_SIZE)
+            throw new IllegalStateException("Arrays cannot grow beyond " + MAX_ARRAY_SIZE + " entries");
+        return (int) Math.min(MAX_ARRAY_SIZE, Math.max(16, 2L*length));
+    }
+
+    /**
+     * Returns indices 0, 1, ..., count-1 sorted by increasing values of keys[index].
+     * Sorting is stable and works on primitive arrays only,
+     * so that large collections of keys can be sorted without boxing them.
+     */
+    public static int[] sortedIndices(double[] keys, int count) {
+        int[] index = new int[count];
+        for (int i=0; i<count; i++)
+            index[i] = i;
+        
+        int[] buffer = new int[count];
+        for (long width=1; width<count; width*=2) {    // bottom-up merge sort, in long to avoid overflows
+            for (long start=0; start<count; start+=2*width) {
+                int lo = (int) start;
+                int mid = (int) Math.min(start+width, count), hi = (int) Math.min(start+2*width, count);
+                int i=lo, j=mid, k=lo;
+                while (i<mid && j<hi)
+                    buffer[k++] = (keys[index[j]] < keys[index[i]]) ? index[j++] : index[i++];
+                while (i<mid)
+                    buffer[k++] = index[i++];
+                while (j<hi)
+                    buffer[k++] = index[j++];
+            }
+            int[] swap = index;
+            index = buffer;
+            buffer = swap;
+        }
+        
+        return index;
+    }
 }
\ No newline at end of file
@@ -50,17 +50,15 @@ public class DoubleVector extends Vector<Double> implements Comparable<DoubleVec
     }
     
     public String toString(String delims) {
-        StringBuffer buf = new StringBuffer("");
-        
-        buf.append(delims.charAt(0));
-        for (int i=0; i<size(); i++) {
-            buf.append("" + this.get(i).doubleValue());
-            if (i!=size()-1)    // was it the last entry?
-                buf.append(delims.charAt(1));
-        }
-        buf.append(delims.charAt(2));
-        
-        return buf.toString();
+        return ResultWriter.format(out -> {
+            out.print(delims.charAt(0));
+            for (int i=0; i<size(); i++) {
+                out.print(this.get(i).doubleValue());
+                if (i!=size()-1)    // was it the last entry?
+                    out.print(delims.charAt(1));
+            }
+            out.print(delims.charAt(2));
+        });
     }
 
     public String toString() {
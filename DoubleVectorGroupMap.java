@@ -0,0 +1,449 @@
+/**
+ * DoubleVectorGroupMap.java
+ *
+ * This class extends the idea of DoubleGroupMap to keys that are double arrays,
+ * such as spectra of graphs, so that EquiVectorTemplate could search
+ * for groups of cospectral graphs without boxing each eigenvalue into a Double.
+ *
+ * All keys are kept one after another in chunks of double arrays, each of at most KEY_CHUNK_SIZE entries,
+ * so that the keys of a huge map are not limited by the size of a single array.
+ * As in G6Arena, a key never crosses the boundary of a chunk, so that it is addressed by a single long:
+ * the number of its chunk times KEY_CHUNK_SIZE plus its position within the chunk.
+ * Two keys are approximately equal if they have the same length and
+ * all their entries are equal according to DoubleUtil.equals(double, double).
+ * To find such keys quickly, each key is projected to a single number
+ * by DoubleUtil.projection(double[]). Projections of approximately equal keys differ by less than
+ * DoubleUtil.projectionWidth(int), which is taken as the width of a grid cell,
+ * so that all candidates lie either in the same or in the two neighbouring cells.
+ * An open-addressing hash table maps cells to groups, and each candidate
+ * is checked against the provided key entry by entry.
+ *
+ * Unlike the lexicographic order used by DoubleVectorMap, this test does not depend on
+ * the order in which the entries are compared, so that approximately equal keys
+ * cannot end up in different groups just because of a distant key put between them.
+ *
+ * For the description of groups and values, see DoubleGroupMap.java.
+ */
+import java.io.*;
+import java.util.Arrays;
+
+public class DoubleVectorGroupMap {
+    /**
+     * Maximum number of entries of keys in a single chunk.
+     */
+    public static final int KEY_CHUNK_SIZE = 1 << 20;
+
+    private static final int MAX_SLOTS = 1 << 30;   // largest hash table, as its size is a power of two
+
+    // Hash table from cells to groups: slotCell[i] and slotLength[i] identify the cell,
+    // slotGroup[i] is its first group, with slotGroup[i]==-1 for an empty slot
+    private long[] slotCell;
+    private int[] slotLength;
+    private int[] slotGroup;
+    private int slotMask;
+    private int usedSlots;
+
+    // Keys of all groups, one after another: only the first chunk grows, further chunks have KEY_CHUNK_SIZE entries
+    private double[][] keyChunks;
+    private int keyChunkCount;
+    private int keyChunkUsed;       // entries used in the last chunk
+
+    // Groups: position and length of the key, first and last value,
+    // number of values, next group in the same cell
+    private long[] groupKeyStart;
+    private int[] groupKeyLength;
+    private int[] groupFirst;
+    private int[] groupLast;
+    private int[] groupSize;
+    private int[] groupNextInCell;
+    private int groups;
+
+    // Values: reference and the next value in the same group (-1 at the end)
+    private long[] value;
+    private int[] valueNext;
+    private int values;
+
+    public DoubleVectorGroupMap() {
+        this(1024);
+    }
+
+    /**
+     * Creates a map with room for the expected number of groups,
+     * although the map grows whenever necessary.
+     */
+    public DoubleVectorGroupMap(int expectedGroups) {
+        int capacity = 16;
+        while (capacity < 2L*expectedGroups && capacity < MAX_SLOTS)
+            capacity *= 2;
+
+        slotCell = new long[capacity];
+        slotLength = new int[capacity];
+        slotGroup = new int[capacity];
+        Arrays.fill(slotGroup, -1);
+        slotMask = capacity-1;
+        usedSlots = 0;
+
+        keyChunks = new double[1][];
+        keyChunks[0] = new double[(int) Math.min(KEY_CHUNK_SIZE, 16L*expectedGroups)];
+        keyChunkCount = 1;
+        keyChunkUsed = 0;
+
+        groupKeyStart = new long[expectedGroups];
+        groupKeyLength = new int[expectedGroups];
+        groupFirst = new int[expectedGroups];
+        groupLast = new int[expectedGroups];
+        groupSize = new int[expectedGroups];
+        groupNextInCell = new int[expectedGroups];
+        groups = 0;
+
+        value = new long[expectedGroups];
+        valueNext = new int[expectedGroups];
+        values = 0;
+    }
+
+    /**
+     * Number of groups, i.e., of keys that are not approximately equal to each other.
+     */
+    public int size() {
+        return groups;
+    }
+
+    /**
+     * Total number of values put into the map.
+     */
+    public int count() {
+        return values;
+    }
+
+    /**
+     * Copy of the key of the group, which is the first key put into it.
+     */
+    public double[] key(int group) {
+        int start = keyOffset(group);
+        return Arrays.copyOfRange(keyChunk(group), start, start + groupKeyLength[group]);
+    }
+
+    /**
+     * Number of values in the group.
+     */
+    public int groupSize(int group) {
+        return groupSize[group];
+    }
+
+    /**
+     * Values of the group in the order in which they were put into the map.
+     */
+    public long[] values(int group) {
+        long[] result = new long[groupSize[group]];
+        int k = 0;
+        for (int v = groupFirst[group]; v != -1; v = valueNext[v])
+            result[k++] = value[v];
+        return result;
+    }
+
+    /**
+     * Retrieves the group whose key is approximately equal to the provided key.
+     * If there are several such groups, the one with the lexicographically smallest key is returned.
+     *
+     * @param key The provided key.
+     * @return int The group with approximately equal key, or -1 if there is none.
+     */
+    public int getEqualGroup(double[] key) {
+        long cell = cellOf(key);
+        int found = -1;
+
+        for (long c = cell-1; c <= cell+1; c++) {   // approximately equal keys lie in neighbouring cells
+            int slot = findSlot(c, key.length);
+            if (slotGroup[slot] == -1)
+                continue;
+
+            for (int g = slotGroup[slot]; g != -1; g = groupNextInCell[g])
+                if (equalsKey(g, key))
+                    if (found == -1 || compareGroups(g, found) < 0)
+                        found = g;
+        }
+
+        return found;
+    }
+
+    /**
+     * Responds whether the map already contains a key
+     * that is approximately equal to the provided key.
+     */
+    public boolean containsEqualKey(double[] key) {
+        return getEqualGroup(key) != -1;
+    }
+
+    /**
+     * Puts a value and its corresponding key into the map.
+     * If the map already contains an approximately equal key,
+     * then the value is put under the approximate key found in the map,
+     * otherwise a new group is created for a copy of the provided key.
+     *
+     * @return int The group in which the value was put.
+     */
+    public int put(double[] key, long ref) {
+        int group = getEqualGroup(key);
+        if (group == -1)
+            group = newGroup(key);
+
+        if (values == value.length) {
+            int capacity = DoubleUtil.grownCapacity(values);
+            value = Arrays.copyOf(value, capacity);
+            valueNext = Arrays.copyOf(valueNext, capacity);
+        }
+        value[values] = ref;
+        valueNext[values] = -1;
+
+        if (groupSize[group] == 0)
+            groupFirst[group] = values;
+        else
+            valueNext[groupLast[group]] = values;
+        groupLast[group] = values;
+        groupSize[group]++;
+
+        values++;
+        return group;
+    }
+
+    /**
+     * Returns all groups sorted lexicographically by their keys,
+     * with shorter keys preceding their extensions.
+     */
+    public int[] sortedGroups() {
+        int[] index = new int[groups];
+        for (int i=0; i<groups; i++)
+            index[i] = i;
+
+        int[] buffer = new int[groups];
+        for (int width=1; width<groups; width*=2) {    // bottom-up merge sort
+            for (int lo=0; lo<groups; lo+=2*width) {
+                int mid = Math.min(lo+width, groups), hi = Math.min(lo+2*width, groups);
+                int i=lo, j=mid, k=lo;
+                while (i<mid && j<hi)
+                    buffer[k++] = (compareGroups(index[j], index[i]) < 0) ? index[j++] : index[i++];
+                while (i<mid)
+                    buffer[k++] = index[i++];
+                while (j<hi)
+                    buffer[k++] = index[j++];
+            }
+            int[] swap = index;
+            index = buffer;
+            buffer = swap;
+        }
+
+        return index;
+    }
+
+    /**
+     * Writes keys, groups and values of the map to a data stream, e.g., to a checkpoint.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(groups);
+        for (int g=0; g<groups; g++) {
+            double[] chunk = keyChunk(g);
+            int start = keyOffset(g);
+            out.writeInt(groupKeyLength[g]);
+            for (int i=0; i<groupKeyLength[g]; i++)
+                out.writeDouble(chunk[start+i]);
+            out.writeInt(groupFirst[g]);
+            out.writeInt(groupLast[g]);
+            out.writeInt(groupSize[g]);
+        }
+
+        out.writeInt(values);
+        for (int v=0; v<values; v++) {
+            out.writeLong(value[v]);
+            out.writeInt(valueNext[v]);
+        }
+    }
+
+    /**
+     * Reads a map written by write(DataOutputStream).
+     */
+    public static DoubleVectorGroupMap read(DataInputStream in) throws IOException {
+        int groups = in.readInt();
+        DoubleVectorGroupMap map = new DoubleVectorGroupMap(Math.max(groups, 16));
+
+        for (int g=0; g<groups; g++) {
+            double[] key = new double[in.readInt()];
+            for (int i=0; i<key.length; i++)
+                key[i] = in.readDouble();
+
+            int created = map.newGroup(key);
+            map.groupFirst[created] = in.readInt();
+            map.groupLast[created] = in.readInt();
+            map.groupSize[created] = in.readInt();
+        }
+
+        int values = in.readInt();
+        map.value = new long[Math.max(values, 16)];
+        map.valueNext = new int[Math.max(values, 16)];
+        for (int v=0; v<values; v++) {
+            map.value[v] = in.readLong();
+            map.valueNext[v] = in.readInt();
+        }
+        map.values = values;
+
+        return map;
+    }
+
+    /**
+     * Checks whether the key of the group is approximately equal to the provided key.
+     */
+    private boolean equalsKey(int group, double[] key) {
+        if (groupKeyLength[group] != key.length)
+            return false;
+
+        double[] chunk = keyChunk(group);
+        int start = keyOffset(group);
+        for (int i=0; i<key.length; i++)
+            if (!DoubleUtil.equals(chunk[start+i], key[i]))
+                return false;
+        return true;
+    }
+
+    /**
+     * Exact lexicographic comparison of keys of two groups.
+     */
+    private int compareGroups(int g1, int g2) {
+        double[] k1 = keyChunk(g1), k2 = keyChunk(g2);
+        int s1 = keyOffset(g1), s2 = keyOffset(g2);
+        int c1 = groupKeyLength[g1], c2 = groupKeyLength[g2], c = Math.min(c1, c2);
+
+        for (int i=0; i<c; i++) {
+            int res = Double.compare(k1[s1+i], k2[s2+i]);
+            if (res != 0)
+                return res;
+        }
+        return Integer.compare(c1, c2);
+    }
+
+    /**
+     * Chunk holding the key of the group.
+     */
+    private double[] keyChunk(int group) {
+        return keyChunks[(int) (groupKeyStart[group] / KEY_CHUNK_SIZE)];
+    }
+
+    /**
+     * Position of the key of the group within its chunk.
+     */
+    private int keyOffset(int group) {
+        return (int) (groupKeyStart[group] % KEY_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates an empty group for a copy of the key and links it to the cell of the key.
+     */
+    private int newGroup(double[] key) {
+        if (key.length > KEY_CHUNK_SIZE)
+            throw new IllegalArgumentException("Key longer than the chunk size");
+
+        if (groups == groupKeyStart.length) {
+            int capacity = DoubleUtil.grownCapacity(groups);
+            groupKeyStart = Arrays.copyOf(groupKeyStart, capacity);
+            groupKeyLength = Arrays.copyOf(groupKeyLength, capacity);
+            groupFirst = Arrays.copyOf(groupFirst, capacity);
+            groupLast = Arrays.copyOf(groupLast, capacity);
+            groupSize = Arrays.copyOf(groupSize, capacity);
+            groupNextInCell = Arrays.copyOf(groupNextInCell, capacity);
+        }
+        double[] chunk = keyChunks[keyChunkCount-1];
+        if (keyChunkUsed + key.length > chunk.length) {
+            if (keyChunkUsed + key.length <= KEY_CHUNK_SIZE)     // the first chunk grows up to the chunk size
+                chunk = Arrays.copyOf(chunk, (int) Math.min(KEY_CHUNK_SIZE, Math.max(keyChunkUsed + key.length,
+                                                                                      2L*chunk.length)));
+            else {                                                // start a new chunk
+                if (keyChunkCount == keyChunks.length)
+                    keyChunks = Arrays.copyOf(keyChunks, 2*keyChunkCount);
+                chunk = new double[KEY_CHUNK_SIZE];
+                keyChunkCount++;
+                keyChunkUsed = 0;
+            }
+            keyChunks[keyChunkCount-1] = chunk;
+        }
+
+        int g = groups++;
+        System.arraycopy(key, 0, chunk, keyChunkUsed, key.length);
+        groupKeyStart[g] = (long) (keyChunkCount-1) * KEY_CHUNK_SIZE + keyChunkUsed;
+        groupKeyLength[g] = key.length;
+        keyChunkUsed += key.length;
+        groupSize[g] = 0;
+        linkGroup(g, key);
+
+        return g;
+    }
+
+    /**
+     * Links the group to the cell of its key in the hash table.
+     */
+    private void linkGroup(int g, double[] key) {
+        long cell = cellOf(key);
+        int slot = findSlot(cell, key.length);
+        if (slotGroup[slot] == -1) {
+            slotCell[slot] = cell;
+            slotLength[slot] = key.length;
+            groupNextInCell[g] = -1;
+            usedSlots++;
+        }
+        else
+            groupNextInCell[g] = slotGroup[slot];   // different keys may share a cell
+        slotGroup[slot] = g;
+
+        if (2L*usedSlots > slotGroup.length)
+            rehash();
+    }
+
+    /**
+     * Returns the slot holding the cell, or the empty slot where it should be placed.
+     */
+    private int findSlot(long cell, int length) {
+        int slot = hash(cell, length) & slotMask;
+        while (slotGroup[slot] != -1 && (slotCell[slot] != cell || slotLength[slot] != length))
+            slot = (slot+1) & slotMask;            // linear probing
+        return slot;
+    }
+
+    /**
+     * Doubles the hash table and places the occupied slots anew.
+     * A table of MAX_SLOTS slots is no longer doubled, but filled up to its last empty slot.
+     */
+    private void rehash() {
+        if (slotGroup.length == MAX_SLOTS) {
+            if (usedSlots == MAX_SLOTS-1)
+                throw new IllegalStateException("Map cannot hold more than " + (MAX_SLOTS-1) + " cells of keys");
+            return;
+        }
+
+        long[] oldCell = slotCell;
+        int[] oldLength = slotLength;
+        int[] oldGroup = slotGroup;
+
+        slotCell = new long[2*oldCell.length];
+        slotLength = new int[2*oldLength.length];
+        slotGroup = new int[2*oldGroup.length];
+        Arrays.fill(slotGroup, -1);
+        slotMask = slotGroup.length-1;
+
+        for (int i=0; i<oldGroup.length; i++)
+            if (oldGroup[i] != -1) {
+                int slot = findSlot(oldCell[i], oldLength[i]);
+                slotCell[slot] = oldCell[i];
+                slotLength[slot] = oldLength[i];
+                slotGroup[slot] = oldGroup[i];
+            }
+    }
+
+    /**
+     * Cell of the grid to which the projection of the key belongs.
+     */
+    private static long cellOf(double[] key) {
+        return (long) Math.floor(DoubleUtil.projection(key) / DoubleUtil.projectionWidth(key.length));
+    }
+
+    private static int hash(long cell, int length) {
+        long h = (cell * 31 + length) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
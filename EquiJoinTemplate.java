@@ -0,0 +1,280 @@
+/**
+ * Template for finding graphs with (approximately) the same value of vector invariant
+ * in two or more sets of graphs, such as cospectral mates of trees among unicyclic graphs.
+ * Unlike EquiVectorTemplate, which finds groups within a single file,
+ * only groups containing graphs from at least two different input files are reported,
+ * so that the files need neither be concatenated nor kept in memory together.
+ *
+ * How to use the template:
+ * In your OS:
+ * - make a copy of the whole framework folder in a new location
+ * - copy (or generate) required sets of graphs to the same folder
+ *
+ * In BlueJ:
+ * - modify the template according to your needs (see key())
+ * - right-click on the template, select 'New EquiJoinTemplate' and press Enter
+ * - at the bottom of the window, right-click a newly created instance of the template
+ *        and select 'run(String[] inputFileNames)'
+ * - in a dialog that appears, enter the filenames of the graph sets
+ *        within braces and quotation marks, e.g., { "trees10.g6", "unicyclic10.g6" }
+ * - study your results in the file named as the first set + ".join.results.tex"!
+ *
+ * By default, the sets are joined by hashing: the keys of all sets but the largest one (by file size)
+ * are put into a DoubleVectorGroupMap together with offsets of their g6codes,
+ * and the largest set is then streamed through the map, keeping only graphs that find a group.
+ * Memory is thus bounded by the smaller sets, and the g6codes are read back from the files at the end.
+ * For sets too large even for that, call 'run(String[] inputFileNames, int memoryBudget)'
+ * with the number of megabytes that may be used for keys: all sets are then joined
+ * by sorting and merging the keys of all sets in ExternalGroupMap, as EquiVectorTemplate does.
+ *
+ * Isomorphic graphs in different sets are trivial mates, so calling
+ * 'run(String[] inputFileNames, int memoryBudget, boolean collapseIsomorphic)'
+ * with collapseIsomorphic==true (or the command line option --unique) reports only the first graph
+ * of each isomorphism class in a group, followed by all sets in which the class occurs,
+ * and skips groups unless two different classes occur in different sets.
+ *
+ * The sets are read by the template itself, so they have to be regular files,
+ * and checkpoints, shards and generators of TemplateRunner do not apply.
+ * The invariant cache of TemplateRunner (--cache) is used, however.
+ */
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+
+public class EquiJoinTemplate {
+    private static final int SET_SHIFT = 48;     // references are set << SET_SHIFT | offset of the g6code
+
+    // Basic variables needed for the template
+    private String g6code;          // g6code of a graph
+    private Graph g;                // graph
+    private DoubleVectorGroupMap map; // map containing references of graphs with their keys
+    private ExternalGroupMap externalMap;  // used instead of map when the memory budget is given
+    private int memoryBudget;       // megabytes for keys before they are spilled to disk, 0 for hash join
+    private boolean collapseIsomorphic; // report only one graph of each isomorphism class in a group?
+    private long counter;           // number of graphs processed so far
+
+    // Files
+    private String[] inputFileNames;    // input files with sets of graphs
+    private RandomAccessFile[] inAgain; // the same files, for reading g6codes back
+    private PrintWriter outResults;     // output file for groups of graphs
+
+    public EquiJoinTemplate() {
+    }
+
+    /**
+     * Invariant whose (approximately) equal values are looked for.
+     * Calculate necessary double array invariant here,
+     * e.g., new double[] { g.energy() } for equienergetic graphs.
+     */
+    private double[] key(Graph g) {
+        return g.Aspectrum();                  // for cospectral graphs
+    }
+
+    /**
+     *  The main method whose argument inputFileNames
+     *  point to at least two files containing graphs in g6 format
+     */
+    public void run(String[] inputFileNames) throws IOException {
+        run(inputFileNames, 0);
+    }
+
+    /**
+     *  If memoryBudget is positive, the sets are joined by sorting their keys,
+     *  with at most that many megabytes used for keys in memory.
+     */
+    public void run(String[] inputFileNames, int memoryBudget) throws IOException {
+        run(inputFileNames, memoryBudget, false);
+    }
+
+    /**
+     *  If collapseIsomorphic is true, isomorphic graphs within a group are reported only once.
+     */
+    public void run(String[] inputFileNames, int memoryBudget, boolean collapseIsomorphic) throws IOException {
+        if (inputFileNames.length < 2)
+            throw new IllegalArgumentException("Join requires at least two sets of graphs");
+        if (inputFileNames.length > (1 << (63 - SET_SHIFT)))
+            throw new IllegalArgumentException("Too many sets of graphs: " + inputFileNames.length);
+        for (String inputFileName : inputFileNames)     // g6codes are read back from the input files
+            if (!new File(inputFileName).isFile())
+                throw new IllegalArgumentException("Join requires regular input files instead of " + inputFileName);
+
+        this.inputFileNames = inputFileNames;
+        this.memoryBudget = memoryBudget;
+        this.collapseIsomorphic = collapseIsomorphic || TemplateRunner.newFilter() != null;
+        long startTime = System.currentTimeMillis();   // Take a note of starting time
+        counter = 0;
+
+        if (memoryBudget > 0)
+            sortMergeJoin();
+        else
+            hashJoin();
+
+        TemplateRunner.reportCache();
+        TemplateRunner.closeDotSink();
+        long totalTime = System.currentTimeMillis() - startTime;   // Report elapsed time
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+
+    /**
+     *  Puts the keys of all sets but the largest into the map, and keeps only those graphs
+     *  of the largest set whose keys are approximately equal to one of them.
+     */
+    private void hashJoin() throws IOException {
+        int probe = 0;                          // the largest set is streamed, not kept
+        for (int set=1; set<inputFileNames.length; set++)
+            if (new File(inputFileNames[set]).length() > new File(inputFileNames[probe]).length())
+                probe = set;
+
+        map = new DoubleVectorGroupMap();
+        for (int set=0; set<inputFileNames.length; set++)
+            if (set != probe) {
+                G6Reader in = new G6Reader(inputFileNames[set]);
+                while ((g6code = in.readLine()) != null) {
+                    map.put(key(new Graph(g6code)), reference(set, in.offset()));
+                    progress();
+                }
+                in.close();
+            }
+
+        G6Reader in = new G6Reader(inputFileNames[probe]);
+        while ((g6code = in.readLine()) != null) {
+            double[] key = key(new Graph(g6code));
+            if (map.containsEqualKey(key))      // a graph of the largest set joins only existing groups
+                map.put(key, reference(probe, in.offset()));
+            progress();
+        }
+        in.close();
+
+        openFiles();
+        int[] groups = map.sortedGroups();      // groups are sorted only once, here
+        for (int i=0; i<groups.length; i++)     // Browse through the whole map
+            if (map.groupSize(groups[i]) >= 2) {
+                long[] refs = map.values(groups[i]);
+                Arrays.sort(refs);              // in the order of sets and of graphs within them
+                reportGroup(map.key(groups[i]), refs);
+            }
+        closeFiles();
+    }
+
+    /**
+     *  Puts the keys of all sets into the external map, whose merged runs yield the groups
+     */
+    private void sortMergeJoin() throws IOException {
+        File directory = new File(inputFileNames[0]).getAbsoluteFile().getParentFile();
+        externalMap = new ExternalGroupMap(memoryBudget * 1048576L, directory);
+
+        for (int set=0; set<inputFileNames.length; set++) {
+            G6Reader in = new G6Reader(inputFileNames[set]);
+            while ((g6code = in.readLine()) != null) {
+                externalMap.put(key(new Graph(g6code)), reference(set, in.offset()));
+                progress();
+            }
+            in.close();
+        }
+
+        openFiles();
+        externalMap.finish((key, refs) -> reportGroup(key, refs));     // references are already sorted
+        closeFiles();
+    }
+
+    private static long reference(int set, long offset) {
+        return ((long) set << SET_SHIFT) | offset;
+    }
+
+    private void progress() {
+        counter++;                              // Update counter and report progress
+        if (counter % 10000 == 0)
+            System.out.println("" + counter + " graphs processed so far");
+    }
+
+    private void openFiles() throws IOException {
+        outResults = new PrintWriter(new BufferedWriter(new FileWriter(inputFileNames[0] + ".join.results.tex")));
+        inAgain = new RandomAccessFile[inputFileNames.length];
+        for (int set=0; set<inputFileNames.length; set++)
+            inAgain[set] = new RandomAccessFile(inputFileNames[set], "r");
+    }
+
+    private void closeFiles() throws IOException {
+        for (RandomAccessFile file : inAgain)
+            file.close();
+        outResults.close();                     // Testing done, close the file
+    }
+
+    /**
+     *  Reports a group of graphs with (approximately) equal key values,
+     *  given by references sorted by sets, if they come from at least two sets
+     */
+    private void reportGroup(double[] spectrum, long[] refs) throws IOException {
+        String[] group = new String[refs.length];
+        BitSet[] sets = new BitSet[refs.length];    // sets in which each graph occurs
+        for (int j=0; j<refs.length; j++) {     // read g6codes back from the input files
+            int set = (int) (refs[j] >>> SET_SHIFT);
+            group[j] = G6Reader.readCodeAt(inAgain[set], refs[j] & ((1L << SET_SHIFT) - 1));
+            sets[j] = new BitSet();
+            sets[j].set(set);
+        }
+
+        if (collapseIsomorphic) {
+            // The first graph of each isomorphism class is kept, together with all sets in which the class occurs:
+            // graphs of one class in different sets are no match, but graphs of two classes in different sets are.
+            LinkedHashMap<String, Integer> classes = new LinkedHashMap<String, Integer>();
+            for (int j=0; j<group.length; j++) {
+                String canonical = new Graph(group[j]).canonicalG6code();
+                Integer c = classes.get(canonical);
+                if (c == null) {
+                    c = classes.size();
+                    classes.put(canonical, c);
+                    group[c] = group[j];
+                    sets[c] = sets[j];
+                }
+                else
+                    sets[c].or(sets[j]);
+            }
+            group = Arrays.copyOf(group, classes.size());
+            sets = Arrays.copyOf(sets, classes.size());
+        }
+
+        boolean cross = false;                  // do two graphs (or classes) of the group come from different sets?
+        for (int j=1; j<group.length && !cross; j++)
+            cross = !sets[j].equals(sets[0]) || sets[0].cardinality() > 1;
+        if (!cross)
+            return;
+
+        // Report the value of the key
+        DoubleVector key = new DoubleVector(spectrum);
+        outResults.println("Spectrum " + key.toString() + " held by graphs:");
+
+        for (int j=0; j<group.length; j++) {       // Browse through g6 codes
+            g6code = group[j];
+            outResults.print(g6code);             // Report the g6 code and its sets
+            for (int set = sets[j].nextSetBit(0); set >= 0; set = sets[j].nextSetBit(set+1))
+                outResults.print(" " + inputFileNames[set]);
+            outResults.println();
+
+            // export graph in Graphviz format for later visualisation
+            g = new Graph(g6code);
+            g.saveDotFormat("join-cospectral-n-" + g.n() + "-spectrum-" + key.toString("[_]") + "-count-" + (j+1) + ".dot",
+                            "spectrum="+key.toString());
+        }
+    }
+
+    // This function may be used to run the template from out of BlueJ,
+    // with the names of at least two input files as arguments, optionally followed by
+    // the memory budget in megabytes and by 1 to collapse isomorphic graphs in groups
+    public static void main(String[] args) throws IOException, NumberFormatException {
+        args = TemplateRunner.parseOptions(args);
+        int files = args.length;
+        while (files > 2 && args.length - files < 2 && args[files-1].matches("[0-9]+"))
+            files--;
+
+        String[] inputFileNames = Arrays.copyOf(args, files);
+        if (args.length - files == 2)
+            new EquiJoinTemplate().run(inputFileNames, Integer.decode(args[files]), Integer.decode(args[files+1]) != 0);
+        else if (args.length - files == 1)
+            new EquiJoinTemplate().run(inputFileNames, Integer.decode(args[files]));
+        else
+            new EquiJoinTemplate().run(inputFileNames);
+    }
+}
@@ -15,27 +15,39 @@
  * - in a dialog that appears, enter the filename of the graph set 
  *        within quotation marks "" (inputFileName)
  * - study your results!
+ *
+ * For sets of graphs too large to keep in memory, call 'run(String inputFileName, int memoryBudget)'
+ * with the number of megabytes that may be used for keys: keys are then spilled to sorted
+ * temporary files and only offsets of g6codes within the input file are kept (see ExternalGroupMap).
+ *
+ * Isomorphic graphs trivially share every invariant, so groups of graphs from files with isomorphic repeats
+ * may be cluttered with copies of the same graph. Calling 'run(String inputFileName, int memoryBudget, boolean collapseIsomorphic)'
+ * with collapseIsomorphic==true reports only the first graph of each isomorphism class in a group,
+ * and skips groups whose graphs are all isomorphic (see IsomorphismFilter).
+ *
+ * The template is run by TemplateRunner, which calls process() for each graph in the input file.
+ * For long runs, checkpoints may be enabled with TemplateRunner.setCheckpointInterval(int seconds),
+ * and large input files may be split into shards (see TemplateRunner.setShard(int, int))
+ * whose partial results are then combined by ShardMerge.
  */
-import java.util.Iterator;
-import java.util.Vector;
-import java.util.Set;
-import java.util.NavigableSet;
-
 import java.io.*;
 
-public class EquiTemplate {
+public class EquiTemplate implements GraphTemplate {
     // Basic variables needed for the template
     private String g6code;          // g6code of a graph
     private Graph g;                // graph    
-    private Double key;             // key is value of invariant expression
-    private DoubleMap map;          // map containing graphs with their keys 
+    private double key;             // key is value of invariant expression
+    private DoubleGroupMap map;     // map containing handles of graphs with their keys
+    private G6Arena codes;          // g6codes of graphs, kept off-heap under handles stored in the map
+    private ExternalGroupMap externalMap;  // used instead of map when the memory budget is given
+    private KeyJournal journal;     // keys and g6codes put into the map, saved instead of it in checkpoints
+    private int memoryBudget;       // megabytes for keys before they are spilled to disk, 0 for no limit
+    private boolean collapseIsomorphic; // report only one graph of each isomorphism class in a group?
         
     // Files
-    private BufferedReader in;      // input file with graphs
+    private String inputFileName;   // input file with graphs
+    private String outputFileName;  // output file with groups of graphs
     private PrintWriter outResults; // output file for selected graphs and other data
-
-    // graph counter, useful for occassionally printing the number of graphs processed so far
-    private static int counter;
     
     public EquiTemplate() {
     }
@@ -45,67 +57,277 @@ public class EquiTemplate {
      *  points to a file containing graphs in g6 format
      */
     public void run(String inputFileName) throws IOException {
-        long startTime = System.currentTimeMillis();               // Take a note of starting time
-        counter = 0;                                               // Initialise counter
+        run(inputFileName, 0);
+    }
+
+    /**
+     *  If memoryBudget is positive, at most that many megabytes are used for keys,
+     *  while the remaining keys are spilled to temporary files.
+     */
+    public void run(String inputFileName, int memoryBudget) throws IOException {
+        run(inputFileName, memoryBudget, false);
+    }
+
+    /**
+     *  If collapseIsomorphic is true, isomorphic graphs within a group are reported only once.
+     */
+    public void run(String inputFileName, int memoryBudget, boolean collapseIsomorphic) throws IOException {
+        this.memoryBudget = memoryBudget;
+        this.collapseIsomorphic = collapseIsomorphic;
+        TemplateRunner.run(this, inputFileName);
+    }
+
+    /**
+     *  Sets the optional memory budget and collapsing of isomorphic graphs (1 or 0) from strings, as in main()
+     */
+    public void configure(String[] params) {
+        memoryBudget = (params.length > 0) ? Integer.decode(params[0]) : 0;
+        collapseIsomorphic = (params.length > 1) && Integer.decode(params[1]) != 0;
+    }
+
+    /**
+     *  Parameters in the form accepted by configure()
+     */
+    public String[] parameters() {
+        if (collapseIsomorphic)
+            return new String[] { "" + memoryBudget, "1" };
+        return (memoryBudget > 0) ? new String[] { "" + memoryBudget } : new String[0];
+    }
+
+    /**
+     *  Prepares the map, either empty or as saved in the checkpoint.
+     *  Results are written only at the end, so the output file is opened in end().
+     */
+    public void begin(String inputFileName, String outputPrefix, DataInputStream checkpoint) throws IOException {
+        this.inputFileName = inputFileName;
+        outputFileName = outputPrefix + ".results.tex";
+        File directory = new File(inputFileName).getAbsoluteFile().getParentFile();
+        if (memoryBudget > 0 && !new File(inputFileName).isFile())     // g6codes are read back from the input file
+            throw new IllegalArgumentException("Memory budget requires a regular input file instead of " + inputFileName);
 
-        in = new BufferedReader(new FileReader(inputFileName));    // Open input and output files
-        outResults = new PrintWriter(new BufferedWriter(new FileWriter(inputFileName + ".results.tex")));
-        
         // Strings, arrays and other objects need to be created here with "new" keyword.
         // For arrays, one has to specify type and dimensions as well.
-        g6code = new String();
-        map = new DoubleMap();
+        if (memoryBudget > 0) {
+            if (checkpoint != null)
+                externalMap = ExternalGroupMap.read(checkpoint, memoryBudget * 1048576L, directory);
+            else {
+                externalMap = new ExternalGroupMap(memoryBudget * 1048576L, directory);
+                if (TemplateRunner.checkpointsEnabled())
+                    externalMap.keepJournal();         // checkpoints then need not spill pairs in memory
+            }
+        }
+        else {
+            map = new DoubleGroupMap();
+            codes = new G6Arena();
+            if (checkpoint != null || TemplateRunner.checkpointsEnabled() ||
+                TemplateRunner.endsPartially(inputFileName, outputPrefix)) {
+                journal = KeyJournal.open(outputPrefix + ".journal", checkpoint);
+                while (journal.hasReplay())        // rebuild the map of the interrupted run
+                    map.put(journal.readKey(), codes.add(journal.readCode()));
+            }
+        }
+    }
 
-        while ((g6code = in.readLine())!=null) {   // Loading g6 codes until an empty line is found
-            g = new Graph(g6code);                 // Create a graph out of its g6 code
+    /**
+     *  Called for each graph from the input file
+     */
+    public void process(Graph g, long offset) throws IOException {
+        g6code = g.g6code();
 
-            // Calculate necessary invariant here and make it the key:
-            key = new Double(g.energy());          // for equienergetic example
+        // Calculate necessary invariant here and make it the key:
+        key = g.energy();                      // for equienergetic example
 
-            map.put(key, g6code);                  // put graph's key and g6code into the map
-                                                   // map contains g6codes only to save memory
-            counter++;                             // Update counter and report progress
-            if (counter % 10000 == 0)
-                System.out.println("" + counter + " graphs processed so far");
+        if (memoryBudget > 0)
+            externalMap.put(key, offset);      // put graph's key and offset of its g6code into the map
+        else {
+            map.put(key, codes.add(g6code));   // put graph's key and handle of its g6code into the map
+                                               // g6codes themselves are kept off-heap
+            if (journal != null)
+                journal.add(key, g6code);
         }
-        
-        // Report groups of graphs with (approximately) equal key values
-        Iterator it = map.navigableKeySet().iterator();        
+    }
 
-        while (it.hasNext()) {                     // Browse through the whole map    
-            Double key = (Double) it.next();       // get key of the current group
-            Vector<String> codes = map.get(key);   // get g6codes of the current group
+    /**
+     *  The map and g6codes are all that has to be saved in a checkpoint,
+     *  but as they only grow, it suffices to save the position in their journal
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        if (memoryBudget > 0)
+            externalMap.write(checkpoint);
+        else
+            journal.saveState(checkpoint);
+    }
 
-            if (codes.size() >= 2) {               // interesting groups have >=2 graphs
-                // Report the value of the key
-                outResults.println("Energy " + key + " held by graphs:");
-    
-                Iterator codesIt = codes.iterator(); 
-                int localcounter = 1;
-                
-                while (codesIt.hasNext()) {             // Browse through g6 codes
-                    g6code = (String) codesIt.next();
-                    outResults.println(g6code);         // Report the g6 code
-                    
-                    // export graph in Graphviz format for later visualisation
-                    g = new Graph(g6code);
-                    g.saveDotFormat("equi-energy-n-" + g.n() + "-energy-" + key + "-count-" + localcounter + ".dot", 
-                                    "energy="+key);                  
-                    localcounter++;                     // Update for the next graph in group
+    /**
+     *  Keys and g6codes of the graphs of a shard, in the order of the input file, are its partial result
+     */
+    public void endPartial(DataOutputStream partial) throws IOException {
+        if (memoryBudget > 0) {
+            externalMap.endJournal();
+            externalMap.write(partial);
+        }
+        else {
+            journal.write(partial);
+            journal.close();
+        }
+    }
+
+    /**
+     *  Graphs of the next shard are put into the map one by one, under their own keys
+     *  and in the order of the input file, exactly as a single run would have put them.
+     *  In external mode, run files of the shard are simply taken over.
+     */
+    public void mergePartial(DataInputStream partial) throws IOException {
+        if (memoryBudget > 0) {
+            File directory = new File(inputFileName).getAbsoluteFile().getParentFile();
+            externalMap.addAll(ExternalGroupMap.read(partial, memoryBudget * 1048576L, directory));
+        }
+        else
+            replay(KeyJournal.replay(partial), map, codes, journal);
+    }
+
+    /**
+     *  Puts the graphs of the records into the map, and into the journal, if there is one
+     */
+    private static void replay(KeyJournal records, DoubleGroupMap map, G6Arena codes, KeyJournal journal) throws IOException {
+        while (records.hasReplay()) {
+            double recordKey = records.readKey();
+            String recordCode = records.readCode();
+            map.put(recordKey, codes.add(recordCode));
+            if (journal != null)
+                journal.add(recordKey, recordCode);
+        }
+    }
+
+    /**
+     *  Called after all graphs have been processed
+     */
+    public void end() throws IOException {
+        outResults = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName)));
+
+        // Report groups of graphs with (approximately) equal key values
+        if (memoryBudget > 0) {
+            RandomAccessFile inAgain = new RandomAccessFile(inputFileName, "r");
+            externalMap.finish((key, offsets) -> {   // groups are reported here by increasing keys
+                String[] group = new String[offsets.length];
+                for (int j=0; j<offsets.length; j++)    // read g6codes back from the input file
+                    group[j] = G6Reader.readCodeAt(inAgain, offsets[j]);
+                reportGroup(key[0], group);
+            });
+            inAgain.close();
+        }
+        else {
+            int[] groups = map.sortedGroups();     // groups are sorted only once, here
+
+            for (int i=0; i<groups.length; i++)    // Browse through the whole map
+                if (map.groupSize(groups[i]) >= 2) {        // interesting groups have >=2 graphs
+                    long[] handles = map.values(groups[i]);  // get handles of g6codes of the current group
+                    String[] group = new String[handles.length];
+                    for (int j=0; j<handles.length; j++)    // re-create g6codes from their handles
+                        group[j] = codes.get(handles[j]);
+                    reportGroup(map.key(groups[i]), group);
                 }
-            }
         }
         
-        in.close();                             // Testing done, close the files
-        outResults.close();
-        
-        long totalTime = System.currentTimeMillis() - startTime;     // Report elapsed time
-        System.out.println("Time elapsed: " + 
-            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+        outResults.close();                     // Testing done, close the file
+        if (journal != null)
+            journal.close();
+    }
+
+    /**
+     *  Reports a group of graphs with (approximately) equal key values
+     */
+    private void reportGroup(double key, String[] group) throws IOException {
+        if (collapseIsomorphic) {
+            group = IsomorphismFilter.firstOfEachClass(group);
+            if (group.length < 2)                   // all graphs of the group are isomorphic
+                return;
+        }
+
+        // Report the value of the key
+        outResults.println("Energy " + key + " held by graphs:");
+
+        for (int j=0; j<group.length; j++) {       // Browse through g6 codes
+            g6code = group[j];
+            outResults.println(g6code);            // Report the g6 code
+            
+            // export graph in Graphviz format for later visualisation
+            g = new Graph(g6code);
+            g.saveDotFormat("equi-energy-n-" + g.n() + "-energy-" + key + "-count-" + (j+1) + ".dot", 
+                            "energy="+key);                  
+        }
     }
     
-    // This function may be used to run the template from out of BlueJ
+    /**
+     *  Checks that partial results of two shards merge into the same groups as a single run
+     *  for keys spaced just under the tolerance of DoubleUtil, which are grouped differently
+     *  when they are put in another order: e.g., keys 0, 0.9e-8 and 1.8e-8 form the groups {0, 0.9e-8} and {1.8e-8}.
+     *  The shards are split at each possible point. Differences are printed, and their number is returned.
+     */
+    public static int checkShards() throws IOException {
+        int keys = 10;
+        DoubleGroupMap single = new DoubleGroupMap();
+        G6Arena singleCodes = new G6Arena();
+        for (int i=0; i<keys; i++)
+            single.put(i * 0.9e-8, singleCodes.add("graph" + i));
+
+        int differences = 0;
+        for (int split=1; split<keys; split++) {
+            DoubleGroupMap merged = new DoubleGroupMap();
+            G6Arena mergedCodes = new G6Arena();
+
+            for (int shard=0; shard<2; shard++) {
+                KeyJournal journal = KeyJournal.open(File.createTempFile("shard-", ".journal").getPath(), null);
+                for (int i=(shard == 0 ? 0 : split); i<(shard == 0 ? split : keys); i++)
+                    journal.add(i * 0.9e-8, "graph" + i);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream partial = new DataOutputStream(bytes);
+                journal.write(partial);
+                journal.close();
+                partial.close();
+                replay(KeyJournal.replay(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))),
+                       merged, mergedCodes, null);
+            }
+
+            String expected = describeGroups(single, singleCodes);
+            String actual = describeGroups(merged, mergedCodes);
+            if (!actual.equals(expected)) {
+                System.out.println("single run:         " + expected);
+                System.out.println("shards split at " + split + ": " + actual);
+                differences++;
+            }
+        }
+
+        System.out.println(differences + " differences between a single run and merged shards");
+        return differences;
+    }
+
+    /**
+     *  Groups of the map with their keys and g6codes, in the order of their appearance
+     */
+    private static String describeGroups(DoubleGroupMap map, G6Arena codes) {
+        StringBuilder groups = new StringBuilder();
+        for (int i=0; i<map.size(); i++) {
+            groups.append(map.key(i)).append(" {");
+            long[] handles = map.values(i);
+            for (int j=0; j<handles.length; j++)
+                groups.append(j == 0 ? "" : ", ").append(codes.get(handles[j]));
+            groups.append("} ");
+        }
+        return groups.toString();
+    }
+
+    // This function may be used to run the template from out of BlueJ,
+    // with optional second argument being the memory budget in megabytes
+    // and optional third argument 1 to collapse isomorphic graphs in groups
     public static void main(String[] args) throws IOException, NumberFormatException {
-        new EquiTemplate().run(args[0]);
+        args = TemplateRunner.parseOptions(args);
+        if (args.length > 2)
+            new EquiTemplate().run(args[0], Integer.decode(args[1]), Integer.decode(args[2]) != 0);
+        else if (args.length > 1)
+            new EquiTemplate().run(args[0], Integer.decode(args[1]));
+        else
+            new EquiTemplate().run(args[0]);
     }
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+/**
+ * ExternalGroupMap.java
+ *
+ * This class finds groups of approximately equal keys, as DoubleGroupMap and
+ * DoubleVectorGroupMap do, among more (key, reference) pairs than would fit into memory.
+ * References are typically offsets of g6codes within the input file (see G6Reader),
+ * so that g6codes need not be kept anywhere until they are reported.
+ *
+ * Pairs are collected in memory until their estimated size reaches the memory budget.
+ * They are then sorted by DoubleUtil.projection() of their keys and written to a temporary run file.
+ * At the end, all runs are merged, and the merged sequence is swept once:
+ * since projections of approximately equal keys differ by less than DoubleUtil.projectionWidth(),
+ * a pair can join only a group whose first key has a close projection,
+ * so that just a small window of open groups is kept in memory at any time.
+ * Both the run files and the final merge are read and written sequentially.
+ * Checkpoints of long runs do not spill pairs in memory to runs of their own,
+ * as these pairs are also kept in a journal (see keepJournal()), so that the number of runs stays bounded
+ * by the number of pairs divided by the number of pairs that fit into the memory budget.
+ *
+ * Only groups with at least two references are passed to the GroupHandler,
+ * with references in increasing order (i.e., in the order of the input file)
+ * and with the key of the first of them.
+ * Groups are reported in the increasing order of projections of their keys,
+ * which for scalar keys is just the increasing order of keys.
+ */
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+public class ExternalGroupMap {
+    /**
+     * Receives groups of approximately equal keys.
+     */
+    public interface GroupHandler {
+        void group(double[] key, long[] refs) throws IOException;
+    }
+
+    private long memoryBudget;          // bytes of memory for pairs before they are spilled to disk
+    private File directory;             // directory for run files
+    private ArrayList<File> runs;       // sorted run files written so far
+    private long count;                 // total number of pairs
+    private KeyJournal journal;         // pairs in memory, kept for checkpoints, or null (see keepJournal())
+    private ArrayList<File> journals;   // earlier journals, whose pairs are in run files already
+
+    // Pairs kept in memory: keys one after another, start and length of each key,
+    // its projection and reference
+    private double[] keyData;
+    private int keyDataSize;
+    private int[] pairKeyStart;
+    private int[] pairKeyLength;
+    private double[] pairProjection;
+    private long[] pairRef;
+    private int pairs;
+    private long usedBytes;
+
+    /**
+     * Creates a map that keeps at most about memoryBudget bytes of pairs in memory,
+     * and writes sorted runs to the given directory (null for the default temporary directory).
+     */
+    public ExternalGroupMap(long memoryBudget, File directory) {
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+        runs = new ArrayList<File>();
+        journals = new ArrayList<File>();
+        count = 0;
+
+        keyData = new double[1024];
+        pairKeyStart = new int[256];
+        pairKeyLength = new int[256];
+        pairProjection = new double[256];
+        pairRef = new long[256];
+        clearPairs();
+    }
+
+    /**
+     * Total number of pairs put into the map.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Number of run files written so far.
+     */
+    public int runs() {
+        return runs.size();
+    }
+
+    public void put(double key, long ref) throws IOException {
+        put(new double[] {key}, ref);
+    }
+
+    /**
+     * Puts a copy of the key together with the reference into the map,
+     * spilling collected pairs to a run file if the memory budget is exceeded.
+     */
+    public void put(double[] key, long ref) throws IOException {
+        add(key, ref);
+        count++;
+        if (journal != null)
+            journal.add(key, ref);
+
+        if (usedBytes >= memoryBudget)
+            spill();
+    }
+
+    /**
+     * Adds a copy of the key together with the reference to the pairs in memory.
+     */
+    private void add(double[] key, long ref) throws IOException {
+        if (pairs == DoubleUtil.MAX_ARRAY_SIZE || (long) keyDataSize + key.length > DoubleUtil.MAX_ARRAY_SIZE)
+            spill();                        // arrays cannot grow any further, whatever the memory budget
+
+        if (pairs == pairRef.length) {
+            int capacity = DoubleUtil.grownCapacity(pairs);
+            pairKeyStart = Arrays.copyOf(pairKeyStart, capacity);
+            pairKeyLength = Arrays.copyOf(pairKeyLength, capacity);
+            pairProjection = Arrays.copyOf(pairProjection, capacity);
+            pairRef = Arrays.copyOf(pairRef, capacity);
+        }
+        if (keyDataSize + key.length > keyData.length)
+            keyData = Arrays.copyOf(keyData, Math.max(keyDataSize + key.length, DoubleUtil.grownCapacity(keyData.length)));
+
+        System.arraycopy(key, 0, keyData, keyDataSize, key.length);
+        pairKeyStart[pairs] = keyDataSize;
+        pairKeyLength[pairs] = key.length;
+        pairProjection[pairs] = DoubleUtil.projection(key);
+        pairRef[pairs] = ref;
+        keyDataSize += key.length;
+        pairs++;
+        usedBytes += 8*key.length + 40;    // key, projection, reference, start, length and sorting indices
+    }
+
+    /**
+     * Merges all pairs and passes each group of at least two approximately equal keys to the handler.
+     * Run files are deleted afterwards.
+     */
+    public void finish(GroupHandler handler) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>();
+
+        if (runs.isEmpty()) {               // everything fits into memory, no need for disk
+            Cursor c = new MemoryCursor(sortedPairs());
+            if (c.advance())
+                queue.add(c);
+        }
+        else {
+            spill();
+            for (File run : runs) {
+                Cursor c = new FileCursor(run);
+                if (c.advance())
+                    queue.add(c);
+            }
+        }
+
+        ArrayList<Group> open = new ArrayList<Group>();    // groups that may still grow
+        while (!queue.isEmpty()) {
+            Cursor c = queue.poll();
+
+            for (Iterator<Group> it = open.iterator(); it.hasNext(); ) {
+                Group g = it.next();
+                if (c.projection - g.projection >= DoubleUtil.projectionWidth(g.key.length)) {
+                    it.remove();            // no further key can be approximately equal to this one
+                    g.report(handler);
+                }
+            }
+
+            Group joined = null;
+            for (Group g : open)
+                if (DoubleUtil.equals(g.key, c.key)) {
+                    joined = g;
+                    break;
+                }
+            if (joined == null)
+                open.add(new Group(c.key, c.projection, c.ref));
+            else
+                joined.add(c.key, c.ref);
+
+            if (c.advance())
+                queue.add(c);
+            else
+                c.close();
+        }
+
+        for (Group g : open)
+            g.report(handler);
+
+        for (File run : runs)
+            run.delete();
+        runs.clear();
+        clearPairs();
+        endJournal();
+    }
+
+    /**
+     * Makes the map keep the pairs that are in memory in a KeyJournal as well,
+     * so that write() need not spill them to a run file of their own:
+     * regular checkpoints of a long run would otherwise pile up more and more small runs.
+     * A new journal is started with each run file, and all journals are kept until finish(),
+     * as checkpoints may refer to them.
+     */
+    public void keepJournal() throws IOException {
+        journal = KeyJournal.open(File.createTempFile("pairs-", ".journal", directory).getPath(), null);
+    }
+
+    /**
+     * Stops keeping the journal and deletes journal files, e.g., before the map is written to partial results.
+     */
+    public void endJournal() throws IOException {
+        if (journal == null)
+            return;
+
+        journal.close();
+        journal = null;
+        for (File file : journals)
+            file.delete();
+        journals.clear();
+    }
+
+    /**
+     * Writes the state of the map to a data stream, e.g., to a checkpoint.
+     * If the map keeps a journal, the state consists of the names of run files and journals
+     * together with the position in the current journal. Otherwise, pairs in memory are spilled
+     * to a run file first, so that only the names of run files need to be written.
+     * Run files and journals are forced to disk before a checkpoint referring to them is written
+     * (see Checkpoint.forceBefore()). Those written after the last checkpoint of an interrupted run
+     * are not referred to by any checkpoint, so they remain in the directory and may be deleted by hand.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        if (journal == null)
+            spill();
+
+        out.writeLong(count);
+        out.writeInt(runs.size());
+        for (File run : runs) {
+            out.writeUTF(run.getPath());
+            Checkpoint.forceBefore(out, run);
+        }
+
+        out.writeBoolean(journal != null);
+        if (journal != null) {
+            out.writeInt(journals.size());
+            for (File file : journals)
+                out.writeUTF(file.getPath());
+            out.writeUTF(journal.fileName());
+            journal.saveState(out);
+        }
+    }
+
+    /**
+     * Reads the state written by write(DataOutputStream) into a map with the given memory budget and directory.
+     * Pairs that were in memory are replayed from the journal, which the map then keeps appending to.
+     */
+    public static ExternalGroupMap read(DataInputStream in, long memoryBudget, File directory) throws IOException {
+        ExternalGroupMap map = new ExternalGroupMap(memoryBudget, directory);
+        map.count = in.readLong();
+        int runs = in.readInt();
+        for (int i=0; i<runs; i++)
+            map.runs.add(new File(in.readUTF()));
+
+        if (in.readBoolean()) {
+            int journals = in.readInt();
+            for (int i=0; i<journals; i++)
+                map.journals.add(new File(in.readUTF()));
+            map.journal = KeyJournal.open(in.readUTF(), in);
+            while (map.journal.hasReplay())
+                map.add(map.journal.readVector(), map.journal.readRef());
+        }
+        return map;
+    }
+
+    /**
+     * Takes over the pairs of another map, e.g., of a shard of the same input file,
+     * so that they are grouped together with the pairs of this map.
+     * Only the names of run files are taken over, and the files are deleted by finish().
+     */
+    public void addAll(ExternalGroupMap other) throws IOException {
+        other.spill();
+        other.endJournal();
+        runs.addAll(other.runs);
+        count += other.count;
+        other.runs.clear();
+        other.count = 0;
+    }
+
+    /**
+     * Sorts the pairs in memory and writes them to a new run file.
+     */
+    private void spill() throws IOException {
+        if (pairs == 0)
+            return;
+
+        int[] order = sortedPairs();
+        File run = File.createTempFile("groups-", ".run", directory);   // kept until finish(), as checkpoints may refer to it
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+        for (int i=0; i<pairs; i++) {
+            int p = order[i];
+            out.writeInt(pairKeyLength[p]);
+            for (int j=0; j<pairKeyLength[p]; j++)
+                out.writeDouble(keyData[pairKeyStart[p]+j]);
+            out.writeLong(pairRef[p]);
+        }
+        out.close();
+
+        runs.add(run);
+        clearPairs();
+
+        if (journal != null) {              // pairs of the journal are in the run now
+            journal.end();
+            journals.add(new File(journal.fileName()));
+            keepJournal();
+        }
+    }
+
+    private void clearPairs() {
+        keyDataSize = 0;
+        pairs = 0;
+        usedBytes = 0;
+    }
+
+    /**
+     * Indices of pairs in memory sorted by projections of keys, and then by references.
+     */
+    private int[] sortedPairs() {
+        int[] index = new int[pairs];
+        for (int i=0; i<pairs; i++)
+            index[i] = i;
+
+        int[] buffer = new int[pairs];
+        for (long width=1; width<pairs; width*=2) {    // bottom-up merge sort, in long to avoid overflows
+            for (long start=0; start<pairs; start+=2*width) {
+                int lo = (int) start;
+                int mid = (int) Math.min(start+width, pairs), hi = (int) Math.min(start+2*width, pairs);
+                int i=lo, j=mid, k=lo;
+                while (i<mid && j<hi)
+                    buffer[k++] = (comparePairs(index[j], index[i]) < 0) ? index[j++] : index[i++];
+                while (i<mid)
+                    buffer[k++] = index[i++];
+                while (j<hi)
+                    buffer[k++] = index[j++];
+            }
+            int[] swap = index;
+            index = buffer;
+            buffer = swap;
+        }
+
+        return index;
+    }
+
+    private int comparePairs(int p1, int p2) {
+        int res = Double.compare(pairProjection[p1], pairProjection[p2]);
+        return (res != 0) ? res : Long.compare(pairRef[p1], pairRef[p2]);
+    }
+
+    /**
+     * Sorted sequence of pairs, either from memory or from a run file.
+     */
+    private abstract static class Cursor implements Comparable<Cursor> {
+        double[] key;
+        double projection;
+        long ref;
+
+        abstract boolean advance() throws IOException;
+
+        void close() throws IOException {
+        }
+
+        public int compareTo(Cursor o) {
+            int res = Double.compare(projection, o.projection);
+            return (res != 0) ? res : Long.compare(ref, o.ref);
+        }
+    }
+
+    private class MemoryCursor extends Cursor {
+        private int[] order;
+        private int next;
+
+        MemoryCursor(int[] order) {
+            this.order = order;
+            next = 0;
+        }
+
+        boolean advance() {
+            if (next == order.length)
+                return false;
+
+            int p = order[next++];
+            key = Arrays.copyOfRange(keyData, pairKeyStart[p], pairKeyStart[p] + pairKeyLength[p]);
+            projection = pairProjection[p];
+            ref = pairRef[p];
+            return true;
+        }
+    }
+
+    private static class FileCursor extends Cursor {
+        private DataInputStream in;
+
+        FileCursor(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            }
+            catch (EOFException e) {
+                return false;
+            }
+
+            key = new double[length];
+            for (int j=0; j<length; j++)
+                key[j] = in.readDouble();
+            projection = DoubleUtil.projection(key);
+            ref = in.readLong();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Group of approximately equal keys found during the final sweep.
+     */
+    private static class Group {
+        double[] key;                   // key that started the group
+        double projection;              // its projection
+        double[] firstKey;              // key with the smallest reference
+        long firstRef;                  // the smallest reference
+        long[] refs;
+        int size;
+
+        Group(double[] key, double projection, long ref) {
+            this.key = key;
+            this.projection = projection;
+            firstKey = key;
+            firstRef = ref;
+            refs = new long[] {ref};
+            size = 1;
+        }
+
+        void add(double[] key, long ref) {
+            if (size == refs.length)
+                refs = Arrays.copyOf(refs, DoubleUtil.grownCapacity(size));
+            refs[size++] = ref;
+
+            if (ref < firstRef) {
+                firstKey = key;
+                firstRef = ref;
+            }
+        }
+
+        void report(GroupHandler handler) throws IOException {
+            if (size < 2)
+                return;
+
+            long[] sorted = Arrays.copyOf(refs, size);
+            Arrays.sort(sorted);
+            handler.group(firstKey, sorted);
+        }
+    }
+}
@@ -16,27 +16,29 @@
  *        within quotation marks "" (inputFileName)
  *        and the number of extremal values to be found (extnum)
  * - study your results!
+ *
+ * The template is run by TemplateRunner, which calls process() for each graph in the input file.
+ * For long runs, checkpoints may be enabled with TemplateRunner.setCheckpointInterval(int seconds),
+ * and large input files may be split into shards (see TemplateRunner.setShard(int, int))
+ * whose partial results are then combined by ShardMerge.
  */
 import java.util.Iterator;
 import java.util.Vector;
-import java.util.Set;
-import java.util.NavigableSet;
 
 import java.io.*;
 
-public class ExtremalTemplate {
+public class ExtremalTemplate implements GraphTemplate {
     // Variables needed for the template
     private String g6code;          // g6code of a graph
     private Graph g;                // graph    
     private DoubleMap map;          // map containing graphs with extremal keys 
     private Double key;             // key is value of invariant expression
+    private int extnum;             // number of extremal values to be found
+    private int lookformax;         // are extremal values maximal (>=0) or minimal (<0)
     
     // Files
-    private BufferedReader in;      // input file with graphs
     private PrintWriter outResults; // output file for selected graphs and other data
-
-    // graph counter, useful for occassionally printing the number of graphs processed so far
-    private static int counter;
+    private String outputFileName;  // name of the output file
     
     public ExtremalTemplate() {
     }
@@ -48,56 +50,116 @@ public class ExtremalTemplate {
      *  and lookformax specifies whether the extremal values are maximal (>=0) or minimal (<0).
      */
     public void run(String inputFileName, int extnum, int lookformax) throws IOException {
-        long startTime = System.currentTimeMillis();               // Take a note of starting time
-        counter = 0;                                               // Initialise counter
+        this.extnum = extnum;
+        this.lookformax = lookformax;
+        TemplateRunner.run(this, inputFileName);
+    }
+
+    /**
+     *  Sets extnum and lookformax from strings, as in main()
+     */
+    public void configure(String[] params) {
+        extnum = Integer.decode(params[0]);
+        lookformax = Integer.decode(params[1]);
+    }
 
-        in = new BufferedReader(new FileReader(inputFileName));    // Open input and output files
-        outResults = new PrintWriter(new BufferedWriter(new FileWriter(inputFileName + ".results.tex")));
+    /**
+     *  Parameters in the form accepted by configure()
+     */
+    public String[] parameters() {
+        return new String[] { "" + extnum, "" + lookformax };
+    }
+
+    /**
+     *  Prepares the map of extremal graphs, either empty or as saved in the checkpoint.
+     *  Results are written only at the end, so the output file is opened in end().
+     */
+    public void begin(String inputFileName, String outputPrefix, DataInputStream checkpoint) throws IOException {
+        outputFileName = outputPrefix + ".results.tex";
         
         // Strings, arrays and other objects need to be created here with "new" keyword.
         // For arrays, one has to specify type and dimensions as well.
-        g6code = new String();
-        map = new DoubleMap();
+        if (checkpoint == null)
+            map = new DoubleMap();
+        else
+            map = DoubleMap.read(checkpoint);
+    }
         
-        while ((g6code = in.readLine())!=null) {     // loading g6 codes until an empty line is found
-            g = new Graph(g6code);                   // create a graph out of its g6 code
-            
-            // Calculate necessary invariant here and make it the key:
-            key = new Double(g.dshi());              // for distance-sum heterogeneity example
+    /**
+     *  Called for each graph from the input file
+     */
+    public void process(Graph g, long offset) throws IOException {
+        g6code = g.g6code();
             
-            // Graphs are put into map if they are more "extremal" than those currently in it
-            if (map.size()<extnum)             // If we still haven't seen at least extnum keys
-                map.put(key, g6code);          // then insert graph's g6code and its key into map
+        // Calculate necessary invariant here and make it the key:
+        key = new Double(g.dshi());              // for distance-sum heterogeneity example
+
+        insert(key, g6code);
+    }
+
+    /**
+     *  Graphs are put into map if they are more "extremal" than those currently in it
+     */
+    private void insert(Double key, String g6code) {
+        if (map.size()<extnum)             // If we still haven't seen at least extnum keys
+            map.put(key, g6code);          // then insert graph's g6code and its key into map
+        else {
+            if (map.containsEqualKeys(key)) {  // If the key is already in the map
+                map.put(key, g6code);          // then you should definitely insert this g6code
+            }
             else {
-                if (map.containsEqualKeys(key)) {  // If the key is already in the map
-                    map.put(key, g6code);          // then you should definitely insert this g6code
-                }
-                else {
-                    // Otherwise, insert it if it's better than the worst key in the map.
-                    // Since the present key represents a truly new key in the map, 
-                    // delete the previously worst key from the map (to ensure extnum keys).
+                // Otherwise, insert it if it's better than the worst key in the map.
+                // Since the present key represents a truly new key in the map, 
+                // delete the previously worst key from the map (to ensure extnum keys).
                     
-                    if (lookformax<0) {   // we're looking for minimal values
-                        Double lastKey = map.lastKey();      // largest key in the map
-                        if (key.doubleValue() < lastKey.doubleValue()) {
-                           map.remove(lastKey);
-                           map.put(key, g6code);
-                        }
+                if (lookformax<0) {   // we're looking for minimal values
+                    Double lastKey = map.lastKey();      // largest key in the map
+                    if (key.doubleValue() < lastKey.doubleValue()) {
+                       map.remove(lastKey);
+                       map.put(key, g6code);
                     }
-                    else {    // we're looking for maximal values
-                        Double firstKey = map.firstKey();       // smallest key in the map
-                        if (key.doubleValue() > firstKey.doubleValue()) {
-                            map.remove(firstKey);
-                            map.put(key, g6code);
-                        }
+                }
+                else {    // we're looking for maximal values
+                    Double firstKey = map.firstKey();       // smallest key in the map
+                    if (key.doubleValue() > firstKey.doubleValue()) {
+                        map.remove(firstKey);
+                        map.put(key, g6code);
                     }
                 }
             }
-
-            counter++;                    // Update counter and report progress
-            if (counter % 10000 == 0)
-                System.out.println("" + counter + " graphs processed so far");
         }
+    }
+
+    /**
+     *  The map of extremal graphs is all that has to be saved in a checkpoint
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        map.write(checkpoint);
+    }
+
+    /**
+     *  The map of extremal graphs of a shard is also its partial result
+     */
+    public void endPartial(DataOutputStream partial) throws IOException {
+        map.write(partial);
+    }
+
+    /**
+     *  Extremal graphs of the whole file are among the extremal graphs of its shards,
+     *  so it suffices to insert the latter into the map as if they were processed anew
+     */
+    public void mergePartial(DataInputStream partial) throws IOException {
+        DoubleMap part = DoubleMap.read(partial);
+        for (Double partKey : part.keySet())
+            for (String partCode : part.get(partKey))
+                insert(partKey, partCode);
+    }
+        
+    /**
+     *  Called after all graphs have been processed
+     */
+    public void end() throws IOException {
+        outResults = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName)));
         
         // Report on the number of extremal keys found (may be occasionally less than extnum)
         outResults.println("" + map.size() + " extremal values are achieved for:");
@@ -124,20 +186,15 @@ public class ExtremalTemplate {
                  g.saveDotFormat("maxdshi-n-" + g.n() + "-dshi-" + key + "-count-" + localcounter + ".dot", "dshi="+key);
 
                  localcounter++;
-                 counter++;
              }
         }
         
-        in.close();                             // Testing done, close the files
-        outResults.close();
-        
-        long totalTime = System.currentTimeMillis() - startTime;        // Report elapsed time
-        System.out.println("Time elapsed: " + 
-            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+        outResults.close();                     // Testing done, close the file
     }
     
     // This function may be used to run the template from out of BlueJ
     public static void main(String[] args) throws IOException, NumberFormatException {
+        args = TemplateRunner.parseOptions(args);
         new ExtremalTemplate().run(args[0], Integer.decode(args[1]), Integer.decode(args[2]));
     }
     
@@ -0,0 +1,225 @@
+/**
+ * FamilyEnumerator.java
+ *
+ * Enumerates a parametric family of graphs, such as threshold graphs given by bit sequences
+ * or brooms given by pairs (a, b), on all processors, and streams the results to a CSV file.
+ *
+ * A family is given by a ParameterSpace and a constructor of graphs from points of the space,
+ * e.g., Threshold::new for ParameterSpace.bitStrings(n-1). For each point accepted by the filter (if any),
+ * the evaluator computes the line of results, or null if the point yields no line.
+ * Evaluators may also keep state from one point to the next, e.g., to update the spectrum incrementally
+ * along a Gray code (see Threshold.runGray()): then a new evaluator is supplied to each task,
+ * which passes it the points of its range in order.
+ * The space is traversed in segments of consecutive points: each segment is split by ParameterSpliterator
+ * among the threads of a fork/join pool, and its lines are then written in the order of points,
+ * so that the results do not depend on the number of threads.
+ *
+ * Long enumerations are resumable: every so many seconds, the index of the next segment and the length
+ * of the CSV file are saved to csvFileName + ".progress" (see Checkpoint). A run that finds such a file
+ * truncates the CSV file to the saved length and continues from the saved segment.
+ * The progress file is deleted once the enumeration is finished.
+ */
+import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+public class FamilyEnumerator {
+    /**
+     * Number of points in a segment, after which the results are written and progress may be saved.
+     */
+    public static final int SEGMENT_SIZE = 1 << 16;
+
+    /**
+     * Constructs the graph of a family from its parameters.
+     */
+    public interface Family {
+        Graph graph(int[] params);
+    }
+
+    /**
+     * Computes the line of results for a graph of the family, or null if there is nothing to report.
+     * The graph is null if the enumerator was given no family.
+     */
+    public interface Evaluator {
+        String evaluate(int[] params, Graph g);
+    }
+
+    private ParameterSpace space;
+    private Family family;
+    private Supplier<Evaluator> evaluators;     // a new evaluator for each range of consecutive points
+    private Predicate<int[]> filter = null;     // points to be skipped, if not null
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int progressInterval = 60;          // seconds between two saves of progress, 0 if disabled
+
+    private long grain;                         // number of points below which a task is not split further
+    private AtomicLong lines;                   // number of lines produced so far
+
+    public FamilyEnumerator(ParameterSpace space, Family family, Evaluator evaluator) {
+        this(space, family, () -> evaluator);
+    }
+
+    /**
+     * Enumerator whose evaluators keep state between consecutive points:
+     * each range of points traversed by a task gets its own evaluator from the supplier.
+     * Family may be null if the evaluators work on parameters directly.
+     */
+    public FamilyEnumerator(ParameterSpace space, Family family, Supplier<Evaluator> evaluators) {
+        this.space = space;
+        this.family = family;
+        this.evaluators = evaluators;
+    }
+
+    /**
+     * Skips the points for which the filter does not hold,
+     * e.g., the pairs (n, a) with a > n-2 for brooms.
+     */
+    public void setFilter(Predicate<int[]> filter) {
+        this.filter = filter;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of seconds between two saves of progress, 0 to disable resuming.
+     */
+    public void setProgressInterval(int seconds) {
+        progressInterval = seconds;
+    }
+
+    /**
+     * Enumerates the family and writes the header and the lines of results to the CSV file,
+     * or prints the lines to the standard output if csvFileName is null (without saving progress).
+     *
+     * @return long Number of lines of results.
+     */
+    public long run(String csvFileName, String header) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long size = space.size();
+        long next = 0;                                  // index of the next point
+        lines = new AtomicLong(0);
+
+        String progressFileName = (csvFileName == null) ? null : csvFileName + ".progress";
+        Checkpoint progress = null;
+        DataInputStream saved = null;
+        if (csvFileName != null && progressInterval > 0) {
+            progress = new Checkpoint(progressFileName, progressInterval);
+            saved = Checkpoint.load(progressFileName);
+
+            if (saved != null) {
+                String description = saved.readUTF();
+                if (!description.equals(space + ": " + header)) {
+                    System.out.println("Progress " + progressFileName + " belongs to a different run and is ignored");
+                    saved.close();
+                    saved = null;
+                }
+                else {
+                    next = saved.readLong();
+                    lines.set(saved.readLong());
+                    System.out.println("Resuming after " + next + " of " + size + " points");
+                }
+            }
+        }
+
+        OutputStream out;
+        FileOutputStream file = null;
+        if (csvFileName == null)
+            out = System.out;
+        else {
+            file = TemplateRunner.openOutput(csvFileName, saved);
+            out = new BufferedOutputStream(file, 1 << 16);
+            if (saved != null)
+                saved.close();
+            else if (header != null)
+                out.write((header + System.lineSeparator()).getBytes());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        grain = Math.max(1, SEGMENT_SIZE / (16L * threads));
+        try {
+            while (next < size) {
+                long end = Math.min(size, next + SEGMENT_SIZE);
+                StringBuilder segment = pool.invoke(new Chunk(new ParameterSpliterator(space, next, end)));
+                out.write(segment.toString().getBytes());
+                next = end;
+
+                if (size > SEGMENT_SIZE)
+                    System.out.println("" + next + " of " + size + " points enumerated so far");
+
+                if (progress != null && progress.due()) {
+                    out.flush();
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream state = new DataOutputStream(bytes);
+                    state.writeUTF(space + ": " + header);
+                    state.writeLong(next);
+                    state.writeLong(lines.get());
+                    TemplateRunner.savePosition(file, state);
+                    state.close();
+                    progress.save(bytes.toByteArray());
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        out.flush();
+        if (file == null)
+            return lines.get();
+
+        out.close();
+        if (progress != null)
+            progress.finish();
+
+        TemplateRunner.reportCache();
+        long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+        return lines.get();
+    }
+
+    /**
+     * Computes the lines of a range of points, splitting it among the threads of the pool.
+     */
+    private class Chunk extends RecursiveTask<StringBuilder> {
+        private static final long serialVersionUID = 1L;   // tasks are serializable, though never serialized
+
+        private ParameterSpliterator points;
+
+        Chunk(ParameterSpliterator points) {
+            this.points = points;
+        }
+
+        protected StringBuilder compute() {
+            if (points.estimateSize() > grain) {
+                ParameterSpliterator prefix = (ParameterSpliterator) points.trySplit();
+                if (prefix != null) {
+                    Chunk first = new Chunk(prefix);
+                    first.fork();
+                    StringBuilder second = new Chunk(points).compute();
+                    return first.join().append(second);
+                }
+            }
+
+            StringBuilder result = new StringBuilder();
+            Evaluator evaluator = evaluators.get();
+            points.forEachRemaining(params -> {
+                if (filter != null && !filter.test(params))
+                    return;
+
+                String line = evaluator.evaluate(params, (family == null) ? null : family.graph(params));
+                if (line != null) {
+                    result.append(line).append(System.lineSeparator());
+                    lines.incrementAndGet();
+                }
+            });
+            return result;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * G6Arena.java
+ *
+ * This class keeps a large number of g6codes outside of the Java heap,
+ * so that maps such as DoubleGroupMap and DoubleVectorGroupMap may hold
+ * all graphs from a file without creating a String object for each of them.
+ *
+ * g6codes are packed one after another into chunks of direct (off-heap) memory,
+ * each code being terminated by a newline character, exactly as in a g6 file.
+ * A code never crosses the boundary of a chunk, so that it is addressed
+ * by a single long handle: the number of its chunk times CHUNK_SIZE plus its position within the chunk.
+ * String objects are re-created only when get() is called, typically at report time.
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class G6Arena {
+    /**
+     * Size of a single chunk of off-heap memory in bytes.
+     */
+    public static final int CHUNK_SIZE = 1 << 24;
+
+    private ArrayList<ByteBuffer> chunks;   // chunks of off-heap memory
+    private ByteBuffer current;             // the chunk being filled
+    private int position;                   // first free byte in the current chunk
+    private long count;                     // number of codes in the arena
+
+    public G6Arena() {
+        chunks = new ArrayList<ByteBuffer>();
+        current = null;
+        position = CHUNK_SIZE;
+        count = 0;
+    }
+
+    /**
+     * Number of g6codes in the arena.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Number of bytes of off-heap memory taken by the arena.
+     */
+    public long bytes() {
+        return (long) chunks.size() * CHUNK_SIZE;
+    }
+
+    /**
+     * Copies a g6code into the arena.
+     *
+     * @return long Handle under which the code may be retrieved.
+     */
+    public long add(String g6code) {
+        int length = g6code.length();
+        if (length + 1 > CHUNK_SIZE)
+            throw new IllegalArgumentException("g6code longer than the chunk size");
+
+        if (position + length + 1 > CHUNK_SIZE) {    // start a new chunk
+            current = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            chunks.add(current);
+            position = 0;
+        }
+
+        long handle = (long) (chunks.size()-1) * CHUNK_SIZE + position;
+        for (int i=0; i<length; i++)
+            current.put(position + i, (byte) g6code.charAt(i));
+        current.put(position + length, (byte) '\n');
+
+        position += length + 1;
+        count++;
+        return handle;
+    }
+
+    /**
+     * Writes the used part of the arena to a data stream, e.g., to a checkpoint,
+     * so that handles remain valid after reading it back.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(count);
+        out.writeInt(chunks.size());
+        out.writeInt(position);
+
+        byte[] bytes = new byte[1 << 16];
+        for (int c=0; c<chunks.size(); c++) {
+            int used = (c == chunks.size()-1) ? position : CHUNK_SIZE;
+            ByteBuffer chunk = chunks.get(c).duplicate();
+            chunk.position(0);
+            out.writeInt(used);
+            for (int done=0; done<used; done+=bytes.length) {
+                int length = Math.min(bytes.length, used-done);
+                chunk.get(bytes, 0, length);
+                out.write(bytes, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Reads an arena written by write(DataOutputStream).
+     */
+    public static G6Arena read(DataInputStream in) throws IOException {
+        G6Arena arena = new G6Arena();
+        arena.count = in.readLong();
+        int chunks = in.readInt();
+        arena.position = in.readInt();
+
+        byte[] bytes = new byte[1 << 16];
+        for (int c=0; c<chunks; c++) {
+            arena.current = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            arena.chunks.add(arena.current);
+
+            int used = in.readInt();
+            for (int done=0; done<used; done+=bytes.length) {
+                int length = Math.min(bytes.length, used-done);
+                in.readFully(bytes, 0, length);
+                arena.current.put(bytes, 0, length);
+            }
+        }
+
+        return arena;
+    }
+
+    /**
+     * Re-creates the g6code stored under the handle.
+     */
+    public String get(long handle) {
+        ByteBuffer chunk = chunks.get((int) (handle / CHUNK_SIZE));
+        int start = (int) (handle % CHUNK_SIZE);
+
+        int end = start;
+        while (chunk.get(end) != '\n')
+            end++;
+
+        char[] code = new char[end - start];
+        for (int i=start; i<end; i++)
+            code[i-start] = (char) chunk.get(i);
+        return new String(code);
+    }
+}
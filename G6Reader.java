@@ -0,0 +1,180 @@
+/**
+ * G6Reader.java
+ *
+ * This class reads g6codes line by line, just as BufferedReader.readLine() does,
+ * but it also keeps track of the byte offset at which each g6code starts.
+ * Such offsets are compact references to graphs: a g6code can be read again
+ * from the input file by readCodeAt(RandomAccessFile, long),
+ * so that the whole collection of g6codes need not be kept in memory.
+ *
+ * g6 files consist of ASCII characters only, hence bytes are converted directly to chars.
+ */
+import java.io.*;
+
+public class G6Reader implements GraphReader {
+    private InputStream in;             // input stream with g6codes
+    private byte[] buffer;              // bytes read from the input stream
+    private int bufferPos;              // position of the next byte within buffer
+    private int bufferLen;              // number of bytes in buffer
+    private long bufferStart;           // offset of buffer[0] within the input
+
+    private char[] line;                // characters of the current line
+    private long lineOffset;            // offset of the first byte of the current line
+    private long end;                   // lines starting at or after this offset are not read
+
+    /**
+     * Opens the file with g6codes for reading from its beginning.
+     */
+    public G6Reader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+    }
+
+    /**
+     * Opens the file with g6codes for reading from the given offset,
+     * which should be the beginning of a line (for example, a value of position()).
+     */
+    public G6Reader(String fileName, long offset) throws IOException {
+        this(fileName, offset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the file with g6codes for reading lines that start
+     * at or after offset (which should be the beginning of a line) and before end.
+     */
+    public G6Reader(String fileName, long offset, long end) throws IOException {
+        this(new FileInputStream(fileName));
+        ((FileInputStream) in).getChannel().position(offset);
+        bufferStart = offset;
+        this.end = end;
+    }
+
+    /**
+     * Opens the file with g6codes for reading the lines that start within the byte range [start, end).
+     * The range need not be aligned with lines, so that a file may be split into consecutive ranges
+     * by its size only, and each line will still be read within exactly one range.
+     */
+    public static G6Reader openRange(String fileName, long start, long end) throws IOException {
+        if (start == 0)
+            return new G6Reader(fileName, 0, end);
+
+        G6Reader reader = new G6Reader(fileName, start-1, end);
+        reader.readLine();              // skip the line containing byte start-1, it belongs to the previous range
+        return reader;
+    }
+
+    /**
+     * Reads g6codes from the provided input stream,
+     * counting offsets from its current position.
+     */
+    public G6Reader(InputStream in) {
+        this.in = in;
+        buffer = new byte[1 << 16];
+        bufferPos = 0;
+        bufferLen = 0;
+        bufferStart = 0;
+
+        line = new char[256];
+        lineOffset = -1;
+        end = Long.MAX_VALUE;
+    }
+
+    /**
+     * Reads the next line without the line terminator (\n or \r\n).
+     *
+     * @return String The next g6code, or null at the end of input (or of the range).
+     */
+    public String readLine() throws IOException {
+        int length = 0;
+        lineOffset = bufferStart + bufferPos;
+        if (lineOffset >= end)
+            return null;                     // end of range
+
+        while (true) {
+            if (bufferPos == bufferLen && !fillBuffer()) {
+                if (length == 0)
+                    return null;             // end of input
+                break;                       // the last line has no terminator
+            }
+
+            byte b = buffer[bufferPos++];
+            if (b == '\n')
+                break;
+
+            if (length == line.length) {
+                char[] longer = new char[2*line.length];
+                System.arraycopy(line, 0, longer, 0, length);
+                line = longer;
+            }
+            line[length++] = (char) b;
+        }
+
+        if (length > 0 && line[length-1] == '\r')
+            length--;
+        return new String(line, 0, length);
+    }
+
+    /**
+     * Reads the next g6code and creates its graph.
+     *
+     * @return Graph The next graph, or null at the end of input (or of the range).
+     */
+    public Graph readGraph() throws IOException {
+        String g6code = readLine();
+        return (g6code == null) ? null : new Graph(g6code);
+    }
+
+    /**
+     * Offset of the first byte of the line last returned by readLine().
+     */
+    public long offset() {
+        return lineOffset;
+    }
+
+    /**
+     * Offset of the first byte that has not been read yet.
+     */
+    public long position() {
+        return bufferStart + bufferPos;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the next portion of the input into the buffer.
+     *
+     * @return boolean False if there are no more bytes in the input.
+     */
+    private boolean fillBuffer() throws IOException {
+        bufferStart += bufferLen;
+        bufferPos = 0;
+        bufferLen = 0;
+
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0)
+            return false;
+
+        bufferLen = read;
+        return true;
+    }
+
+    /**
+     * Reads the g6code starting at the given offset in a file.
+     */
+    public static String readCodeAt(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+
+        StringBuilder code = new StringBuilder();
+        byte[] block = new byte[256];
+        int read;
+        while ((read = file.read(block)) > 0)
+            for (int i=0; i<read; i++) {
+                if (block[i] == '\n')
+                    return code.toString();
+                if (block[i] != '\r')
+                    code.append((char) block[i]);
+            }
+        return code.toString();
+    }
+}
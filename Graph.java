@@ -11,10 +11,14 @@ import cern.colt.matrix.*;
 import cern.colt.matrix.impl.*;
 import cern.colt.matrix.linalg.*;
 import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.DoubleSupplier;
 
 public class Graph
 {
-    private int[] bits;         // Sequence of bits reconstructed from g6 code
+    private String g6code;      // g6 code from which the graph was constructed, if any
     private int n;              // number of vertices (order)
     private int m;              // number of edges (size)
     private int[] degree;       // degree sequence
@@ -28,46 +32,24 @@ public class Graph
     }
     
     /**
-     * Constructor of a graph from g6 code
+     * Constructor of a graph from g6 code, or from sparse6 code (see GraphCodec),
+     * whose edges are decoded directly into the adjacency matrix.
+     * digraph6 codes are accepted for symmetric digraphs only, and loops are not accepted at all.
      */
     public Graph(String s) {
-        n=s.charAt(0)-63;       // number of vertices is obtained from the first character of g6 code
-        int firsti=1;        
-        if (s.charAt(0)>=126) {
-            n=s.charAt(1)*4096 + s.charAt(2)*64 + s.charAt(3);
-            firsti=4;
+        int[][] A = GraphCodec.adjacency(s);
+        for (int i=0; i<A.length; i++) {
+            if (A[i][i] != 0)
+                throw new IllegalArgumentException("Graph " + s + " has a loop at vertex " + i);
+            if (GraphCodec.isDigraph6(s))
+                for (int j=0; j<i; j++)
+                    if (A[i][j] != A[j][i])
+                        throw new IllegalArgumentException("Digraph " + s + " is not symmetric");
         }
-        
-        int bindex = 0;         // transform g6 code characters into bit sequence
-        bits = new int[6*s.length()];
-        for (int i=firsti; i<s.length(); i++) {
-            int k = s.charAt(i)-63;
-            for (int j=0; j<=5; j++) {
-                bits[bindex+5-j] = k%2;
-                k = k/2;
-            }
-            bindex += 6;
-        }
-        
-        A = new int[n][n];        // initialize adjacency matrix, degree sequence and number of edges
-        degree = new int[n];      // indexing always starts at 0  
-        for (int i=0; i<n; i++)
-            degree[i] = 0;
-        m = 0;
-
-        bindex = 0;               // processes bit sequence to fill up adjacency matrix, degree sequence and number of edges
-        for (int j=1; j<n; j++)
-            for (int i=0; i<j; i++) {
-                A[i][j] = bits[bindex];
-                A[j][i] = bits[bindex];
 
-                degree[i] += bits[bindex];
-                degree[j] += bits[bindex];
-                
-                m += bits[bindex];
-                
-                bindex++;
-            }                    
+        if (GraphCodec.isPlainGraph6(s))
+            g6code=s;           // otherwise the g6 code is encoded when needed
+        initializeGraph(A);
     }
 
     /**
@@ -99,8 +81,69 @@ public class Graph
     }
     
     /** 
-     * Methods returning values of numbers of vertices, edges, degrees and adjacency matrix
+     * Methods returning g6 code of the graph (encoded from the adjacency matrix
+     * if the graph was not constructed from g6 code),
+     * values of numbers of vertices, edges, degrees and adjacency matrix
+     */
+    public String g6code() {
+        if (g6code == null && A != null)
+            g6code = encodeG6(A);
+        return g6code;
+    }
+
+    /**
+     * g6 code of the canonical form of the graph (see CanonicalLabeling),
+     * which is the same for all graphs isomorphic to it. Supports at most 64 vertices.
+     */
+    private String canonicalCode;
+
+    public String canonicalG6code() {
+        if (canonicalCode == null) {
+            long[] adj = new long[n];
+            for (int i=0; i<n; i++)
+                for (int j=0; j<n; j++)
+                    if (A[i][j]==1)
+                        adj[i] |= 1L << j;
+            canonicalCode = new CanonicalLabeling(adj, n).g6code();
+        }
+        return canonicalCode;
+    }
+
+    /**
+     * Encodes a graph given by its adjacency matrix as a g6 code:
+     * the number of vertices, followed by the upper triangle of the adjacency matrix
+     * column by column, six bits per character (see GraphCodec).
+     */
+    public static String encodeG6(int[][] A) {
+        return GraphCodec.encodeG6(A);
+    }
+
+    /**
+     * Encodes a graph with at most 64 vertices, given by adjacency bitsets, as a g6 code.
+     */
+    public static String encodeG6(long[] adj, int n) {
+        return GraphCodec.encodeG6(adj, n);
+    }
+
+    /**
+     * sparse6 code of the graph, which is much shorter than its g6 code for sparse graphs
+     * such as trees, and which nauty tools read as well.
      */
+    public String s6code() {
+        return GraphCodec.encodeS6(A);
+    }
+
+    /**
+     * Creates a graph with at most 64 vertices from its adjacency bitsets.
+     */
+    public static Graph fromBitsets(long[] adj, int n) {
+        int[][] A = new int[n][n];
+        for (int i=0; i<n; i++)
+            for (int j=0; j<n; j++)
+                A[i][j] = (int) ((adj[i] >>> j) & 1);
+        return new Graph(A);
+    }
+
     public int n() {
         return n;
     }
@@ -179,6 +222,16 @@ public class Graph
             
         DExists = true;
         D = new int[n][n];
+
+        byte[] distances = (cache == null || n > 255) ? null : cache.get("distances " + g6code());
+        if (distances != null) {                // upper triangle, row by row, a byte per distance
+            for (int i=0, k=0; i<n; i++)
+                for (int j=i+1; j<n; j++, k++) {
+                    D[i][j] = distances[k] & 0xFF;
+                    D[j][i] = D[i][j];
+                }
+            return D;
+        }
         
         for (int i=0; i<n; i++)          // initializes distance matrix
             for (int j=0; j<n; j++)
@@ -192,7 +245,14 @@ public class Graph
                 for (int j=0; j<n; j++)
                     if (D[i][j] > D[i][k] + D[k][j])
                         D[i][j] = D[i][k] + D[k][j];
-                        
+
+        if (cache != null && n <= 255) {
+            distances = new byte[n*(n-1)/2];
+            for (int i=0, k=0; i<n; i++)
+                for (int j=i+1; j<n; j++, k++)
+                    distances[k] = (byte) D[i][j];
+            cache.put("distances " + g6code(), distances);
+        }
         return D;
     }
     
@@ -279,12 +339,213 @@ public class Graph
         return eigenvector;
     }    
     
+    /**
+     * Persistent cache of spectra and distance matrices shared by all graphs (see InvariantCache),
+     * which is consulted by Aspectrum(), Lspectrum(), Qspectrum(), Dspectrum() and Dmatrix() before computing,
+     * under keys made of the name of the matrix and the g6 code of the graph. null if there is no cache.
+     */
+    private static InvariantCache cache = null;
+
+    public static void setCache(InvariantCache invariantCache) {
+        cache = invariantCache;
+    }
+
+    public static InvariantCache cache() {
+        return cache;
+    }
+
+    /**
+     * Sink that collects the drawings of saveDotFormat() in a single file (see DotSink),
+     * instead of writing a separate file for each drawing. null if there is no sink.
+     */
+    private static DotSink dotSink = null;
+
+    public static void setDotSink(DotSink sink) {
+        dotSink = sink;
+    }
+
+    public static DotSink dotSink() {
+        return dotSink;
+    }
+
+    private double[] cachedSpectrum(String matrix) {
+        return (cache == null) ? null : cache.getDoubles(matrix + " " + g6code());
+    }
+
+    private double[] cacheSpectrum(String matrix, double[] eigs) {
+        if (cache != null)
+            cache.putDoubles(matrix + " " + g6code(), eigs);
+        return eigs;
+    }
+
+    /**
+     * Value of an invariant from the cache, if there is one, or computed by the given function and stored in the cache,
+     * e.g., g.cachedValue("dshi", g::dshi) for invariants that are expensive even when spectra are cached.
+     * The name, which must not contain spaces, distinguishes the invariant from others in the cache.
+     */
+    public double cachedValue(String name, DoubleSupplier invariant) {
+        double[] value = cachedSpectrum(name);
+        if (value != null)
+            return value[0];
+        return cacheSpectrum(name, new double[] { invariant.getAsDouble() })[0];
+    }
+
+    /**
+     * Forests are handled by TreeSpectrum, which answers nullity, integrality and Fiedler vector queries
+     * in O(n) time each instead of decomposing a dense matrix.
+     * Full spectra of forests are computed by TreeSpectrum only from TREE_SPECTRUM_ORDER vertices on,
+     * since for smaller forests the bisection of each eigenvalue is slower than a dense decomposition.
+     */
+    public static final int TREE_SPECTRUM_ORDER = 100;
+
+    private int acyclic = -1;           // 1 if the graph is a forest, 0 if not, -1 if not known yet
+    private TreeSpectrum Atree, Ltree;
+
+    /**
+     * Is the graph acyclic, i.e., a forest? It is if m = n - number of components.
+     */
+    public boolean isForest() {
+        if (acyclic == -1) {
+            int[] root = new int[n];                // union-find forest of components
+            for (int v=0; v<n; v++)
+                root[v] = v;
+
+            int components = n;
+            for (int i=0; i<n; i++)
+                for (int j=0; j<i; j++)
+                    if (A[i][j]==1) {
+                        int a = i, b = j;
+                        while (root[a] != a)
+                            a = root[a] = root[root[a]];
+                        while (root[b] != b)
+                            b = root[b] = root[root[b]];
+                        if (a != b) {
+                            root[a] = b;
+                            components--;
+                        }
+                    }
+
+            acyclic = (m == n - components) ? 1 : 0;
+        }
+        return acyclic == 1;
+    }
+
+    /**
+     * Is the graph a tree, i.e., a connected forest?
+     */
+    public boolean isTree() {
+        return isForest() && m == n-1;
+    }
+
+    private TreeSpectrum Atree() {
+        if (Atree == null)
+            Atree = new TreeSpectrum(A, false);
+        return Atree;
+    }
+
+    private TreeSpectrum Ltree() {
+        if (Ltree == null)
+            Ltree = new TreeSpectrum(A, true);
+        return Ltree;
+    }
+
+    /**
+     * Connected components, found by breadth-first search over adjacency bitsets,
+     * in which each layer is obtained at once as the union of the neighbourhoods of the previous layer.
+     * components()[v] is the index of the component of v, with components numbered in the order of their first vertices.
+     */
+    private int[] component;
+    private int componentCount;
+    private Graph[] componentGraphs;
+
+    public int[] components() {
+        if (component != null)
+            return component;
+
+        BitSet[] rows = new BitSet[n];
+        for (int v=0; v<n; v++) {
+            rows[v] = new BitSet(n);
+            for (int u=0; u<n; u++)
+                if (A[v][u]==1)
+                    rows[v].set(u);
+        }
+
+        component = new int[n];
+        BitSet unvisited = new BitSet(n);
+        unvisited.set(0, n);
+        for (int root=unvisited.nextSetBit(0); root>=0; root=unvisited.nextSetBit(0)) {
+            BitSet layer = new BitSet(n);
+            layer.set(root);
+            unvisited.clear(root);
+            while (!layer.isEmpty()) {
+                BitSet next = new BitSet(n);
+                for (int v=layer.nextSetBit(0); v>=0; v=layer.nextSetBit(v+1)) {
+                    component[v] = componentCount;
+                    next.or(rows[v]);
+                }
+                next.and(unvisited);
+                unvisited.andNot(next);
+                layer = next;
+            }
+            componentCount++;
+        }
+
+        return component;
+    }
+
+    public boolean isConnected() {
+        components();
+        return componentCount <= 1;
+    }
+
+    /**
+     * Subgraphs induced by the connected components, in the order of components(),
+     * each with its vertices in increasing order.
+     */
+    public Graph[] componentGraphs() {
+        if (componentGraphs != null)
+            return componentGraphs;
+
+        components();
+        int[] size = new int[componentCount];
+        int[] index = new int[n];               // index of a vertex within its component
+        for (int v=0; v<n; v++)
+            index[v] = size[component[v]]++;
+
+        int[][][] blocks = new int[componentCount][][];
+        for (int c=0; c<componentCount; c++)
+            blocks[c] = new int[size[c]][size[c]];
+        for (int i=0; i<n; i++)
+            for (int j=0; j<i; j++)
+                if (A[i][j]==1) {
+                    int[][] block = blocks[component[i]];
+                    block[index[i]][index[j]] = 1;
+                    block[index[j]][index[i]] = 1;
+                }
+
+        componentGraphs = new Graph[componentCount];
+        for (int c=0; c<componentCount; c++)
+            componentGraphs[c] = new Graph(blocks[c]);
+        return componentGraphs;
+    }
+
     /** 
      * Adjacency spectrum and eigenvectors
      * Aspectrum()[0] is the smallest, Aspectrum()[n-1] is the largest eigenvalue
+     * Spectra of disconnected graphs, here and for L and Q, are merged from the spectra of components (see ComponentSpectra).
      */
     public double[] Aspectrum() {
-        return Graph.spectrum(A);
+        double[] eigs = cachedSpectrum("A");
+        if (eigs != null)
+            return eigs;
+
+        if (!isConnected())
+            eigs = ComponentSpectra.spectrum(this, "A", Graph::Aspectrum);
+        else if (n >= TREE_SPECTRUM_ORDER && isForest())
+            eigs = Atree().spectrum();
+        else
+            eigs = Graph.spectrum(A);
+        return cacheSpectrum("A", eigs);
     }
     
     public double[][] Aeigenvectors() {
@@ -296,8 +557,19 @@ public class Graph
      * Lspectrum()[0] is the smallest, Lspectrum()[n-1] is the largest eigenvalue
      */
     public double[] Lspectrum() {
-        Lmatrix();
-        return Graph.spectrum(L);
+        double[] eigs = cachedSpectrum("L");
+        if (eigs != null)
+            return eigs;
+
+        if (!isConnected())
+            eigs = ComponentSpectra.spectrum(this, "L", Graph::Lspectrum);
+        else if (n >= TREE_SPECTRUM_ORDER && isForest())
+            eigs = Ltree().spectrum();
+        else {
+            Lmatrix();
+            eigs = Graph.spectrum(L);
+        }
+        return cacheSpectrum("L", eigs);
     }
     
     public double[][] Leigenvectors() {
@@ -305,7 +577,19 @@ public class Graph
         return Graph.eigenvectors(L);
     }
     
+    /**
+     * Fiedler vector: an eigenvector of the second smallest Laplacian eigenvalue.
+     * For trees it is found by TreeSpectrum, or if that is not accurate enough,
+     * from the quotient of twin classes, which trees with several leaves at a vertex have.
+     */
     public double[] fiedlerVector() {
+        if (isTree() && n >= 2) {
+            double[] fv = Ltree().eigenvector(1);
+            if (fv != null)
+                return fv;
+            Lmatrix();
+            return Graph.extractColumn(twinEigenvectors(L), 1);
+        }
         return Graph.extractColumn(Leigenvectors(), 1);
     }
     
@@ -314,8 +598,17 @@ public class Graph
      * Qspectrum()[0] is the smallest, Qspectrum()[n-1] is the largest eigenvalue
      */
     public double[] Qspectrum() {
-        Qmatrix();
-        return Graph.spectrum(Q);
+        double[] eigs = cachedSpectrum("Q");
+        if (eigs != null)
+            return eigs;
+
+        if (!isConnected())
+            eigs = ComponentSpectra.spectrum(this, "Q", Graph::Qspectrum);
+        else {
+            Qmatrix();
+            eigs = Graph.spectrum(Q);
+        }
+        return cacheSpectrum("Q", eigs);
     }
     
     public double[][] Qeigenvectors() {
@@ -328,8 +621,12 @@ public class Graph
      * Dspectrum()[0] is the smallest, Dspectrum()[n-1] is the largest eigenvalue
      */
     public double[] Dspectrum() {
+        double[] eigs = cachedSpectrum("D");
+        if (eigs != null)
+            return eigs;
+
         Dmatrix();
-        return Graph.spectrum(D);
+        return cacheSpectrum("D", Graph.spectrum(D));
     }
 
     public double[][] Deigenvectors() {
@@ -350,6 +647,300 @@ public class Graph
         Mmatrix();
         return Graph.eigenvectors(M);
     }
+
+    /**
+     * Twin classes: vertices u and v are twins if they have the same neighbours apart from each other,
+     * i.e., if they are nonadjacent with equal neighbourhoods (false twins)
+     * or adjacent with equal closed neighbourhoods (true twins).
+     * twinClasses()[v] is the index of the class of v, with classes numbered in the order of their first vertices.
+     * Neighbourhoods are hashed as bitsets, so that the classes are found in time linear in the size of A.
+     */
+    private int[] twins;
+    private int twinCount;
+
+    public int[] twinClasses() {
+        if (twins != null)
+            return twins;
+
+        twins = new int[n];
+        HashMap<BitSet, Integer> open = new HashMap<BitSet, Integer>();
+        HashMap<BitSet, Integer> closed = new HashMap<BitSet, Integer>();
+        for (int v=0; v<n; v++) {
+            BitSet neighbours = new BitSet(n);
+            for (int u=0; u<n; u++)
+                if (A[v][u]==1)
+                    neighbours.set(u);
+            BitSet closedNeighbours = (BitSet) neighbours.clone();
+            closedNeighbours.set(v);
+
+            Integer c = open.get(neighbours);                 // a false twin of an earlier vertex?
+            if (c == null)
+                c = closed.get(closedNeighbours);             // a true twin?
+            if (c == null) {
+                c = twinCount++;
+                open.put(neighbours, c);
+                closed.put(closedNeighbours, c);
+            }
+            twins[v] = c;
+        }
+
+        return twins;
+    }
+
+    /**
+     * The coarsest equitable partition of vertices, in which the vertices of each cell
+     * have the same number of neighbours in each cell. It is found by colour refinement
+     * over adjacency lists, as in nauty: cells are kept as ranges of an array of vertices,
+     * and the neighbours of each splitter cell from a queue are counted, after which every cell
+     * with counted vertices is split by the counts. New cells are queued as splitters,
+     * except the largest part of a split cell that is not queued already, which is implied by the others,
+     * so that refinement takes O(m log n) time apart from sorting the counted vertices.
+     * equitablePartition()[v] is the index of the cell of v, with cells indexed in the order of their first vertices.
+     * Eigenvalues of Graph.quotientMatrix(Amatrix(), equitablePartition()) are the eigenvalues of A
+     * with eigenvectors constant on cells, which include the spectral radius.
+     */
+    public int[] equitablePartition() {
+        int[][] neighbours = new int[n][];
+        for (int v=0; v<n; v++) {
+            neighbours[v] = new int[degree[v]];
+            for (int u=0, k=0; u<n; u++)
+                if (A[v][u]==1)
+                    neighbours[v][k++] = u;
+        }
+
+        int[] lab = new int[n];             // vertices, cell by cell
+        int[] pos = new int[n];             // position of each vertex in lab
+        int[] cell = new int[n];            // cell of each vertex
+        int[] cellStart = new int[n+1];     // cell c consists of lab[cellStart[c]], ..., lab[cellEnd[c]-1]
+        int[] cellEnd = new int[n+1];
+        for (int v=0; v<n; v++) {
+            lab[v] = v;
+            pos[v] = v;
+        }
+        int cells = (n > 0) ? 1 : 0;
+        cellEnd[0] = n;
+
+        int[] queue = new int[n+1];         // splitter cells, in a ring buffer
+        boolean[] queued = new boolean[n+1];
+        int head = 0, tail = 0;
+        if (n > 0) {
+            queue[tail++] = 0;
+            queued[0] = true;
+        }
+
+        int[] count = new int[n];           // neighbours of each vertex in the splitter
+        int[] touched = new int[n];         // vertices with count > 0, within the touched region of their cell
+        int[] touchedInCell = new int[n];   // touched vertices of each cell, kept at its end
+        int[] touchedCells = new int[n];
+        long[] keys = new long[n];
+
+        while (head != tail) {
+            int splitter = queue[head];
+            head = (head+1) % queue.length;
+            queued[splitter] = false;
+
+            int touchedCount = 0, touchedCellCount = 0;
+            for (int i=cellStart[splitter]; i<cellEnd[splitter]; i++)
+                for (int u : neighbours[lab[i]])
+                    if (count[u]++ == 0) {
+                        touched[touchedCount++] = u;
+                        int c = cell[u];
+                        if (touchedInCell[c]++ == 0)
+                            touchedCells[touchedCellCount++] = c;
+                        int p = cellEnd[c] - touchedInCell[c];   // move u to the touched region at the end of its cell
+                        int w = lab[p];
+                        lab[p] = u;
+                        lab[pos[u]] = w;
+                        pos[w] = pos[u];
+                        pos[u] = p;
+                    }
+
+            for (int t=0; t<touchedCellCount; t++) {
+                int c = touchedCells[t];
+                int start = cellStart[c], end = cellEnd[c];
+                int from = end - touchedInCell[c];
+                touchedInCell[c] = 0;
+
+                for (int i=from; i<end; i++)                    // sort touched vertices by their counts
+                    keys[i-from] = ((long) count[lab[i]] << 32) | lab[i];
+                Arrays.sort(keys, 0, end-from);
+                for (int i=from; i<end; i++) {
+                    lab[i] = (int) keys[i-from];
+                    pos[lab[i]] = i;
+                }
+
+                // split c into the untouched vertices, if any, and runs of touched vertices with equal counts
+                int largest = c, largestSize = 0, firstNew = cells;
+                int partStart = start;
+                for (int i = (from > start) ? from : from+1; i <= end; i++) {
+                    if (i < end && i > from && count[lab[i]] == count[lab[i-1]])
+                        continue;
+                    int part = (partStart == start) ? c : cells++;
+                    cellStart[part] = partStart;
+                    cellEnd[part] = i;
+                    for (int j=partStart; j<i; j++)
+                        cell[lab[j]] = part;
+                    if (i - partStart > largestSize) {
+                        largest = part;
+                        largestSize = i - partStart;
+                    }
+                    partStart = i;
+                }
+
+                if (cells == firstNew)                          // c was not split
+                    continue;
+                boolean wasQueued = queued[c];                  // then all its parts are splitters anyway
+                for (int part = wasQueued ? firstNew : c; part < cells; part = (part == c) ? firstNew : part+1)
+                    if (part != largest || wasQueued) {
+                        queue[tail] = part;
+                        tail = (tail+1) % queue.length;
+                        queued[part] = true;
+                    }
+            }
+
+            for (int i=0; i<touchedCount; i++)
+                count[touched[i]] = 0;
+        }
+
+        int[] index = new int[cells];                           // index cells in the order of their first vertices
+        Arrays.fill(index, -1);
+        int indexed = 0;
+        int[] result = new int[n];
+        for (int v=0; v<n; v++) {
+            if (index[cell[v]] == -1)
+                index[cell[v]] = indexed++;
+            result[v] = index[cell[v]];
+        }
+        return result;
+    }
+
+    /**
+     * Symmetric quotient matrix of a matrix with respect to a partition of vertices that is equitable for it,
+     * i.e., the sum b[C][D] of entries mat[u][w] over w in cell D is the same for all u in cell C.
+     * Its entries are b[C][D] sqrt(|C|/|D|), so that it is similar to the quotient matrix b,
+     * and its eigenvalues are the eigenvalues of mat with eigenvectors constant on cells.
+     */
+    public static double[][] quotientMatrix(double[][] dmat, int[] cells) {
+        int count = 0;
+        for (int v=0; v<cells.length; v++)
+            count = Math.max(count, cells[v]+1);
+
+        int[] size = new int[count];
+        int[] representative = new int[count];
+        for (int v=cells.length-1; v>=0; v--) {
+            size[cells[v]]++;
+            representative[cells[v]] = v;
+        }
+
+        double[][] quotient = new double[count][count];
+        for (int c=0; c<count; c++) {
+            int u = representative[c];
+            for (int w=0; w<cells.length; w++)
+                quotient[c][cells[w]] += dmat[u][w];
+        }
+        for (int c=0; c<count; c++)
+            for (int d=0; d<count; d++)
+                quotient[c][d] *= Math.sqrt((double) size[c] / size[d]);
+
+        return quotient;
+    }
+
+    public static double[][] quotientMatrix(int[][] mat, int[] cells) {
+        int dim = mat.length;
+        double[][] dmat = new double[dim][dim];
+        for (int i=0; i<dim; i++)
+            for (int j=0; j<dim; j++)
+                dmat[i][j] = (double) mat[i][j];
+
+        return Graph.quotientMatrix(dmat, cells);
+    }
+
+    /**
+     * Spectrum and eigenvectors of a matrix of this graph, such as Amatrix(), Lmatrix(), Qmatrix() or Dmatrix(),
+     * computed from the quotient matrix of twin classes, so that only a matrix of order equal
+     * to the number of twin classes is decomposed (e.g., a+1 instead of a+b for brooms).
+     * The matrix has to be constant on the blocks of twin classes, as all of the above are.
+     * A twin class of size k with diagonal entry d and entry x between its members
+     * contributes the eigenvalue d-x with multiplicity k-1, with eigenvectors that sum to zero on the class
+     * and vanish elsewhere (e.g., 0 or -1 for A, degree or degree+1 for L, degree or degree-1 for Q),
+     * while the remaining eigenvalues are those of the quotient matrix, with eigenvectors constant on classes.
+     * twinSpectrum(mat)[0] is the smallest, twinSpectrum(mat)[n-1] is the largest eigenvalue,
+     * and eigenvectors are returned in columns in the same order.
+     */
+    public double[] twinSpectrum(int[][] mat) {
+        return twinDecomposition(mat, null);
+    }
+
+    public double[][] twinEigenvectors(int[][] mat) {
+        double[][] eigenvectors = new double[n][n];
+        twinDecomposition(mat, eigenvectors);
+        return eigenvectors;
+    }
+
+    /**
+     * Computes the eigenvalues of mat from its twin quotient, and the eigenvectors as well if eigenvectors is not null.
+     */
+    private double[] twinDecomposition(int[][] mat, double[][] eigenvectors) {
+        int[] cls = twinClasses();
+
+        int[][] members = new int[twinCount][];
+        int[] size = new int[twinCount];
+        for (int v=0; v<n; v++)
+            size[cls[v]]++;
+        for (int c=0; c<twinCount; c++)
+            members[c] = new int[size[c]];
+        int[] filled = new int[twinCount];
+        for (int v=0; v<n; v++)
+            members[cls[v]][filled[cls[v]]++] = v;
+
+        EigenvalueDecomposition decomposition =
+            new EigenvalueDecomposition(new DenseDoubleMatrix2D(Graph.quotientMatrix(mat, cls)));
+        double[] quotientValues = decomposition.getRealEigenvalues().toArray();
+
+        // All eigenvalues: those of the quotient first, then k-1 copies of d-x for each class
+        double[] values = new double[n];
+        int[] source = new int[n];              // index of quotient eigenvalue, or -1-c for class c
+        int count = 0;
+        for (int j=0; j<twinCount; j++) {
+            values[count] = quotientValues[j];
+            source[count++] = j;
+        }
+        for (int c=0; c<twinCount; c++)
+            for (int j=1; j<size[c]; j++) {
+                values[count] = mat[members[c][0]][members[c][0]] - mat[members[c][0]][members[c][1]];
+                source[count++] = -1-c;
+            }
+
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        double[] spectrum = new double[n];
+        for (int i=0; i<n; i++)
+            spectrum[i] = values[order[i]];
+        if (eigenvectors == null)
+            return spectrum;
+
+        DoubleMatrix2D quotientVectors = decomposition.getV();
+        int[] used = new int[twinCount];        // eigenvectors of each class used so far
+        for (int i=0; i<n; i++) {
+            int s = source[order[i]];
+            if (s >= 0)                         // constant on classes, scaled to unit length
+                for (int v=0; v<n; v++)
+                    eigenvectors[v][i] = quotientVectors.get(cls[v], s) / Math.sqrt(size[cls[v]]);
+            else {                              // the next Helmert vector of the class
+                int c = -1-s;
+                int j = ++used[c];
+                double scale = Math.sqrt((double) j*(j+1));
+                for (int t=0; t<j; t++)
+                    eigenvectors[members[c][t]][i] = 1/scale;
+                eigenvectors[members[c][j]][i] = -j/scale;
+            }
+        }
+
+        return spectrum;
+    }
     
     /** 
      * Checks whether two graphs have the same adjacency spectrum
@@ -422,6 +1013,8 @@ public class Graph
      * Is adjacency spectrum integral?
      */
     public boolean Aintegral() {
+        if (isForest())
+            return Atree().integral();
         return Graph.integralSpectrum(A);
     }
     
@@ -429,10 +1022,27 @@ public class Graph
      * Is Laplacian spectrum integral?
      */
     public boolean Lintegral() {
+        if (isForest())
+            return Ltree().integral();
         Lmatrix();
         return Graph.integralSpectrum(L);
     }
     
+    /**
+     * Nullity: the number of adjacency eigenvalues equal to 0 (up to DoubleUtil.DOUBLE_EQUALITY_THRESHOLD)
+     */
+    public int nullity() {
+        if (isForest())
+            return Atree().nullity();
+
+        double[] eigs = Aspectrum();
+        int nullity = 0;
+        for (int i=0; i<n; i++)
+            if (DoubleUtil.equals(eigs[i], 0.0))
+                nullity++;
+        return nullity;
+    }
+
     /** 
      * Is signless Laplacian spectrum integral?
      */
@@ -698,17 +1308,7 @@ public class Graph
      * and character at position 2 is put at the end of a matrix (think of "[,]").
      */
     public static String printVector(int[] vec, String delims) {
-        StringBuffer buf = new StringBuffer("");
-        
-        buf.append(delims.charAt(0));
-        for (int i=0; i<vec.length; i++) {
-            buf.append("" + vec[i]);
-            if (i!=vec.length-1)    // was it the last entry?
-                buf.append(delims.charAt(1) + " ");
-        }
-        buf.append(delims.charAt(2));
-        
-        return buf.toString();
+        return ResultWriter.format(out -> out.printVector(vec, delims));
     }
 
     public static String printVector(int[] vec) {
@@ -716,25 +1316,7 @@ public class Graph
     }
     
     public static String printMatrix(int[][] mat, String delims) {
-        StringBuffer buf = new StringBuffer("");
-
-        buf.append(delims.charAt(0));
-        for (int i=0; i<mat.length; i++) {
-            buf.append(delims.charAt(0));
-            for (int j=0; j<mat[i].length; j++) {
-                buf.append("" + mat[i][j]);
-                
-                if (j!=mat[i].length-1)         // was it the last column?
-                    buf.append(delims.charAt(1) + " ");
-            }
-            buf.append(delims.charAt(2));
-
-            if (i!=mat.length-1)                // was it the last row?
-                buf.append(delims.charAt(1) + " ");
-        }
-        buf.append(delims.charAt(2));
-        
-        return buf.toString();
+        return ResultWriter.format(out -> out.printMatrix(mat, delims));
     }
 
     public static String printMatrix(int[][] mat) {
@@ -745,17 +1327,7 @@ public class Graph
      * Returns multiline string representing double vector or double matrix
      */
     public static String printVector(double[] vec, String delims) {
-        StringBuffer buf = new StringBuffer("");
-        
-        buf.append(delims.charAt(0));
-        for (int i=0; i<vec.length; i++) {
-            buf.append("" + vec[i]);
-            if (i!=vec.length-1)    // was it the last entry?
-                buf.append(delims.charAt(1) + " ");
-        }
-        buf.append(delims.charAt(2));
-        
-        return buf.toString();
+        return ResultWriter.format(out -> out.printVector(vec, delims));
     }
 
     public static String printVector(double[] vec) {
@@ -763,25 +1335,7 @@ public class Graph
     }
 
     public static String printMatrix(double[][] dmat, String delims) {
-        StringBuffer buf = new StringBuffer("");
-
-        buf.append(delims.charAt(0));
-        for (int i=0; i<dmat.length; i++) {
-            buf.append(delims.charAt(0));
-            for (int j=0; j<dmat[i].length; j++) {
-                buf.append("" + dmat[i][j]);
-                
-                if (j!=dmat[i].length-1)         // was it the last column?
-                    buf.append(delims.charAt(1) + " ");
-            }
-            buf.append(delims.charAt(2));
-
-            if (i!=dmat.length-1)               // was it the last row?
-                buf.append(delims.charAt(1) + " ");
-        }
-        buf.append(delims.charAt(2));
-        
-        return buf.toString();
+        return ResultWriter.format(out -> out.printMatrix(dmat, delims));
     }
 
     public static String printMatrix(double[][] dmat) {
@@ -831,20 +1385,17 @@ public class Graph
      * Returns string containing list of edges
      */
     public String printEdgeList() {
-        StringBuffer buf = null;
-
-        for (int i=0; i<n; i++)
-            for (int j=i+1; j<n; j++)
-                if (A[i][j]==1) {
-                    if (buf == null) {
-                        buf = new StringBuffer("");
+        return ResultWriter.format(out -> {
+            boolean first = true;
+            for (int i=0; i<n; i++)
+                for (int j=i+1; j<n; j++)
+                    if (A[i][j]==1) {
+                        if (!first)
+                            out.print(", ");
+                        out.print(i).print(' ').print(j);
+                        first = false;
                     }
-                    else
-                        buf.append(", ");
-                    buf.append("" + i + " " + j);
-                }
-        
-        return buf.toString();
+        });
     }
     
     /**
@@ -852,18 +1403,7 @@ public class Graph
      * needed for visualisation with Graphviz.
      */
     public String printDotFormat() {
-        StringBuffer buf = new StringBuffer("Graph {\n");
-        
-        for (int i=0; i<n; i++)
-            buf.append("" + i + " [shape=circle]\n");
-            
-        for (int i=0; i<n; i++)
-            for (int j=i+1; j<n; j++)
-                if (A[i][j]==1)
-                    buf.append("" + i + " -- " + j + "\n");
-        
-        buf.append("}\n");
-        return buf.toString();
+        return ResultWriter.format(out -> writeDotFormat(out, null));
     }
         
     /**
@@ -873,37 +1413,48 @@ public class Graph
      * and visualised by Graphviz in the same image next to the graph itself.
      */
     public String printDotFormat(String data) {
-        StringBuffer buf = new StringBuffer("Graph {\n");
+        return ResultWriter.format(out -> writeDotFormat(out, data));
+    }
 
+    /**
+     * Writes the .dot format description of a graph, with the data vertex unless data is null
+     */
+    public void writeDotFormat(ResultWriter out, String data) throws IOException {
+        out.print("Graph {\n");
         for (int i=0; i<n; i++)
-            buf.append("" + i + " [shape=circle]\n");
+            out.print(i).print(" [shape=circle]\n");
             
         for (int i=0; i<n; i++)
             for (int j=i+1; j<n; j++)
                 if (A[i][j]==1)
-                    buf.append("" + i + " -- " + j + "\n");
+                    out.print(i).print(" -- ").print(j).print('\n');
         
-        buf.append("data [shape=box, label=\"" + data + "\"]\n");            
-        buf.append("}\n");
-        return buf.toString();        
+        if (data != null)
+            out.print("data [shape=box, label=\"").print(data).print("\"]\n");
+        out.print("}\n");
     }
     
     /** 
      * Writes the .dot format description of a graph to the file
      */
     public void saveDotFormat(String filename) throws IOException {
-        PrintWriter outfile = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
-        outfile.println(printDotFormat());
-        outfile.close();
+        saveDotFormat(filename, null);
     }
     
     /**
      * Writes the .dot format description of a graph to the file,
-     * together with additional data placed as a label of a separate isolated vertex
+     * together with additional data placed as a label of a separate isolated vertex.
+     * If a DotSink is set, the description is passed to the sink under the name of the file instead.
      */
     public void saveDotFormat(String filename, String data) throws IOException {
-        PrintWriter outfile = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
-        outfile.println(printDotFormat(data));
+        if (dotSink != null) {
+            dotSink.add(filename, this, data);
+            return;
+        }
+
+        ResultWriter outfile = new ResultWriter(new FileOutputStream(filename), 4096);
+        writeDotFormat(outfile, data);
+        outfile.println();
         outfile.close();
     }
 }
\ No newline at end of file
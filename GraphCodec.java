@@ -0,0 +1,416 @@
+/**
+ * GraphCodec.java
+ *
+ * Decoders and encoders of the graph formats of nauty (see formats.txt in its distribution):
+ * - graph6 (g6): the order, followed by the upper triangle of the adjacency matrix column by column,
+ *   six bits per character, which suits dense graphs;
+ * - sparse6 (s6): ':', the order and a sequence of edges, each given by a bit that may increment
+ *   the current vertex v and by the index x of a vertex, which becomes the new v if x>v
+ *   and otherwise forms the edge {x, v}, so that a graph with m edges takes O(m log n) bits;
+ * - digraph6 (d6): '&', the order and the whole adjacency matrix row by row.
+ * Codes may start with the optional headers >>graph6<<, >>sparse6<< or >>digraph6<<.
+ *
+ * Decoders read the bits of a code one character at a time and pass the edges to an EdgeConsumer
+ * as soon as they are found, so that they build an adjacency matrix, bitsets or any sparse structure
+ * directly, without expanding the code into an array of bits first.
+ * Encoders pack bits into characters as they go, writing whole runs of bits of a bitset at once.
+ *
+ * From the command line, a file of codes in any of these formats is converted to g6 or s6:
+ *     java GraphCodec s6 trees20.g6 trees20.s6
+ * Digraphs cannot be converted, and graphs with loops can be converted only to s6.
+ */
+import java.io.*;
+
+public class GraphCodec {
+    private static final String[] HEADERS = { ">>graph6<<", ">>sparse6<<", ">>digraph6<<" };
+    private static final int MAX_SHORT_ORDER = 62;             // orders encoded in a single character
+    private static final int MAX_MEDIUM_ORDER = 258047;        // orders encoded in four characters
+
+    /**
+     * Receives the edges of a decoded graph: {i, j} of a graph, or the arc i->j of a digraph.
+     */
+    public interface EdgeConsumer {
+        void edge(int i, int j);
+    }
+
+    // Tells whether two vertices are adjacent, for the encoders
+    private interface Adjacency {
+        boolean adjacent(int i, int j);
+    }
+
+    public static boolean isSparse6(String code) {
+        int p = start(code);
+        return p < code.length() && code.charAt(p) == ':';
+    }
+
+    public static boolean isDigraph6(String code) {
+        int p = start(code);
+        return p < code.length() && code.charAt(p) == '&';
+    }
+
+    /**
+     * Is the code a graph6 code without a header, i.e., exactly what encodeG6() produces?
+     */
+    public static boolean isPlainGraph6(String code) {
+        return code.length() > 0 && code.charAt(0) >= 63 && code.charAt(0) <= 126;
+    }
+
+    /**
+     * Number of vertices of the graph of a code in any of the formats.
+     */
+    public static int order(String code) {
+        int p = start(code);
+        if (p < code.length() && (code.charAt(p) == ':' || code.charAt(p) == '&'))
+            p++;
+        return orderAt(code, p);
+    }
+
+    /**
+     * Decodes the code, passing each edge of the graph (or each arc of the digraph) to the consumer.
+     * Edges of a graph are passed as {i, j} with i<j for g6, and with i<=j for s6, which allows loops.
+     * s6 also allows multiple edges, which are then passed several times.
+     */
+    public static void decode(String code, EdgeConsumer edges) {
+        int p = start(code);
+        if (p >= code.length())
+            throw new IllegalArgumentException("Empty graph code");
+        char format = code.charAt(p);
+        if (format == ';')
+            throw new IllegalArgumentException("Incremental sparse6 codes are not supported: " + code);
+        if (format == ':' || format == '&')
+            p++;
+
+        int n = orderAt(code, p);
+        p += orderLength(n);
+        if (format == ':')
+            decodeSparse6(code, p, n, edges);
+        else {
+            long bits = (format == '&') ? (long) n*n : (long) n*(n-1)/2;
+            if ((code.length() - p) * 6L < bits)
+                throw new IllegalArgumentException("Graph code is too short for " + n + " vertices: " + code);
+
+            int x = 0, k = 0;                   // the current character and the number of its unread bits
+            if (format == '&') {
+                for (int i=0; i<n; i++)
+                    for (int j=0; j<n; j++) {
+                        if (k == 0) {
+                            x = code.charAt(p++) - 63;
+                            k = 6;
+                        }
+                        if (((x >>> --k) & 1) != 0)
+                            edges.edge(i, j);
+                    }
+            }
+            else
+                for (int j=1; j<n; j++)
+                    for (int i=0; i<j; i++) {
+                        if (k == 0) {
+                            x = code.charAt(p++) - 63;
+                            k = 6;
+                        }
+                        if (((x >>> --k) & 1) != 0)
+                            edges.edge(i, j);
+                    }
+        }
+    }
+
+    // Decodes the sparse6 edge list starting at position p, as stringtograph() of nauty does
+    private static void decodeSparse6(String code, int p, int n, EdgeConsumer edges) {
+        int nb = bitLength(n-1);                // bits of a vertex index
+        int length = code.length();
+        int x = 0, k = 0;
+        int v = 0;
+
+        while (true) {
+            if (k == 0) {
+                if (p >= length)
+                    return;
+                x = code.charAt(p++) - 63;
+                k = 6;
+            }
+            if (((x >>> --k) & 1) != 0)
+                v++;
+
+            int j = 0;
+            for (int need=nb; need>0; ) {
+                if (k == 0) {
+                    if (p >= length)
+                        return;
+                    x = code.charAt(p++) - 63;
+                    k = 6;
+                }
+                int take = Math.min(need, k);
+                k -= take;
+                need -= take;
+                j = (j << take) | ((x >>> k) & ((1 << take) - 1));
+            }
+
+            if (j > v)
+                v = j;
+            else if (v < n)
+                edges.edge(j, v);
+        }
+    }
+
+    /**
+     * Adjacency matrix of the graph of a code in any of the formats.
+     * Loops are put on the diagonal, and the matrix of a digraph need not be symmetric.
+     */
+    public static int[][] adjacency(String code) {
+        int n = order(code);
+        int[][] A = new int[n][n];
+        if (isDigraph6(code))
+            decode(code, (i, j) -> A[i][j] = 1);
+        else
+            decode(code, (i, j) -> {
+                A[i][j] = 1;
+                A[j][i] = 1;
+            });
+        return A;
+    }
+
+    /**
+     * Adjacency bitsets of the graph of a code, as in Graph.fromBitsets(). Supports at most 64 vertices.
+     */
+    public static long[] bitsets(String code) {
+        int n = order(code);
+        if (n > 64)
+            throw new IllegalArgumentException("Bitsets support at most 64 vertices instead of " + n);
+        long[] adj = new long[n];
+        if (isDigraph6(code))
+            decode(code, (i, j) -> adj[i] |= 1L << j);
+        else
+            decode(code, (i, j) -> {
+                adj[i] |= 1L << j;
+                adj[j] |= 1L << i;
+            });
+        return adj;
+    }
+
+    /**
+     * graph6 code of a graph given by its adjacency matrix.
+     */
+    public static String encodeG6(int[][] A) {
+        int n = A.length;
+        Packer out = new Packer(orderLength(n) + (int) (((long) n*(n-1)/2 + 5) / 6));
+        out.putOrder(n);
+        for (int j=1; j<n; j++)
+            for (int i=0; i<j; i++)
+                out.put(A[i][j], 1);
+        out.pad(0);
+        return out.toString();
+    }
+
+    /**
+     * graph6 code of a graph with at most 64 vertices, given by its adjacency bitsets.
+     */
+    public static String encodeG6(long[] adj, int n) {
+        Packer out = new Packer(orderLength(n) + (n*(n-1)/2 + 5) / 6);
+        out.putOrder(n);
+        for (int j=1; j<n; j++)                 // the column j above the diagonal is row j below it, reversed
+            out.put(Long.reverse(adj[j]) >>> (64-j), j);
+        out.pad(0);
+        return out.toString();
+    }
+
+    /**
+     * sparse6 code of a graph given by its adjacency matrix, with loops on the diagonal if there are any.
+     */
+    public static String encodeS6(int[][] A) {
+        return encodeS6(A.length, (i, j) -> A[i][j] != 0);
+    }
+
+    /**
+     * sparse6 code of a graph with at most 64 vertices, given by its adjacency bitsets.
+     */
+    public static String encodeS6(long[] adj, int n) {
+        return encodeS6(n, (i, j) -> ((adj[i] >>> j) & 1) != 0);
+    }
+
+    // Encodes the edges {i, j} with i<=j ordered by j and then by i, as ntos6() of nauty does
+    private static String encodeS6(int n, Adjacency adj) {
+        int nb = bitLength(n-1);
+        Packer out = new Packer(16);
+        out.putChar(':');
+        out.putOrder(n);
+
+        int lastj = 0;                          // the current vertex v of the decoder
+        for (int j=0; j<n; j++)
+            for (int i=0; i<=j; i++)
+                if (adj.adjacent(i, j)) {
+                    if (j == lastj)
+                        out.put(0, 1);
+                    else {
+                        out.put(1, 1);          // v becomes lastj+1,
+                        if (j > lastj+1) {      // and j if it is larger still
+                            out.put(j, nb);
+                            out.put(0, 1);
+                        }
+                        lastj = j;
+                    }
+                    out.put(i, nb);
+                }
+
+        int k = out.pending();                  // padding with 1s must not be read as an edge {n-1, n-1}
+        if (k > 0)
+            if (k >= nb+1 && lastj == n-2 && n == (1 << nb))
+                out.put((1L << (k-1)) - 1, k);
+            else
+                out.put((1L << k) - 1, k);
+        return out.toString();
+    }
+
+    // Position of the code after its header, if any
+    private static int start(String code) {
+        if (code.startsWith(">>"))
+            for (String header : HEADERS)
+                if (code.startsWith(header))
+                    return header.length();
+        return 0;
+    }
+
+    // Order encoded at position p
+    private static int orderAt(String code, int p) {
+        if (p >= code.length())
+            throw new IllegalArgumentException("Graph code has no order: " + code);
+        if (code.charAt(p) != '~')
+            return code.charAt(p) - 63;
+
+        long n = 0;
+        int chars = (p+1 < code.length() && code.charAt(p+1) == '~') ? 6 : 3;
+        int from = p + ((chars == 6) ? 2 : 1);
+        if (from + chars > code.length())
+            throw new IllegalArgumentException("Graph code has an incomplete order: " + code);
+        for (int c=from; c<from+chars; c++)
+            n = (n << 6) | (code.charAt(c) - 63);
+        if (n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Graph code has too many vertices: " + code);
+        return (int) n;
+    }
+
+    private static int orderLength(int n) {
+        return (n <= MAX_SHORT_ORDER) ? 1 : (n <= MAX_MEDIUM_ORDER) ? 4 : 8;
+    }
+
+    // Number of bits needed for the value
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(value, 0));
+    }
+
+    /**
+     * Packs bits into characters of a code, six bits per character, the first bit being the highest.
+     */
+    private static class Packer {
+        private char[] chars;
+        private int length;
+        private int bits;                       // bits of the current character collected so far
+        private int count;                      // number of such bits
+
+        Packer(int capacity) {
+            chars = new char[Math.max(capacity, 8)];
+        }
+
+        // Appends the lowest count bits of the value, highest first
+        void put(long value, int count) {
+            while (count > 0) {
+                int take = Math.min(6 - this.count, count);
+                count -= take;
+                bits = (bits << take) | (int) ((value >>> count) & ((1 << take) - 1));
+                this.count += take;
+                if (this.count == 6) {
+                    putChar((char) (bits + 63));
+                    bits = 0;
+                    this.count = 0;
+                }
+            }
+        }
+
+        void putChar(char c) {
+            if (length == chars.length)
+                chars = java.util.Arrays.copyOf(chars, 2*length);
+            chars[length++] = c;
+        }
+
+        void putOrder(int n) {
+            if (n <= MAX_SHORT_ORDER)
+                putChar((char) (n+63));
+            else if (n <= MAX_MEDIUM_ORDER) {
+                putChar('~');
+                put(n, 18);
+            }
+            else {
+                putChar('~');
+                putChar('~');
+                put(n, 36);
+            }
+        }
+
+        // Number of bits missing from the last character
+        int pending() {
+            return (count == 0) ? 0 : 6 - count;
+        }
+
+        // Completes the last character with the bit
+        void pad(int bit) {
+            int k = pending();
+            if (k > 0)
+                put((bit == 0) ? 0 : (1L << k) - 1, k);
+        }
+
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    /**
+     * Converts a file of codes in any of the formats into a file of codes in the given format, g6 or s6.
+     *
+     * @return long Number of graphs converted.
+     */
+    public static long convert(String inputFileName, String outputFileName, String format) throws IOException {
+        if (!format.equals("g6") && !format.equals("s6"))
+            throw new IllegalArgumentException("Unknown format " + format + ", expected g6 or s6");
+
+        G6Reader in = new G6Reader(inputFileName);
+        ResultWriter out = new ResultWriter(outputFileName);
+        long count = 0;
+        String code;
+        while ((code = in.readLine()) != null) {
+            if (code.length() == 0)
+                continue;
+            if (isDigraph6(code))
+                throw new IllegalArgumentException("Digraphs cannot be converted to " + format + ": " + code);
+
+            boolean loops = false;
+            if (order(code) <= 64) {
+                long[] adj = bitsets(code);
+                for (int i=0; i<adj.length; i++)
+                    loops |= ((adj[i] >>> i) & 1) != 0;
+                if (!loops || format.equals("s6"))
+                    out.print(format.equals("g6") ? encodeG6(adj, adj.length) : encodeS6(adj, adj.length));
+            }
+            else {
+                int[][] A = adjacency(code);
+                for (int i=0; i<A.length; i++)
+                    loops |= A[i][i] != 0;
+                if (!loops || format.equals("s6"))
+                    out.print(format.equals("g6") ? encodeG6(A) : encodeS6(A));
+            }
+            if (loops && format.equals("g6"))
+                throw new IllegalArgumentException("Graphs with loops cannot be converted to g6: " + code);
+            out.print('\n');
+            count++;
+        }
+        in.close();
+        out.close();
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: java GraphCodec g6|s6 input output");
+            return;
+        }
+        System.out.println("" + convert(args[1], args[2], args[0]) + " graphs written to " + args[2]);
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * GraphGenerator.java
+ *
+ * Generates all graphs of order n from a family, one from each isomorphism class,
+ * within the same process as the template that examines them,
+ * so that no file with g6codes has to be written by geng and read back.
+ * Families are all graphs, connected graphs and trees, each optionally with bounded maximum degree
+ * (e.g., connected graphs with maximum degree 4 are chemical graphs).
+ *
+ * Graphs are generated by canonical augmentation (McKay, Isomorph-free exhaustive generation, 1998):
+ * a graph H on k+1 vertices is obtained from a graph on k vertices by adding a new vertex v adjacent to a set S,
+ * and it is accepted only if v is in the same orbit of the automorphism group of H as the canonical deletion vertex of H:
+ * among the vertices whose deletion leaves a graph in the family (all vertices, non-cut vertices, or leaves),
+ * those with the largest degree and sum of degrees of neighbours, and among them the one with the largest canonical label.
+ * Then every graph of order k+1 has a unique parent up to isomorphism,
+ * and if the parent has nontrivial automorphisms, isomorphic children of the same parent are recognized
+ * by their canonical forms (see CanonicalLabeling).
+ *
+ * The search tree may be split into parts, res out of mod, as with geng:
+ * nodes at a fixed depth are numbered in the order of generation, and a part explores only those
+ * whose number is res modulo mod, so that the parts may be generated in parallel.
+ */
+import java.io.*;
+import java.util.HashSet;
+
+public class GraphGenerator {
+    // Families of graphs
+    public static final int ALL = 0;
+    public static final int CONNECTED = 1;
+    public static final int TREES = 2;
+
+    /**
+     * Receives generated graphs.
+     */
+    public interface GraphHandler {
+        void graph(Graph g) throws IOException;
+    }
+
+    private int n;                      // order of generated graphs
+    private int family;                 // ALL, CONNECTED or TREES
+    private int maxDegree;              // bound on degrees, 0 if there is none
+
+    private int splitDepth;             // order of graphs at which the search tree is split into parts
+    private long splitCounter;          // number of nodes at the split depth seen so far
+    private int part, parts;            // part to be generated, out of parts
+    private GraphHandler handler;
+    private long count;                 // number of graphs generated
+
+    public GraphGenerator(int n, int family, int maxDegree) {
+        if (n < 1 || n > 64)
+            throw new IllegalArgumentException("Order of graphs must be between 1 and 64");
+
+        this.n = n;
+        this.family = family;
+        this.maxDegree = maxDegree;
+        splitDepth = Math.max(1, n-3);
+    }
+
+    /**
+     * Creates a generator from a description in the style of geng arguments,
+     * e.g., "10" for all graphs, "-c 10" for connected graphs, "-t 12" for trees
+     * and "-c -D4 10" for connected graphs with maximum degree at most 4.
+     */
+    public static GraphGenerator parse(String description) {
+        int n = -1;
+        int family = ALL;
+        int maxDegree = 0;
+
+        for (String word : description.trim().split("\\s+"))
+            if (word.equals("-c"))
+                family = CONNECTED;
+            else if (word.equals("-t"))
+                family = TREES;
+            else if (word.startsWith("-D"))
+                maxDegree = Integer.parseInt(word.substring(2));
+            else if (word.startsWith("-"))
+                throw new IllegalArgumentException("Unknown generator option " + word);
+            else
+                n = Integer.parseInt(word);
+
+        if (n == -1)
+            throw new IllegalArgumentException("Order of graphs missing in " + description);
+        return new GraphGenerator(n, family, maxDegree);
+    }
+
+    /**
+     * Generates all graphs of the family.
+     *
+     * @return long Number of graphs generated.
+     */
+    public long generate(GraphHandler handler) throws IOException {
+        return generate(0, 1, handler);
+    }
+
+    /**
+     * Generates the graphs of part res out of mod.
+     *
+     * @return long Number of graphs generated.
+     */
+    public long generate(int res, int mod, GraphHandler handler) throws IOException {
+        this.part = res;
+        this.parts = mod;
+        this.handler = handler;
+        splitCounter = 0;
+        count = 0;
+
+        long[] root = new long[n];              // a single vertex
+        extend(root, 1, null);
+        return count;
+    }
+
+    /**
+     * Runs the template over all graphs produced by the generator,
+     * split into the given number of parts processed in parallel.
+     * Names of output files start with outputPrefix, and offsets passed to the template
+     * are the numbers of graphs in the order of generation within their part.
+     */
+    public void run(GraphTemplate template, String outputPrefix, int parts) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long counter;
+
+        if (parts <= 1) {
+            template.begin(outputPrefix, outputPrefix, null);
+            counter = generate(g -> template.process(g, count-1));
+            template.end();
+        }
+        else
+            counter = TemplateRunner.runParts(template, outputPrefix, parts, (partTemplate, part) -> {
+                GraphGenerator generator = new GraphGenerator(n, family, maxDegree);
+                return generator.generate(part, parts, g -> partTemplate.process(g, generator.count-1));
+            });
+
+        TemplateRunner.reportCache();
+        TemplateRunner.closeDotSink();
+        long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println("" + counter + " graphs generated and processed");
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+
+    /**
+     * Explores the children of the graph adj on k vertices.
+     *
+     * @param labeling Canonical labeling of the graph, if it has already been computed, otherwise null.
+     */
+    private void extend(long[] adj, int k, CanonicalLabeling labeling) throws IOException {
+        if (k == splitDepth && splitCounter++ % parts != part)
+            return;                              // node of another part
+
+        if (k == n) {
+            count++;
+            handler.graph(Graph.fromBitsets(adj, n));
+            return;
+        }
+
+        // Isomorphic children of a parent with automorphisms have to be recognized
+        if (labeling == null && k > 1)
+            labeling = new CanonicalLabeling(adj, k);
+        HashSet<String> children = (k > 1 && labeling.hasAutomorphisms()) ? new HashSet<String>() : null;
+
+        // Only the neighbourhoods s of the new vertex that keep the child in the family are enumerated,
+        // in increasing order as bitsets: x runs over the sets of allowed sizes of indices in position[],
+        // the vertices whose degrees may still grow, and s is x with each index replaced by its vertex
+        int[] position = new int[k];
+        int m = 0;
+        for (int u=0; u<k; u++)
+            if (maxDegree == 0 || Long.bitCount(adj[u]) < maxDegree)
+                position[m++] = u;
+        int minSize = (family == ALL) ? 0 : 1;
+        int maxSize = (family == TREES) ? 1 : (maxDegree > 0) ? Math.min(maxDegree, m) : m;
+
+        for (long x = minSize; (x >>> m) == 0; x = nextSet(x, maxSize, m)) {    // m < 64, as k < n <= 64
+            long s = 0;
+            for (long t=x; t!=0; t&=t-1)
+                s |= 1L << position[Long.numberOfTrailingZeros(t)];
+
+            long[] child = new long[n];
+            System.arraycopy(adj, 0, child, 0, k);
+            child[k] = s;
+            for (long t=s; t!=0; t&=t-1)
+                child[Long.numberOfTrailingZeros(t)] |= 1L << k;
+
+            CanonicalLabeling childLabeling = accept(child, k+1);
+            if (childLabeling == null)
+                continue;
+            if (childLabeling == ACCEPTED)
+                childLabeling = (children != null) ? new CanonicalLabeling(child, k+1) : null;
+
+            if (children != null && !children.add(childLabeling.g6code()))
+                continue;                        // isomorphic to an earlier child
+
+            extend(child, k+1, childLabeling);
+        }
+    }
+
+    /**
+     * Returns the smallest number after x with at most maxSize bits set,
+     * or a number with a bit set at position m or higher if there is none below 2^m.
+     */
+    private static long nextSet(long x, int maxSize, int m) {
+        x++;
+        while (Long.bitCount(x) > maxSize && (x >>> m) == 0)
+            x += x & -x;                         // carry the lowest bit, which merges it into the next one
+        return x;
+    }
+
+    /**
+     * Marks a child accepted without computing its canonical labeling.
+     */
+    private static final CanonicalLabeling ACCEPTED = new CanonicalLabeling(new long[0], 0);
+
+    /**
+     * Decides whether the new vertex h-1 of the graph adj on h vertices is in the orbit of its canonical deletion vertex.
+     *
+     * @return CanonicalLabeling null if the graph is rejected, otherwise its canonical labeling,
+     *         or ACCEPTED if the graph was accepted without computing it.
+     */
+    private CanonicalLabeling accept(long[] adj, int h) {
+        int v = h-1;
+        long eligible = eligible(adj, h);
+        if ((eligible & (1L << v)) == 0)
+            return null;
+
+        // Cheap invariant first: degree, then the sum of degrees of neighbours
+        long best = -1;
+        long candidates = 0;
+        for (long t=eligible; t!=0; t&=t-1) {
+            int u = Long.numberOfTrailingZeros(t);
+            long key = ((long) Long.bitCount(adj[u]) << 32) + neighbourDegrees(adj, u);
+            if (key > best) {
+                best = key;
+                candidates = 0;
+            }
+            if (key == best)
+                candidates |= 1L << u;
+        }
+        if ((candidates & (1L << v)) == 0)
+            return null;
+        if (candidates == (1L << v))
+            return ACCEPTED;
+
+        // Several candidates: the one with the largest canonical label decides
+        CanonicalLabeling labeling = new CanonicalLabeling(adj, h);
+        int[] lab = labeling.labeling();
+        int deletion = -1;
+        for (int i=h-1; i>=0 && deletion == -1; i--)
+            if ((candidates & (1L << lab[i])) != 0)
+                deletion = lab[i];
+
+        return labeling.sameOrbit(v, deletion) ? labeling : null;
+    }
+
+    /**
+     * Vertices whose deletion leaves a graph of the family.
+     */
+    private long eligible(long[] adj, int h) {
+        long all = (h == 64) ? -1L : (1L << h) - 1;
+
+        if (family == ALL || h <= 2)
+            return all;
+
+        long result = 0;
+        for (int u=0; u<h; u++)
+            if (family == TREES ? Long.bitCount(adj[u]) == 1 : connected(adj, all & ~(1L << u)))
+                result |= 1L << u;
+        return result;
+    }
+
+    /**
+     * Responds whether the subgraph induced by the vertex set is connected.
+     */
+    private static boolean connected(long[] adj, long vertices) {
+        long reached = Long.lowestOneBit(vertices);
+        long frontier = reached;
+        while (frontier != 0) {
+            long next = 0;
+            for (long t=frontier; t!=0; t&=t-1)
+                next |= adj[Long.numberOfTrailingZeros(t)];
+            next &= vertices & ~reached;
+            reached |= next;
+            frontier = next;
+        }
+        return reached == vertices;
+    }
+
+    private static long neighbourDegrees(long[] adj, int u) {
+        long sum = 0;
+        for (long t=adj[u]; t!=0; t&=t-1)
+            sum += Long.bitCount(adj[Long.numberOfTrailingZeros(t)]);
+        return sum;
+    }
+
+    // Generates the graphs described by the arguments, e.g., "-c 8", and prints their g6codes
+    public static void main(String[] args) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        long count = parse(String.join(" ", args)).generate(g -> out.println(g.g6code()));
+        out.flush();
+        System.err.println("" + count + " graphs generated");
+    }
+}
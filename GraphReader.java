@@ -0,0 +1,26 @@
+/**
+ * GraphReader.java
+ *
+ * Sequential reader of the graphs of an input file, either of g6codes (see G6Reader)
+ * or of records of a GraphStore, which TemplateRunner passes to templates together with their offsets.
+ */
+import java.io.IOException;
+
+public interface GraphReader {
+    /**
+     * The next graph, or null at the end of the input (or of the range being read).
+     */
+    Graph readGraph() throws IOException;
+
+    /**
+     * Offset of the first byte of the graph last returned by readGraph().
+     */
+    long offset();
+
+    /**
+     * Offset of the first byte of the next graph, at which reading may later be continued.
+     */
+    long position();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,559 @@
+/**
+ * GraphStore.java
+ *
+ * Binary file of graphs with random access, as an alternative to g6 files, which need parsing
+ * and have to be scanned from the beginning to find the millionth graph again.
+ *
+ * Each graph is a fixed-width record holding the rows of its adjacency matrix as bitsets:
+ * row i takes (n+7)/8 bytes, with the bit j&7 of its byte j>>3 set if i and j are adjacent,
+ * so that a row of a graph with n<=64 vertices is a single little-endian long of at most 8 bytes.
+ * Optionally, a record is followed by the degree sequence of the graph (one byte per vertex
+ * for n<=256, and an int otherwise), so that graphs may be selected by degrees without decoding them.
+ *
+ * Records are grouped into blocks of at most BLOCK_RECORDS records of graphs of the same order,
+ * and a block ends whenever the order changes. The file starts with a small header (MAGIC, VERSION, flags)
+ * and ends with the index of blocks (order, number of records and offset of each block),
+ * followed by the offset of the index and MAGIC again, as in ColumnarResults.
+ * The index is written by Writer.close(), so an unfinished file is recognized as such.
+ *
+ * A finished store is opened by open(), which reads the index only. Blocks are memory mapped
+ * when they are first accessed, and any record is then found by arithmetic on its number:
+ * in constant time if all blocks are full and of the same order, e.g., for an output of geng,
+ * and otherwise by a binary search over the index of blocks.
+ *
+ * TemplateRunner runs templates over a store just as over a g6 file, recognizing it by MAGIC.
+ * The offset of a graph passed to the template is the offset of its record within the store,
+ * so that shards and checkpoints work as for g6 files, but templates that read g6codes back
+ * from the input file by their offsets (e.g., EquiTemplate with a memory budget) need a g6 file.
+ *
+ * From the command line:
+ *     java GraphStore import graphs.g6 graphs.gst [degrees]     (g6 or sparse6 codes)
+ *     java GraphStore export graphs.gst graphs.g6               (sparse6 codes if the name ends with .s6)
+ *     java GraphStore get graphs.gst 7000000 [more record numbers...]
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class GraphStore {
+    public static final int BLOCK_RECORDS = 1 << 16;
+    public static final int MAX_BLOCK_BYTES = 1 << 30;     // blocks of large graphs have fewer records
+
+    private static final int MAGIC = 0x47364753;    // "G6GS"
+    private static final int VERSION = 1;
+    private static final int DEGREES = 1;           // flag: records contain degree sequences
+    private static final int HEADER = 12;
+
+    private String fileName;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private boolean degrees;
+    private int[] orders;               // order of the graphs of each block
+    private int[] counts;               // number of records of each block
+    private long[] offsets;             // offset of each block within the file
+    private long[] firstRecords;        // number of the first record of each block
+    private long recordsEnd;            // offset of the index, where the records end
+    private long size;
+    private boolean uniform;            // are all blocks but the last full and of the same order?
+    private MappedByteBuffer[] maps;    // blocks mapped so far
+
+    /**
+     * Opens a finished store for reading.
+     */
+    public static GraphStore open(String fileName) throws IOException {
+        return new GraphStore(fileName);
+    }
+
+    /**
+     * Does the file start as a store does? Files of g6codes never do, as '6' is not a g6 character.
+     */
+    public static boolean isStore(String fileName) throws IOException {
+        File f = new File(fileName);
+        if (!f.isFile() || f.length() < HEADER)
+            return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        int magic = in.readInt();
+        in.close();
+        return magic == MAGIC;
+    }
+
+    private GraphStore(String fileName) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+
+        long length = file.length();
+        if (length < HEADER + 12 || file.readInt() != MAGIC) {
+            file.close();
+            throw new IOException(fileName + " is not a graph store");
+        }
+        int version = file.readInt();
+        if (version != VERSION) {
+            file.close();
+            throw new IOException(fileName + " has unsupported version " + version);
+        }
+        degrees = (file.readInt() & DEGREES) != 0;
+
+        file.seek(length - 12);
+        recordsEnd = file.readLong();
+        if (file.readInt() != MAGIC || recordsEnd < HEADER || recordsEnd > length - 12) {
+            file.close();
+            throw new IOException(fileName + " is not finished");
+        }
+
+        byte[] index = new byte[(int) (length - 12 - recordsEnd)];
+        file.seek(recordsEnd);
+        file.readFully(index);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        int blocks = in.readInt();
+        orders = new int[blocks];
+        counts = new int[blocks];
+        offsets = new long[blocks];
+        firstRecords = new long[blocks];
+        uniform = true;
+        for (int b=0; b<blocks; b++) {
+            orders[b] = in.readInt();
+            counts[b] = in.readInt();
+            offsets[b] = in.readLong();
+            firstRecords[b] = size;
+            size += counts[b];
+            if (b > 0 && (orders[b] != orders[0] || counts[b-1] != counts[0]))
+                uniform = false;
+        }
+        maps = new MappedByteBuffer[blocks];
+    }
+
+    /**
+     * Number of graphs in the store.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Do records contain degree sequences?
+     */
+    public boolean hasDegrees() {
+        return degrees;
+    }
+
+    public int order(long record) {
+        return orders[block(record)];
+    }
+
+    /**
+     * The graph of the record with the given number, counted from 0.
+     */
+    public Graph graph(long record) throws IOException {
+        int b = block(record);
+        int n = orders[b];
+        int rowBytes = rowBytes(n);
+        ByteBuffer map = map(b);
+        int at = position(b, record);
+
+        int[][] A = new int[n][n];
+        for (int i=0; i<n; i++) {
+            int row = at + i*rowBytes;
+            for (int j=0; j<n; j++)
+                A[i][j] = (map.get(row + (j >>> 3)) >>> (j & 7)) & 1;
+        }
+        return new Graph(A);
+    }
+
+    /**
+     * Adjacency bitsets of the graph of the record, as used by CanonicalLabeling and Graph.fromBitsets().
+     * Supports at most 64 vertices.
+     */
+    public long[] bitsets(long record) throws IOException {
+        int b = block(record);
+        int n = orders[b];
+        if (n > 64)
+            throw new IllegalArgumentException("Bitsets support at most 64 vertices instead of " + n);
+        int rowBytes = rowBytes(n);
+        ByteBuffer map = map(b);
+        int at = position(b, record);
+
+        long[] adj = new long[n];
+        for (int i=0; i<n; i++)
+            for (int k=0; k<rowBytes; k++)
+                adj[i] |= (map.get(at + i*rowBytes + k) & 0xFFL) << (8*k);
+        return adj;
+    }
+
+    /**
+     * Degree sequence of the graph of the record, read from the record if it contains degrees.
+     */
+    public int[] degrees(long record) throws IOException {
+        int b = block(record);
+        int n = orders[b];
+        int rowBytes = rowBytes(n);
+        ByteBuffer map = map(b);
+        int at = position(b, record);
+
+        int[] degree = new int[n];
+        if (degrees) {
+            at += n*rowBytes;
+            for (int i=0; i<n; i++)
+                degree[i] = (n <= 256) ? map.get(at + i) & 0xFF : map.getInt(at + 4*i);
+        }
+        else
+            for (int i=0; i<n; i++)
+                for (int k=0; k<rowBytes; k++)
+                    degree[i] += Integer.bitCount(map.get(at + i*rowBytes + k) & 0xFF);
+        return degree;
+    }
+
+    /**
+     * g6code of the graph of the record.
+     */
+    public String g6code(long record) throws IOException {
+        if (order(record) <= 64)
+            return Graph.encodeG6(bitsets(record), order(record));
+        return graph(record).g6code();
+    }
+
+    /**
+     * sparse6 code of the graph of the record.
+     */
+    public String s6code(long record) throws IOException {
+        if (order(record) <= 64)
+            return GraphCodec.encodeS6(bitsets(record), order(record));
+        return graph(record).s6code();
+    }
+
+    /**
+     * Offset of the record within the file, which identifies the graph for templates.
+     * The offset of record size() is the end of all records.
+     */
+    public long offset(long record) {
+        if (record == size)
+            return recordsEnd;
+        int b = block(record);
+        return offsets[b] + (record - firstRecords[b]) * recordSize(orders[b], degrees);
+    }
+
+    /**
+     * Number of the first record starting at or after the offset, or size() if there is none.
+     */
+    public long firstRecordAt(long offset) {
+        if (offset >= recordsEnd || offsets.length == 0)
+            return size;
+        int b = Arrays.binarySearch(offsets, offset);
+        if (b < 0)
+            b = -b-2;
+        if (b < 0)
+            return 0;
+        int recordSize = recordSize(orders[b], degrees);
+        return Math.min(firstRecords[b] + (offset - offsets[b] + recordSize-1) / recordSize, size);
+    }
+
+    public void close() throws IOException {
+        maps = null;
+        file.close();
+    }
+
+    /**
+     * Reader of the records of a store one after another, for TemplateRunner.
+     */
+    public class Reader implements GraphReader {
+        private long next;              // number of the next record
+        private long end;               // number of the first record not read
+        private long last = -1;         // number of the last record read
+        private boolean owner;          // is the store closed together with the reader?
+
+        private Reader(long start, long end, boolean owner) {
+            next = start;
+            this.end = end;
+            this.owner = owner;
+        }
+
+        public Graph readGraph() throws IOException {
+            if (next >= end)
+                return null;
+            last = next;
+            return graph(next++);
+        }
+
+        public long offset() {
+            return GraphStore.this.offset(last);
+        }
+
+        public long position() {
+            return GraphStore.this.offset(next);
+        }
+
+        public void close() throws IOException {
+            if (owner)
+                GraphStore.this.close();
+        }
+    }
+
+    /**
+     * Reader of the records of the store that start within bytes [start, end) of the file,
+     * so that a store may be split into consecutive ranges by its size only, as a g6 file is by G6Reader.
+     */
+    public Reader reader(long start, long end) {
+        return new Reader(firstRecordAt(start), firstRecordAt(end), false);
+    }
+
+    /**
+     * Opens the store for reading the records that start within bytes [start, end) of the file.
+     * The store is closed together with the reader.
+     */
+    public static Reader openRange(String fileName, long start, long end) throws IOException {
+        GraphStore store = open(fileName);
+        return store.new Reader(store.firstRecordAt(start), store.firstRecordAt(end), true);
+    }
+
+    // Block containing the record
+    private int block(long record) {
+        if (record < 0 || record >= size)
+            throw new IndexOutOfBoundsException("Record " + record + " of " + size + " in " + fileName);
+        if (uniform)
+            return (int) (record / counts[0]);
+        int b = Arrays.binarySearch(firstRecords, record);
+        return (b >= 0) ? b : -b-2;
+    }
+
+    // Position of the record within the mapped block
+    private int position(int b, long record) {
+        return (int) (record - firstRecords[b]) * recordSize(orders[b], degrees);
+    }
+
+    private ByteBuffer map(int b) throws IOException {
+        MappedByteBuffer map = maps[b];
+        if (map == null) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, offsets[b], (long) counts[b] * recordSize(orders[b], degrees));
+            maps[b] = map;
+        }
+        return map;
+    }
+
+    private static int rowBytes(int n) {
+        return (n+7) / 8;
+    }
+
+    private static int recordSize(int n, boolean degrees) {
+        long size = (long) n * rowBytes(n) + (degrees ? (long) n * ((n <= 256) ? 1 : 4) : 0);
+        if (size > MAX_BLOCK_BYTES)
+            throw new IllegalArgumentException("Graphs with " + n + " vertices are too large for a store");
+        return (int) size;
+    }
+
+    // Number of records of order n in a full block
+    private static int capacity(int n, boolean degrees) {
+        return Math.max(1, Math.min(BLOCK_RECORDS, MAX_BLOCK_BYTES / recordSize(n, degrees)));
+    }
+
+    /**
+     * Creates a new store, whose records contain degree sequences if degrees is true.
+     */
+    public static Writer create(String fileName, boolean degrees) throws IOException {
+        return new Writer(fileName, degrees);
+    }
+
+    /**
+     * Writer of a new store, which appends graphs one by one.
+     */
+    public static class Writer {
+        private String fileName;
+        private DataOutputStream out;
+        private boolean degrees;
+        private long position;              // offset of the next record
+        private long count;                 // number of graphs added so far
+
+        private ArrayList<int[]> blocks = new ArrayList<int[]>();     // order and number of records of each block
+        private ArrayList<Long> blockOffsets = new ArrayList<Long>();
+        private int order = -1;             // order of the graphs of the current block
+        private int blockCount;             // number of records of the current block
+        private int capacity;
+        private byte[] record = new byte[0];
+        private int[] degree = new int[0];
+
+        private Writer(String fileName, boolean degrees) throws IOException {
+            this.fileName = fileName;
+            this.degrees = degrees;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(degrees ? DEGREES : 0);
+            position = HEADER;
+        }
+
+        /**
+         * Number of graphs added so far.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Adds a graph given by its g6code or sparse6 code, decoded directly into the record (see GraphCodec).
+         */
+        public Writer add(String code) throws IOException {
+            if (GraphCodec.isDigraph6(code))
+                throw new IllegalArgumentException("A store holds graphs, not digraphs: " + code);
+            int n = GraphCodec.order(code);
+            newRecord(n);
+
+            int rowBytes = rowBytes(n);
+            GraphCodec.decode(code, (i, j) -> {
+                if (i == j)
+                    throw new IllegalArgumentException("Graph " + code + " has a loop at vertex " + i);
+                addEdge(i, j, rowBytes);
+            });
+            return writeRecord();
+        }
+
+        /**
+         * Adds a graph given by its adjacency matrix.
+         */
+        public Writer add(Graph g) throws IOException {
+            int n = g.n();
+            int[][] A = g.Amatrix();
+            newRecord(n);
+
+            int rowBytes = rowBytes(n);
+            for (int j=1; j<n; j++)
+                for (int i=0; i<j; i++)
+                    if (A[i][j] == 1)
+                        addEdge(i, j, rowBytes);
+            return writeRecord();
+        }
+
+        private void newRecord(int n) throws IOException {
+            if (n != order || blockCount == capacity) {
+                finishBlock();
+                order = n;
+                capacity = capacity(n, degrees);
+                record = new byte[recordSize(n, degrees)];
+                degree = new int[n];
+                blockOffsets.add(position);
+            }
+            else {
+                Arrays.fill(record, (byte) 0);
+                Arrays.fill(degree, 0);
+            }
+        }
+
+        private void addEdge(int i, int j, int rowBytes) {
+            if ((record[i*rowBytes + (j >>> 3)] & (1 << (j & 7))) != 0)
+                return;                         // multiple edges of sparse6 codes are a single edge here
+            record[i*rowBytes + (j >>> 3)] |= (byte) (1 << (j & 7));
+            record[j*rowBytes + (i >>> 3)] |= (byte) (1 << (i & 7));
+            degree[i]++;
+            degree[j]++;
+        }
+
+        private Writer writeRecord() throws IOException {
+            if (degrees) {
+                int at = order * rowBytes(order);
+                for (int i=0; i<order; i++)
+                    if (order <= 256)
+                        record[at + i] = (byte) degree[i];
+                    else {
+                        int d = degree[i];
+                        for (int k=0; k<4; k++)         // big-endian, as ByteBuffer.getInt() reads it
+                            record[at + 4*i + k] = (byte) (d >>> (24 - 8*k));
+                    }
+            }
+            out.write(record);
+            position += record.length;
+            blockCount++;
+            count++;
+            return this;
+        }
+
+        private void finishBlock() {
+            if (order >= 0)
+                blocks.add(new int[] { order, blockCount });
+            blockCount = 0;
+        }
+
+        /**
+         * Writes the index of blocks and closes the file.
+         */
+        public void close() throws IOException {
+            finishBlock();
+            order = -1;
+
+            out.writeInt(blocks.size());
+            for (int b=0; b<blocks.size(); b++) {
+                out.writeInt(blocks.get(b)[0]);
+                out.writeInt(blocks.get(b)[1]);
+                out.writeLong(blockOffsets.get(b));
+            }
+            out.writeLong(position);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+
+    /**
+     * Converts a file of g6codes or sparse6 codes into a new store.
+     *
+     * @return long Number of graphs converted.
+     */
+    public static long fromG6(String g6FileName, String storeFileName, boolean degrees) throws IOException {
+        G6Reader in = new G6Reader(g6FileName);
+        Writer out = create(storeFileName, degrees);
+        String code;
+        while ((code = in.readLine()) != null)
+            if (code.length() > 0)
+                out.add(code);
+        in.close();
+        out.close();
+        return out.count();
+    }
+
+    /**
+     * Converts a store into a new file of g6codes.
+     *
+     * @return long Number of graphs converted.
+     */
+    public static long toG6(String storeFileName, String g6FileName) throws IOException {
+        return export(storeFileName, g6FileName, false);
+    }
+
+    /**
+     * Converts a store into a new file of sparse6 codes, e.g., for trees or other sparse graphs.
+     *
+     * @return long Number of graphs converted.
+     */
+    public static long toS6(String storeFileName, String s6FileName) throws IOException {
+        return export(storeFileName, s6FileName, true);
+    }
+
+    private static long export(String storeFileName, String fileName, boolean sparse6) throws IOException {
+        GraphStore store = open(storeFileName);
+        ResultWriter out = new ResultWriter(fileName);
+        for (long r=0; r<store.size(); r++)
+            out.print(sparse6 ? store.s6code(r) : store.g6code(r)).print('\n');
+        out.close();
+        store.close();
+        return store.size();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("import")) {
+            boolean degrees = args.length > 3 && args[3].equals("degrees");
+            System.out.println("" + fromG6(args[1], args[2], degrees) + " graphs written to " + args[2]);
+        }
+        else if (args.length == 3 && args[0].equals("export"))
+            System.out.println("" + (args[2].endsWith(".s6") ? toS6(args[1], args[2]) : toG6(args[1], args[2])) +
+                               " graphs written to " + args[2]);
+        else if (args.length >= 3 && args[0].equals("get")) {
+            GraphStore store = open(args[1]);
+            for (int i=2; i<args.length; i++)
+                System.out.println(store.g6code(Long.parseLong(args[i])));
+            store.close();
+        }
+        else
+            System.out.println("Usage: java GraphStore import graphs.g6 graphs.gst [degrees]\n" +
+                               "       java GraphStore export graphs.gst graphs.g6|graphs.s6\n" +
+                               "       java GraphStore get graphs.gst record...");
+    }
+}
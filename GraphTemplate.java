@@ -0,0 +1,71 @@
+/**
+ * GraphTemplate.java
+ *
+ * Common form of templates that process graphs one by one,
+ * so that TemplateRunner can take care of reading the input file,
+ * reporting progress and elapsed time, and writing checkpoints of long runs.
+ *
+ * A template opens its output files in begin(), processes each graph in process(),
+ * and writes its reports and closes its output files in end().
+ * Between two graphs, saveState() may be called to write everything that the template
+ * has accumulated so far (maps, counters, positions in output files) to a checkpoint.
+ * When a run is resumed, begin() receives the same data in the same order,
+ * so that the template can continue as if the run had never been interrupted.
+ * State that only grows, such as a map of all graphs, is better appended to a file of the template
+ * as it grows, so that a checkpoint only needs the position in that file (see KeyJournal).
+ *
+ * A large input file may also be processed in parts, e.g., by several processes.
+ * A template that has processed one part calls endPartial() instead of end(),
+ * and writes what it has accumulated to its partial results.
+ * A fresh template then merges the partial results of all parts, in the order of parts,
+ * with mergePartial() and reports results in end() as if it has processed the whole file.
+ */
+import java.io.*;
+
+public interface GraphTemplate {
+    /**
+     * Sets the parameters of the template from strings,
+     * in the same order in which they are given to the template on the command line
+     * after the name of the input file.
+     */
+    void configure(String[] params);
+
+    /**
+     * Returns the parameters of the template as strings, in the form accepted by configure(),
+     * so that further instances of the template may be created with the same parameters.
+     */
+    String[] parameters();
+
+    /**
+     * Prepares the template for processing graphs from the input file.
+     * Names of output files should start with outputPrefix.
+     * checkpoint is null for a fresh run, and otherwise contains the data written by saveState().
+     */
+    void begin(String inputFileName, String outputPrefix, DataInputStream checkpoint) throws IOException;
+
+    /**
+     * Processes a single graph, whose g6code (or record of a GraphStore) starts at the given offset within the input file.
+     */
+    void process(Graph g, long offset) throws IOException;
+
+    /**
+     * Writes the state accumulated so far to a checkpoint.
+     */
+    void saveState(DataOutputStream checkpoint) throws IOException;
+
+    /**
+     * Reports results and closes output files.
+     */
+    void end() throws IOException;
+
+    /**
+     * Closes output files and writes the state accumulated while processing a part of the input file
+     * to partial results, instead of reporting them.
+     */
+    void endPartial(DataOutputStream partial) throws IOException;
+
+    /**
+     * Merges partial results of the next part of the input file into the state of the template.
+     */
+    void mergePartial(DataInputStream partial) throws IOException;
+}
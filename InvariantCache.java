@@ -0,0 +1,249 @@
+/**
+ * InvariantCache.java
+ *
+ * Persistent cache of spectra, distance matrices and other invariant values of graphs, keyed by their g6codes,
+ * so that a new experiment over the same file of graphs reads what earlier runs have computed
+ * instead of decomposing the same matrices again. Graph consults the cache set by Graph.setCache()
+ * before computing its spectra and distance matrix (see Graph.cachedValue() for other invariants).
+ *
+ * The cache is a file of fixed size, memory mapped, so that its entries live in the page cache of the system
+ * and survive from one run to the next. The file is organized as a set-associative table:
+ * the hash of a key selects a bucket of WAYS records of fixed size, and the key is stored in one of its records.
+ * When all records of a bucket are used, an entry is evicted by the CLOCK algorithm: a hand of the bucket
+ * sweeps over its records, clearing their reference bits, and stops at the first record not referenced
+ * since the previous sweep, so that entries that are hit survive while entries that are not hit age out.
+ * Entries whose key and value do not fit into a record are not cached: with records of RECORD_SIZE bytes,
+ * these are spectra of graphs with more than 23 vertices and distance matrices of graphs with more than 19 vertices.
+ *
+ * A record consists of a flags byte (used, referenced), the length of the key (byte),
+ * the length of the value (short), the 64-bit hash of the key, the key and the value.
+ * The flags are written last, so that a record interrupted while being written is never used.
+ * The file is locked while open, so it cannot be shared by several processes at the same time.
+ *
+ * Hits and lookups are counted, and report() prints the hit rate of the run, as TemplateRunner does at the end of each run.
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+public class InvariantCache {
+    public static final int RECORD_SIZE = 256;      // bytes of a record, including its 16 bytes of header
+    public static final int WAYS = 8;               // records in a bucket
+
+    private static final int MAGIC = 0x47364943;    // "G6IC"
+    private static final int HEADER_SIZE = 64;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+
+    private String fileName;
+    private RandomAccessFile file;
+    private FileLock lock;
+    private MappedByteBuffer[] maps;    // buckets are mapped in several parts, as a single map is limited to 2GB
+    private int bucketsPerMap;
+    private long buckets;
+    private int recordSize;
+    private MappedByteBuffer hands;     // CLOCK hand of each bucket, after the header
+
+    private long lookups, hits, insertions, evictions;     // counts since the last report()
+
+    /**
+     * Opens the cache file, or creates it with about the given number of megabytes if it does not exist.
+     * An existing file keeps the size with which it was created.
+     */
+    public static InvariantCache open(String fileName, int megabytes) throws IOException {
+        return new InvariantCache(fileName, megabytes * 1048576L);
+    }
+
+    private InvariantCache(String fileName, long size) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, "rw");
+        lock = file.getChannel().tryLock();
+        if (lock == null) {
+            file.close();
+            throw new IOException("Invariant cache " + fileName + " is used by another process");
+        }
+
+        FileChannel channel = file.getChannel();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        boolean exists = (header.getInt(0) == MAGIC);  // a file without the header is created anew
+        if (!exists && channel.size() > HEADER_SIZE) {
+            close();
+            throw new IOException(fileName + " is not an invariant cache");
+        }
+        if (exists) {
+            recordSize = header.getInt(4);
+            buckets = header.getLong(12);
+        }
+        else {
+            recordSize = RECORD_SIZE;
+            buckets = Math.max(1, (size - HEADER_SIZE) / (WAYS * (long) recordSize + 1));
+        }
+
+        long bucketBytes = WAYS * (long) recordSize;
+        hands = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, buckets);
+        bucketsPerMap = (int) (Integer.MAX_VALUE / bucketBytes);
+        long start = HEADER_SIZE + buckets;
+        maps = new MappedByteBuffer[(int) ((buckets + bucketsPerMap - 1) / bucketsPerMap)];
+        for (int i=0; i<maps.length; i++) {
+            long count = Math.min(bucketsPerMap, buckets - (long) i * bucketsPerMap);
+            maps[i] = channel.map(FileChannel.MapMode.READ_WRITE, start + (long) i * bucketsPerMap * bucketBytes,
+                                  count * bucketBytes);
+        }
+
+        if (!exists) {                  // the header is written last, once the file has its full size
+            header.putInt(4, recordSize);
+            header.putInt(8, WAYS);
+            header.putLong(12, buckets);
+            header.putInt(0, MAGIC);
+        }
+    }
+
+    /**
+     * The value stored under the key, or null if it is not in the cache.
+     */
+    public synchronized byte[] get(String key) {
+        lookups++;
+        byte[] keyBytes = key.getBytes();
+        long hash = hash(keyBytes);
+        ByteBuffer map = map(hash);
+        int bucket = bucketStart(hash);
+
+        for (int way=0; way<WAYS; way++) {
+            int record = bucket + way * recordSize;
+            if (matches(map, record, keyBytes, hash)) {
+                map.put(record, (byte) (USED | REFERENCED));
+                byte[] value = new byte[map.getShort(record + 2) & 0xFFFF];
+                for (int i=0; i<value.length; i++)
+                    value[i] = map.get(record + 16 + keyBytes.length + i);
+                hits++;
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the value under the key, evicting another entry of the same bucket if necessary.
+     * Does nothing if the key and the value do not fit into a record.
+     */
+    public synchronized void put(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes();
+        if (keyBytes.length > 255 || 16 + keyBytes.length + value.length > recordSize)
+            return;
+
+        long hash = hash(keyBytes);
+        ByteBuffer map = map(hash);
+        int bucket = bucketStart(hash);
+        long bucketIndex = Long.remainderUnsigned(hash, buckets);
+
+        int victim = -1;
+        for (int way=0; way<WAYS && victim == -1; way++) {
+            int record = bucket + way * recordSize;
+            if ((map.get(record) & USED) == 0 || matches(map, record, keyBytes, hash))
+                victim = record;
+        }
+
+        if (victim == -1) {             // all records are used: the CLOCK hand looks for one not referenced
+            int hand = hands.get((int) bucketIndex);
+            while (true) {
+                int record = bucket + hand * recordSize;
+                hand = (hand + 1) % WAYS;
+                byte flags = map.get(record);
+                if ((flags & REFERENCED) == 0) {
+                    victim = record;
+                    break;
+                }
+                map.put(record, (byte) (flags & ~REFERENCED));
+            }
+            hands.put((int) bucketIndex, (byte) hand);
+            evictions++;
+        }
+
+        map.put(victim, (byte) 0);
+        map.put(victim + 1, (byte) keyBytes.length);
+        map.putShort(victim + 2, (short) value.length);
+        map.putLong(victim + 8, hash);
+        for (int i=0; i<keyBytes.length; i++)
+            map.put(victim + 16 + i, keyBytes[i]);
+        for (int i=0; i<value.length; i++)
+            map.put(victim + 16 + keyBytes.length + i, value[i]);
+        map.put(victim, (byte) (USED | REFERENCED));
+        insertions++;
+    }
+
+    /**
+     * Array of doubles stored under the key, or null if it is not in the cache.
+     */
+    public double[] getDoubles(String key) {
+        byte[] value = get(key);
+        if (value == null)
+            return null;
+
+        ByteBuffer bytes = ByteBuffer.wrap(value);
+        double[] values = new double[value.length / 8];
+        for (int i=0; i<values.length; i++)
+            values[i] = bytes.getDouble();
+        return values;
+    }
+
+    public void putDoubles(String key, double[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(8 * values.length);
+        for (int i=0; i<values.length; i++)
+            bytes.putDouble(values[i]);
+        put(key, bytes.array());
+    }
+
+    /**
+     * Prints the hit rate of the lookups since the last report, and starts counting anew.
+     */
+    public synchronized void report() {
+        System.out.println("Invariant cache " + fileName + ": " + hits + " hits of " + lookups + " lookups" +
+            (lookups > 0 ? String.format(" (%.1f%%)", 100.0 * hits / lookups) : "") +
+            ", " + insertions + " entries added, " + evictions + " evicted");
+        lookups = hits = insertions = evictions = 0;
+    }
+
+    /**
+     * Writes the cache to the file, releases the lock and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        if (maps != null)
+            for (MappedByteBuffer map : maps)
+                map.force();
+        if (hands != null)
+            hands.force();
+        lock.release();
+        file.close();
+    }
+
+    private boolean matches(ByteBuffer map, int record, byte[] keyBytes, long hash) {
+        if ((map.get(record) & USED) == 0 || map.getLong(record + 8) != hash || (map.get(record + 1) & 0xFF) != keyBytes.length)
+            return false;
+        for (int i=0; i<keyBytes.length; i++)
+            if (map.get(record + 16 + i) != keyBytes[i])
+                return false;
+        return true;
+    }
+
+    // Mapped part of the file containing the bucket of the hash
+    private ByteBuffer map(long hash) {
+        return maps[(int) (Long.remainderUnsigned(hash, buckets) / bucketsPerMap)];
+    }
+
+    // Offset of the bucket of the hash within its mapped part
+    private int bucketStart(long hash) {
+        return (int) (Long.remainderUnsigned(hash, buckets) % bucketsPerMap) * WAYS * recordSize;
+    }
+
+    // 64-bit FNV-1a hash
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * IsomorphismFilter.java
+ *
+ * Recognizes graphs isomorphic to graphs seen before by their canonical forms (see CanonicalLabeling),
+ * so that isomorphic repeats can be dropped from a stream of graphs before any expensive invariant is computed.
+ * Inputs collected from several sources, such as generated families, hand-made files
+ * and outputs of earlier runs of SubsetTemplate, often contain the same graph under different labelings.
+ *
+ * TemplateRunner applies the filter to the graphs it reads with the command line option --unique
+ * (or after setUnique(true)), so that templates process only the first graph of each isomorphism class.
+ * EquiTemplate and EquiVectorTemplate may likewise report each isomorphism class in a group only once.
+ * The filter may also be used as a separate stage of a pipeline: main() copies the g6codes
+ * of its input file, or of the standard input if the name is "-", to the standard output without isomorphic repeats.
+ *
+ * Canonical forms are kept as g6codes in a hash set, so that memory grows with the number of isomorphism classes.
+ * Graphs may have at most 64 vertices.
+ */
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class IsomorphismFilter {
+    private HashSet<String> seen;       // canonical g6codes of the graphs seen so far
+    private long repeats;               // number of graphs rejected so far
+
+    public IsomorphismFilter() {
+        seen = new HashSet<String>();
+        repeats = 0;
+    }
+
+    /**
+     * Responds whether the graph is the first one of its isomorphism class, and remembers the class.
+     */
+    public boolean add(Graph g) {
+        if (seen.add(g.canonicalG6code()))
+            return true;
+
+        repeats++;
+        return false;
+    }
+
+    /**
+     * Number of isomorphism classes seen so far.
+     */
+    public long classes() {
+        return seen.size();
+    }
+
+    /**
+     * Number of isomorphic repeats rejected so far.
+     */
+    public long repeats() {
+        return repeats;
+    }
+
+    /**
+     * The first graph of each isomorphism class among the g6codes, in their original order.
+     */
+    public static String[] firstOfEachClass(String[] g6codes) {
+        IsomorphismFilter filter = new IsomorphismFilter();
+        String[] first = new String[g6codes.length];
+        int count = 0;
+        for (String g6code : g6codes)
+            if (filter.add(new Graph(g6code)))
+                first[count++] = g6code;
+        return Arrays.copyOf(first, count);
+    }
+
+    /**
+     * Writes the canonical forms seen so far to a checkpoint.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(repeats);
+        out.writeInt(seen.size());
+        for (String code : seen)
+            out.writeUTF(code);
+    }
+
+    /**
+     * Reads the filter written by write().
+     */
+    public static IsomorphismFilter read(DataInputStream in) throws IOException {
+        IsomorphismFilter filter = new IsomorphismFilter();
+        filter.repeats = in.readLong();
+        int size = in.readInt();
+        for (int i=0; i<size; i++)
+            filter.seen.add(in.readUTF());
+        return filter;
+    }
+
+    // Copies g6codes from the input file (or the standard input, if it is "-") to the standard output,
+    // skipping isomorphic repeats. Counts are reported to the standard error, which is not part of the pipeline.
+    public static void main(String[] args) throws IOException {
+        G6Reader in = args[0].equals("-") ? new G6Reader(System.in) : new G6Reader(args[0]);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        IsomorphismFilter filter = new IsomorphismFilter();
+
+        String g6code;
+        while ((g6code = in.readLine()) != null)
+            if (filter.add(new Graph(g6code))) {
+                out.write(g6code);
+                out.newLine();
+            }
+        in.close();
+        out.flush();
+
+        System.err.println("" + filter.classes() + " graphs written, " + filter.repeats() + " isomorphic repeats skipped");
+    }
+}
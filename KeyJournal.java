@@ -0,0 +1,194 @@
+/**
+ * KeyJournal.java
+ *
+ * Append-only file of the keys and g6codes that a template has put into its map,
+ * which replaces the map itself in checkpoints. Maps of templates such as EquiTemplate
+ * only grow while graphs are processed, so instead of serializing the whole map and G6Arena
+ * at each checkpoint, the template appends each key and g6code to the journal as it goes,
+ * and a checkpoint only contains the number of records and the position in the journal.
+ * When a run is resumed, the journal is truncated to that position, as output files are
+ * (see TemplateRunner.openOutput()), and its records are replayed into an empty map,
+ * which rebuilds exactly the same map, since putting keys into it is deterministic.
+ *
+ * Records are either a double key or a double array key, followed by a g6code,
+ * or a double array key followed by a reference (see ExternalGroupMap).
+ * The journal is kept only while checkpoints are enabled or while a shard is processed, and it is deleted by close().
+ *
+ * The records of a shard are also its partial results (see write()): replaying them into the map
+ * of the merging template puts each graph under its own key in the order of the input file,
+ * which rebuilds exactly the map of a single run over the whole input file.
+ * Merging the groups of the shard instead would not, since approximately equal keys
+ * may be grouped differently when they are put in another order.
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public class KeyJournal {
+    private String fileName;
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private long count;                 // number of records in the journal
+    private DataInputStream replay;     // journal being replayed after resuming, null when done
+    private long replayed;              // number of records replayed so far
+
+    /**
+     * Opens a new journal for a fresh run (checkpoint==null), or the journal of an interrupted run
+     * truncated to the position read from the checkpoint, whose records are then replayed by hasReplay(),
+     * readKey() or readVector(), and readCode().
+     */
+    public static KeyJournal open(String fileName, DataInputStream checkpoint) throws IOException {
+        KeyJournal journal = new KeyJournal();
+        journal.fileName = fileName;
+
+        if (checkpoint != null) {
+            if (!new File(fileName).isFile())
+                throw new FileNotFoundException("Journal " + fileName + " of the checkpoint is missing");
+            journal.count = checkpoint.readLong();
+        }
+        journal.file = TemplateRunner.openOutput(fileName, checkpoint);
+        journal.out = new DataOutputStream(new BufferedOutputStream(journal.file, 1 << 16));
+
+        if (journal.count > 0)
+            journal.replay = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+        return journal;
+    }
+
+    /**
+     * Replays the records written by write() to partial results, by hasReplay(), readKey() or readVector(),
+     * and readCode(). The journal is not opened, and the partial results are not closed.
+     */
+    public static KeyJournal replay(DataInputStream partial) throws IOException {
+        KeyJournal journal = new KeyJournal();
+        journal.count = partial.readLong();
+        journal.replay = partial;
+        return journal;
+    }
+
+    /**
+     * Appends a record with a double key.
+     */
+    public void add(double key, String g6code) throws IOException {
+        out.writeDouble(key);
+        writeCode(g6code);
+    }
+
+    /**
+     * Appends a record with a double array key.
+     */
+    public void add(double[] key, String g6code) throws IOException {
+        out.writeInt(key.length);
+        for (int i=0; i<key.length; i++)
+            out.writeDouble(key[i]);
+        writeCode(g6code);
+    }
+
+    /**
+     * Appends a record with a double array key and a reference, e.g., the offset of a g6code in the input file.
+     */
+    public void add(double[] key, long ref) throws IOException {
+        out.writeInt(key.length);
+        for (int i=0; i<key.length; i++)
+            out.writeDouble(key[i]);
+        out.writeLong(ref);
+        count++;
+    }
+
+    /**
+     * Name of the journal file.
+     */
+    public String fileName() {
+        return fileName;
+    }
+
+    /**
+     * Responds whether records of the interrupted run remain to be replayed.
+     */
+    public boolean hasReplay() throws IOException {
+        if (replay != null && replayed == count) {
+            if (file != null)               // partial results are closed by their owner
+                replay.close();
+            replay = null;
+        }
+        return replay != null;
+    }
+
+    /**
+     * Double key of the next record to be replayed.
+     */
+    public double readKey() throws IOException {
+        return replay.readDouble();
+    }
+
+    /**
+     * Double array key of the next record to be replayed.
+     */
+    public double[] readVector() throws IOException {
+        double[] key = new double[replay.readInt()];
+        for (int i=0; i<key.length; i++)
+            key[i] = replay.readDouble();
+        return key;
+    }
+
+    /**
+     * g6code of the next record to be replayed, which completes the record.
+     */
+    public String readCode() throws IOException {
+        byte[] code = new byte[replay.readInt()];
+        replay.readFully(code);
+        replayed++;
+        return new String(code, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reference of the next record to be replayed, which completes the record.
+     */
+    public long readRef() throws IOException {
+        replayed++;
+        return replay.readLong();
+    }
+
+    /**
+     * Writes the number of records and the position in the journal to a checkpoint.
+     * Records are forced to disk before the checkpoint is written (see Checkpoint.forceBefore()),
+     * so that the checkpoint never refers to records that are lost.
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        out.flush();
+        Checkpoint.forceBefore(checkpoint, new File(fileName));
+        checkpoint.writeLong(count);
+        TemplateRunner.savePosition(file, checkpoint);
+    }
+
+    /**
+     * Writes all records to partial results, in the order in which they have been appended.
+     */
+    public void write(DataOutputStream partial) throws IOException {
+        out.flush();
+        partial.writeLong(count);
+        TemplateRunner.appendFile(fileName, 0, file.getChannel().position(), partial);
+    }
+
+    /**
+     * Closes the journal, but keeps the file, as checkpoints may still refer to it.
+     */
+    public void end() throws IOException {
+        if (replay != null)
+            replay.close();
+        replay = null;
+        out.close();
+    }
+
+    /**
+     * Closes and deletes the journal, which a finished run has no use of.
+     */
+    public void close() throws IOException {
+        end();
+        new File(fileName).delete();
+    }
+
+    private void writeCode(String g6code) throws IOException {
+        out.writeInt(g6code.length());
+        out.writeBytes(g6code);
+        count++;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * ParameterSpace.java
+ *
+ * A finite space of parameters of a graph family, such as the bit sequences of threshold graphs
+ * or the pairs (a, b) of brooms. Points of the space are integer arrays of a fixed dimension,
+ * numbered from 0 to size()-1, so that any range of points can be decoded directly from its indices.
+ * This is what allows ParameterSpliterator to split a space into parts that are enumerated in parallel.
+ */
+public abstract class ParameterSpace {
+    /**
+     * Number of points in the space.
+     */
+    public abstract long size();
+
+    /**
+     * Number of parameters in each point.
+     */
+    public abstract int dimension();
+
+    /**
+     * Decodes the point with the given index into params.
+     */
+    public abstract void point(long index, int[] params);
+
+    /**
+     * Bit sequences of the given length, in lexicographic order:
+     * the first bit changes most slowly, as in nested for loops over bits[0], bits[1], ...
+     */
+    public static ParameterSpace bitStrings(int length) {
+        return new BitStrings(length);
+    }
+
+    /**
+     * Bit sequences of the given length in the order of the binary reflected Gray code,
+     * so that consecutive points differ in exactly one bit.
+     */
+    public static ParameterSpace grayCode(int length) {
+        return new GrayCode(length);
+    }
+
+    /**
+     * Integer tuples with from[i] <= params[i] <= to[i], in lexicographic order.
+     */
+    public static ParameterSpace tuples(int[] from, int[] to) {
+        return new IntegerTuples(from, to);
+    }
+
+    private static class BitStrings extends ParameterSpace {
+        private int length;
+
+        BitStrings(int length) {
+            if (length < 0 || length > 62)
+                throw new IllegalArgumentException("Bit sequences must have at most 62 bits");
+            this.length = length;
+        }
+
+        public long size() {
+            return 1L << length;
+        }
+
+        public int dimension() {
+            return length;
+        }
+
+        public void point(long index, int[] params) {
+            for (int i=0; i<length; i++)
+                params[i] = (int) ((index >>> (length-1-i)) & 1);
+        }
+
+        public String toString() {
+            return "bit strings of length " + length;
+        }
+    }
+
+    private static class GrayCode extends BitStrings {
+        GrayCode(int length) {
+            super(length);
+        }
+
+        public void point(long index, int[] params) {
+            super.point(index ^ (index >>> 1), params);
+        }
+
+        public String toString() {
+            return "Gray code of length " + dimension();
+        }
+    }
+
+    private static class IntegerTuples extends ParameterSpace {
+        private int[] from, to;
+        private long size;
+
+        IntegerTuples(int[] from, int[] to) {
+            if (from.length != to.length)
+                throw new IllegalArgumentException("Bounds of tuples have different dimensions");
+            this.from = from.clone();
+            this.to = to.clone();
+
+            size = 1;
+            for (int i=0; i<from.length; i++)
+                size = Math.multiplyExact(size, Math.max(0, to[i]-from[i]+1));
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public int dimension() {
+            return from.length;
+        }
+
+        public void point(long index, int[] params) {
+            for (int i=from.length-1; i>=0; i--) {
+                long range = to[i]-from[i]+1;
+                params[i] = from[i] + (int) (index % range);
+                index /= range;
+            }
+        }
+
+        public String toString() {
+            return "tuples from " + Graph.printVector(from) + " to " + Graph.printVector(to);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * ParameterSpliterator.java
+ *
+ * Traverses the points of a ParameterSpace with indices in [from, to).
+ * Splitting hands the first half of the remaining range to a new spliterator,
+ * so that a fork/join computation (or a parallel stream) can divide the space into as many parts as it needs
+ * without ever materializing the points, and still collect results in the order of points.
+ * Each point is passed as a new array, which the consumer may keep.
+ */
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+public class ParameterSpliterator implements Spliterator<int[]> {
+    private ParameterSpace space;
+    private long from, to;              // indices of the remaining points
+
+    public ParameterSpliterator(ParameterSpace space, long from, long to) {
+        this.space = space;
+        this.from = from;
+        this.to = to;
+    }
+
+    public ParameterSpliterator(ParameterSpace space) {
+        this(space, 0, space.size());
+    }
+
+    /**
+     * Index of the next point to be traversed.
+     */
+    public long position() {
+        return from;
+    }
+
+    public boolean tryAdvance(Consumer<? super int[]> action) {
+        if (from >= to)
+            return false;
+
+        int[] params = new int[space.dimension()];
+        space.point(from++, params);
+        action.accept(params);
+        return true;
+    }
+
+    public Spliterator<int[]> trySplit() {
+        long middle = from + (to-from)/2;
+        if (middle == from)
+            return null;
+
+        ParameterSpliterator prefix = new ParameterSpliterator(space, from, middle);
+        from = middle;
+        return prefix;
+    }
+
+    public long estimateSize() {
+        return to - from;
+    }
+
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
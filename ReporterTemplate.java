@@ -16,20 +16,30 @@
  *        0 if you do NOT want to create Graphviz .dot files,
  *        1 if you do want to create Graphviz .dot files for further visualisation
  * - study your results!
+ *
+ * Instead of a .csv file, results may be written to a binary columnar file graphs.g6.results.col
+ * by calling 'run(String inputFileName, int createDotFiles, int format)' with format 1 (or 2 for compressed columns),
+ * which is smaller, faster to write and to read again (see ColumnarResults),
+ * and which can still be exported to .results.csv or .results.tex on demand.
+ *
+ * The template is run by TemplateRunner, which calls process() for each graph in the input file.
+ * For long runs, checkpoints may be enabled with TemplateRunner.setCheckpointInterval(int seconds),
+ * and large input files may be split into shards (see TemplateRunner.setShard(int, int))
+ * whose output files are then concatenated by ShardMerge.
  */
 import java.io.*;
 
-public class ReporterTemplate {
+public class ReporterTemplate implements GraphTemplate {
     // Variables needed to run the template
     private String g6code;          // g6code of a graph
-    private Graph g;                // graph
+    private int createDotFiles;     // whether to write Graphviz .dot files for g6codes
+    private int format;             // 0 for .csv, 1 for columnar, 2 for compressed columnar results
     
     // Files
-    private BufferedReader in;      // input file with graphs
-    private PrintWriter outResults; // output file for selected graphs and other data
-
-    // graph counter, useful for occassionally printing the number of graphs processed so far
-    private static int counter;
+    private FileOutputStream outFile;   // output file, whose position is saved in checkpoints
+    private ResultWriter outResults; // output file for selected graphs and other data
+    private String outputFileName;  // name of the output file
+    private ColumnarResults.Writer outColumns;  // columnar output file, used instead of outResults if format>0
     
     public ReporterTemplate() {
     }
@@ -40,52 +50,150 @@ public class ReporterTemplate {
      * while createDotFiles instructs whether to write Graphviz .dot files for g6codes
      */
     public void run(String inputFileName, int createDotFiles) throws IOException {
-        long startTime = System.currentTimeMillis();               // Take a note of starting time
-        counter = 0;                                               // Initialise counter
-        
-        in = new BufferedReader(new FileReader(inputFileName));    // Open input and output files
-        outResults = new PrintWriter(new BufferedWriter(new FileWriter(inputFileName + ".results.csv")));
-        outResults.println("g6code, energy, nullity");             // Header line of .csv file
+        run(inputFileName, createDotFiles, 0);
+    }
 
-        // Strings, arrays and other objects need to be created with "new" keyword.
-        // For arrays, one has to specify type and dimensions as well.
-        g6code = new String();
-        
-        while ((g6code = in.readLine())!=null) {  // Loading g6 codes until an empty line is found
-            g = new Graph(g6code);                // Create a graph out of its g6 code
+    /**
+     * If format is 1 (or 2), results are written to a (compressed) columnar file instead of a .csv file
+     */
+    public void run(String inputFileName, int createDotFiles, int format) throws IOException {
+        this.createDotFiles = createDotFiles;
+        this.format = format;
+        TemplateRunner.run(this, inputFileName);
+    }
+
+    /**
+     * Sets createDotFiles and the optional format from strings, as in main()
+     */
+    public void configure(String[] params) {
+        createDotFiles = Integer.decode(params[0]);
+        format = (params.length > 1) ? Integer.decode(params[1]) : 0;
+    }
+
+    /**
+     * Parameters in the form accepted by configure()
+     */
+    public String[] parameters() {
+        if (format > 0)
+            return new String[] { "" + createDotFiles, "" + format };
+        return new String[] { "" + createDotFiles };
+    }
+
+    /**
+     * Opens the output file, either anew or at the position saved in the checkpoint
+     */
+    public void begin(String inputFileName, String outputPrefix, DataInputStream checkpoint) throws IOException {
+        if (format > 0) {
+            outputFileName = outputPrefix + ".results.col";
+            outColumns = (checkpoint == null) ? ColumnarResults.create(outputFileName,
+                                                    new String[] { "g6code", "energy", "nullity" }, "GDI", format > 1)
+                                              : ColumnarResults.resume(outputFileName, checkpoint);
+            return;
+        }
+
+        outputFileName = outputPrefix + ".results.csv";
+        outFile = TemplateRunner.openOutput(outputFileName, checkpoint);
+        outResults = new ResultWriter(outFile);
+        if (checkpoint == null)
+            outResults.println("g6code, energy, nullity");             // Header line of .csv file
+    }
+
+    /**
+     * Called for each graph from the input file
+     */
+    public void process(Graph g, long offset) throws IOException {
+        g6code = g.g6code();
             
-            // Calculate necessary invariants here:
-            double energy = g.energy();                  // energy is provided in Graph class
-
-            double[] eigs = g.Aspectrum();                 // eigenvalues of adjacency matrix
-            int nullity = 0;
-            for (int i=0; i<g.n(); i++)           // how many eigenvalues are approximately 0?
-                if (DoubleUtil.equals(eigs[i], 0.0))
-                    nullity++;
+        // Calculate necessary invariants here:
+        double energy = g.energy();                  // energy is provided in Graph class
+
+        int nullity = g.nullity();                   // how many eigenvalues are approximately 0?
                             
-            // Output g6code and invariant values here:
-            outResults.println(g6code + ", " + energy + ", " + nullity);
+        // Output g6code and invariant values here:
+        if (format > 0)
+            outColumns.add(g6code).add(energy).add(nullity);       // in the order of columns
+        else
+            outResults.print(g6code).print(", ").print(energy).print(", ").print(nullity).println();
 
-            // export graph in Graphviz format for later visualisation
-            if (createDotFiles!=0)
-                g.saveDotFormat("energy-nullity-n-" + g.n() + "-g6code-" + g6code + ".dot", 
-                                "energy="+energy+", nullity="+nullity);
+        // export graph in Graphviz format for later visualisation
+        if (createDotFiles!=0)
+            g.saveDotFormat("energy-nullity-n-" + g.n() + "-g6code-" + g6code + ".dot", 
+                            "energy="+energy+", nullity="+nullity);
+    }
 
-            counter++;                            // Update counter and report progress
-            if (counter % 10000 == 0)
-                System.out.println("" + counter + " graphs processed so far");
+    /**
+     * Only the position in the output file has to be saved in a checkpoint
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        if (format > 0) {
+            outColumns.saveState(checkpoint);
+            return;
         }
-        
-        in.close();                              // Testing done, close the files
+        outResults.flush();
+        TemplateRunner.savePosition(outFile, checkpoint);
+    }
+
+    /**
+     * Called after all graphs have been processed
+     */
+    public void end() throws IOException {
+        if (format > 0)
+            outColumns.close();
+        else
+            outResults.close();                      // Testing done, close the file
+    }
+
+    /**
+     * Partial result of a shard is the range of its output file that belongs to the merged output,
+     * i.e., everything after the header line, or the whole columnar file
+     */
+    public void endPartial(DataOutputStream partial) throws IOException {
+        if (format > 0) {
+            outColumns.close();
+            partial.writeUTF(outputFileName);
+            return;
+        }
+
+        outResults.flush();
+        long length = outFile.getChannel().position();
         outResults.close();
-        
-        long totalTime = System.currentTimeMillis() - startTime;    // Report elapsed time
-        System.out.println("Time elapsed: " + 
-            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+
+        G6Reader shardOutput = new G6Reader(outputFileName);   // the merged output has its own header line
+        shardOutput.readLine();
+        long header = shardOutput.position();
+        shardOutput.close();
+
+        partial.writeUTF(outputFileName);
+        partial.writeLong(header);
+        partial.writeLong(length);
+    }
+
+    /**
+     * Appends the output of the next shard to the output file
+     */
+    public void mergePartial(DataInputStream partial) throws IOException {
+        if (format > 0) {
+            ColumnarResults shardOutput = ColumnarResults.open(partial.readUTF());
+            outColumns.append(shardOutput);
+            shardOutput.close();
+            return;
+        }
+
+        String shardFileName = partial.readUTF();
+        long from = partial.readLong();
+        long to = partial.readLong();
+
+        outResults.flush();
+        TemplateRunner.appendFile(shardFileName, from, to, outFile);
     }
     
-    // This function may be used to run the template from out of BlueJ
+    // This function may be used to run the template from out of BlueJ,
+    // with optional third argument being the format of results (0 for .csv, 1 or 2 for columnar)
     public static void main(String[] args) throws IOException, NumberFormatException {
-        new ReporterTemplate().run(args[0], Integer.decode(args[1]));
+        args = TemplateRunner.parseOptions(args);
+        if (args.length > 2)
+            new ReporterTemplate().run(args[0], Integer.decode(args[1]), Integer.decode(args[2]));
+        else
+            new ReporterTemplate().run(args[0], Integer.decode(args[1]));
     }
 }
@@ -0,0 +1,507 @@
+/**
+ * ResultWriter.java
+ *
+ * Writer of text results that formats ints, longs and doubles directly into a reusable byte buffer,
+ * without creating strings or taking locks for every value, as PrintWriter, "" + value and printf do.
+ * The buffer is written to a FileChannel whenever it is full, in chunks of BUFFER_SIZE bytes,
+ * or it is kept in memory and grows, so that toString() returns everything written so far.
+ * Templates write their results with it, and Graph.printVector(), Graph.printMatrix(), DoubleVector.toString()
+ * and other helpers that return strings are written with it through format().
+ *
+ * Doubles are written in the layout of Double.toString(): as the shortest decimal that rounds to the same double,
+ * in plain notation for magnitudes from 10^-3 to 10^7, and in computerized scientific notation otherwise.
+ * Shortest decimals are found by the Schubfach algorithm of Raffaello Giulietti
+ * (The Schubfach way to render doubles, 2020), which Double.toString() itself uses from Java 19 on.
+ * Older Java versions occasionally print more digits than necessary, e.g., 1.9999999999999998E23 instead of 2.0E23,
+ * so that rarely a value differs from "" + value in its last digits, while both denote the same double.
+ * Doubles with a fixed number of decimals, as by printf("%.6f"), are rounded half up from the shortest decimal,
+ * as Formatter does, but always with a decimal point rather than with the separator of the default locale.
+ */
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class ResultWriter {
+    public static final int BUFFER_SIZE = 1 << 20;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * Writes something to a ResultWriter, for format().
+     */
+    public interface Action {
+        void write(ResultWriter out) throws IOException;
+    }
+
+    /**
+     * The string that the action writes to a writer kept in memory,
+     * e.g., format(out -> out.printVector(vec, "[,]")).
+     */
+    public static String format(Action action) {
+        ResultWriter out = new ResultWriter();
+        try {
+            action.write(out);
+        }
+        catch (IOException e) {             // a writer kept in memory writes no file
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private FileOutputStream out;       // null if everything is kept in memory
+    private FileChannel channel;
+    private byte[] buffer;
+    private ByteBuffer wrapped;         // the same buffer, for writing to the channel
+    private int size;
+
+    private long significand;           // decimal of the last double: significand * 10^exponent
+    private int exponent;
+    private int length;                 // number of digits of the significand
+    private byte[] digits = new byte[20];
+
+    /**
+     * Creates a writer that keeps everything in memory, e.g., for building strings.
+     */
+    public ResultWriter() {
+        buffer = new byte[64];
+    }
+
+    /**
+     * Creates a writer to a new file.
+     */
+    public ResultWriter(String fileName) throws IOException {
+        this(new FileOutputStream(fileName));
+    }
+
+    /**
+     * Creates a writer that continues at the current position of the stream,
+     * e.g., of an output file opened by TemplateRunner.openOutput().
+     * The position of the stream is up to date after flush(), and the stream is closed by close().
+     */
+    public ResultWriter(FileOutputStream out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer to the stream with a smaller buffer, e.g., for many small files.
+     */
+    public ResultWriter(FileOutputStream out, int bufferSize) {
+        this.out = out;
+        channel = out.getChannel();
+        buffer = new byte[bufferSize];
+        wrapped = ByteBuffer.wrap(buffer);
+    }
+
+    public ResultWriter print(String s) throws IOException {
+        int n = s.length();
+        for (int i=0; i<n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {                // not ASCII: encoded as PrintWriter would encode it
+                print(s.substring(i).getBytes());
+                return this;
+            }
+            if (size == buffer.length)
+                makeRoom(1);
+            buffer[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    public ResultWriter print(char c) throws IOException {
+        if (c >= 0x80)
+            return print(String.valueOf(c));
+        if (size == buffer.length)
+            makeRoom(1);
+        buffer[size++] = (byte) c;
+        return this;
+    }
+
+    public ResultWriter print(byte[] bytes) throws IOException {
+        for (int done=0; done<bytes.length; ) {
+            if (size == buffer.length)
+                makeRoom(1);
+            int count = Math.min(bytes.length - done, buffer.length - size);
+            System.arraycopy(bytes, done, buffer, size, count);
+            size += count;
+            done += count;
+        }
+        return this;
+    }
+
+    public ResultWriter print(int value) throws IOException {
+        return print((long) value);
+    }
+
+    public ResultWriter print(long value) throws IOException {
+        if (value == Long.MIN_VALUE)
+            return print("" + value);
+        makeRoom(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count > 0)
+            buffer[size++] = digits[--count];
+        return this;
+    }
+
+    /**
+     * Writes the double as Double.toString() does, with the shortest decimal that rounds to it.
+     */
+    public ResultWriter print(double value) throws IOException {
+        makeRoom(32);
+        if (Double.isNaN(value))
+            return print("NaN");
+        if (value < 0 || (value == 0 && 1/value < 0)) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        if (value == Double.POSITIVE_INFINITY)
+            return print("Infinity");
+        if (value == 0)
+            return print("0.0");
+
+        decimal(value);
+        while (significand % 10 == 0) {     // trailing zeros are not written
+            significand /= 10;
+            exponent++;
+        }
+        fillDigits();
+        int e = exponent + length;          // value = 0.digits * 10^e
+
+        if (0 < e && e <= 7) {              // plain notation
+            for (int i=0; i<e; i++)
+                buffer[size++] = (i < length) ? digits[i] : (byte) '0';
+            buffer[size++] = '.';
+            if (length <= e)
+                buffer[size++] = '0';
+            for (int i=e; i<length; i++)
+                buffer[size++] = digits[i];
+        }
+        else if (-3 < e && e <= 0) {        // 0.00ddd
+            buffer[size++] = '0';
+            buffer[size++] = '.';
+            for (int i=e; i<0; i++)
+                buffer[size++] = '0';
+            for (int i=0; i<length; i++)
+                buffer[size++] = digits[i];
+        }
+        else {                              // computerized scientific notation
+            buffer[size++] = digits[0];
+            buffer[size++] = '.';
+            if (length == 1)
+                buffer[size++] = '0';
+            for (int i=1; i<length; i++)
+                buffer[size++] = digits[i];
+            buffer[size++] = 'E';
+            print(e - 1);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the double with the given number of decimals, as printf("%.<decimals>f") does.
+     */
+    public ResultWriter print(double value, int decimals) throws IOException {
+        if (Double.isNaN(value))
+            return print("NaN");
+        makeRoom(1);
+        if (value < 0 || (value == 0 && 1/value < 0)) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        if (value == Double.POSITIVE_INFINITY)
+            return print("Infinity");
+
+        int e = 0;                          // value = 0.digits * 10^e, rounded half up to the decimals
+        length = 0;
+        if (value != 0) {
+            decimal(value);
+            fillDigits();
+            e = exponent + length;
+
+            int keep = e + decimals;        // digits before the last decimal
+            if (keep < 0)
+                length = 0;
+            else if (keep < length) {
+                boolean up = digits[keep] >= '5';
+                length = keep;
+                if (up) {
+                    int i = keep - 1;
+                    while (i >= 0 && digits[i] == '9')
+                        i--;
+                    if (i >= 0) {
+                        digits[i]++;
+                        length = i + 1;
+                    }
+                    else {                  // 0.999.. becomes 1.000..
+                        digits[0] = '1';
+                        length = 1;
+                        e++;
+                    }
+                }
+            }
+        }
+
+        makeRoom(Math.max(e, 1) + decimals + 1);
+        if (e <= 0)
+            buffer[size++] = '0';
+        for (int i=0; i<e; i++)
+            buffer[size++] = (i < length) ? digits[i] : (byte) '0';
+        if (decimals > 0) {
+            buffer[size++] = '.';
+            for (int i=e; i<e+decimals; i++)
+                buffer[size++] = (i >= 0 && i < length) ? digits[i] : (byte) '0';
+        }
+        return this;
+    }
+
+    /**
+     * Ends the line with the line separator of the system, as PrintWriter.println() does.
+     */
+    public ResultWriter println() throws IOException {
+        return print(LINE_SEPARATOR);
+    }
+
+    public ResultWriter println(String s) throws IOException {
+        return print(s).print(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the vector as Graph.printVector() describes:
+     * delims.charAt(0) at the beginning, delims.charAt(1) and a space between entries, delims.charAt(2) at the end.
+     */
+    public ResultWriter printVector(int[] vec, String delims) throws IOException {
+        print(delims.charAt(0));
+        for (int i=0; i<vec.length; i++) {
+            print(vec[i]);
+            if (i!=vec.length-1)            // was it the last entry?
+                print(delims.charAt(1)).print(' ');
+        }
+        return print(delims.charAt(2));
+    }
+
+    public ResultWriter printVector(double[] vec, String delims) throws IOException {
+        print(delims.charAt(0));
+        for (int i=0; i<vec.length; i++) {
+            print(vec[i]);
+            if (i!=vec.length-1)            // was it the last entry?
+                print(delims.charAt(1)).print(' ');
+        }
+        return print(delims.charAt(2));
+    }
+
+    /**
+     * Writes the matrix as a vector of its rows, each written by printVector().
+     */
+    public ResultWriter printMatrix(int[][] mat, String delims) throws IOException {
+        print(delims.charAt(0));
+        for (int i=0; i<mat.length; i++) {
+            printVector(mat[i], delims);
+            if (i!=mat.length-1)            // was it the last row?
+                print(delims.charAt(1)).print(' ');
+        }
+        return print(delims.charAt(2));
+    }
+
+    public ResultWriter printMatrix(double[][] mat, String delims) throws IOException {
+        print(delims.charAt(0));
+        for (int i=0; i<mat.length; i++) {
+            printVector(mat[i], delims);
+            if (i!=mat.length-1)            // was it the last row?
+                print(delims.charAt(1)).print(' ');
+        }
+        return print(delims.charAt(2));
+    }
+
+    /**
+     * Writes the buffer to the file, so that the position of its stream is up to date.
+     */
+    public void flush() throws IOException {
+        if (channel == null)
+            return;
+        wrapped.clear();
+        wrapped.limit(size);
+        while (wrapped.hasRemaining())
+            channel.write(wrapped);
+        size = 0;
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (out != null)
+            out.close();
+    }
+
+    /**
+     * Everything written so far to a writer kept in memory.
+     */
+    public String toString() {
+        return new String(buffer, 0, size, java.nio.charset.StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Everything written so far to a writer kept in memory, as bytes.
+     */
+    public byte[] toByteArray() {
+        return java.util.Arrays.copyOf(buffer, size);
+    }
+
+    // Makes sure that the buffer has room for count more bytes
+    private void makeRoom(int count) throws IOException {
+        if (size + count <= buffer.length)
+            return;
+        if (channel != null) {
+            flush();
+            if (count <= buffer.length)
+                return;
+        }
+        buffer = java.util.Arrays.copyOf(buffer, Math.max(size + count, 2*buffer.length));
+        if (channel != null)
+            wrapped = ByteBuffer.wrap(buffer);
+    }
+
+    // Digits of the significand as characters, and their number
+    private void fillDigits() {
+        long s = significand;
+        length = 0;
+        for (long p = s; p > 0; p /= 10)
+            length++;
+        for (int i=length-1; i>=0; i--) {
+            digits[i] = (byte) ('0' + s % 10);
+            s /= 10;
+        }
+    }
+
+    /*
+     * Schubfach: the shortest decimal significand * 10^exponent within the rounding interval
+     * of a positive finite double, and the one closest to it if there are several.
+     * The double is c * 2^q, and its rounding interval is scaled by 10^-k, with k chosen
+     * so that the interval holds at most one multiple of 10 and at least one integer.
+     * Products with powers of ten are computed with 126-bit approximations G of 10^-k, rounded to odd,
+     * which are accurate enough to decide each comparison correctly.
+     */
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << 52;
+    private static final int K_MIN = -324, K_MAX = 292;
+    private static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+    private static final long[] G = powersOfTen();
+
+    private void decimal(double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & (C_MIN - 1);
+        int bq = (int) (bits >>> 52) & 0x7FF;
+
+        if (bq != 0) {                      // normal: v = c * 2^-mq
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            if (0 < mq && mq < 53) {        // integers are their own shortest decimals
+                long f = c >> mq;
+                if (f << mq == c) {
+                    significand = f;
+                    exponent = 0;
+                    return;
+                }
+            }
+            decimal(-mq, c, 0);
+        }
+        else if (t < 3)                     // tiny subnormals need one more digit of precision
+            decimal(Q_MIN, 10*t, -1);
+        else
+            decimal(Q_MIN, t, 0);
+    }
+
+    private void decimal(int q, long c, int dk) {
+        int out = (int) c & 1;              // are the bounds of the rounding interval excluded?
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        }
+        else {                              // the interval is asymmetric at powers of two
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+        long g1 = G[2*(k - K_MIN)], g0 = G[2*(k - K_MIN) + 1];
+
+        long vb = rop(g1, g0, cb << h);     // 4 * v * 10^-k and the bounds of its interval
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {                     // a multiple of 10 within the interval has fewer digits
+            long sp10 = s / 10 * 10;
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                significand = upin ? sp10 : tp10;
+                exponent = k + dk;
+                return;
+            }
+        }
+
+        long t = s + 1;                     // otherwise s or s+1, whichever is in the interval and closer
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+            significand = uin ? s : t;
+        else {
+            long cmp = vb - (s + t << 1);
+            significand = (cmp < 0 || cmp == 0 && (s & 1) == 0) ? s : t;
+        }
+        exponent = k + dk;
+    }
+
+    // Product of g = g1 * 2^63 + g0 and cp, divided by 2^127 and rounded to odd
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    // floor(q * log10(2))
+    private static int flog10pow2(int q) {
+        return (int) (q * 661971961083L >> 41);
+    }
+
+    // floor(q * log10(2) + log10(3/4))
+    private static int flog10threeQuartersPow2(int q) {
+        return (int) (q * 661971961083L - 274743187321L >> 41);
+    }
+
+    // floor(e * log2(10))
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    // For each k, g = floor(10^-k * 2^(125 - flog2pow10(-k))) + 1, split into its upper and lower 63 bits
+    private static long[] powersOfTen() {
+        long[] g = new long[2*(K_MAX - K_MIN + 1)];
+        BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+        for (int k=K_MIN; k<=K_MAX; k++) {
+            int e = -k, shift = 125 - flog2pow10(e);
+            BigInteger beta;
+            if (e >= 0)
+                beta = (shift >= 0) ? BigInteger.TEN.pow(e).shiftLeft(shift) : BigInteger.TEN.pow(e).shiftRight(-shift);
+            else
+                beta = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(-e));
+            beta = beta.add(BigInteger.ONE);
+            g[2*(k - K_MIN)] = beta.shiftRight(63).longValue();
+            g[2*(k - K_MIN) + 1] = beta.and(mask).longValue();
+        }
+        return g;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * ShardMerge.java
+ *
+ * Combines partial results of the shards of an input file (see TemplateRunner.setShard(int, int))
+ * into the results of a single run of the template over the whole input file.
+ *
+ * For example, after
+ *     java ExtremalTemplate graphs.g6 3 1 --shard=0/2
+ *     java ExtremalTemplate graphs.g6 3 1 --shard=1/2
+ * have been run, possibly at the same time on different machines,
+ *     java ShardMerge ExtremalTemplate graphs.g6 2 3 1
+ * writes graphs.g6.results.tex just as
+ *     java ExtremalTemplate graphs.g6 3 1
+ * would have done. The template is given the same parameters as in the shard runs,
+ * and partial results written with other parameters are refused.
+ * Partial results and other output files of the shards are deleted once they are merged.
+ */
+import java.io.*;
+import java.util.Arrays;
+
+public class ShardMerge {
+    /**
+     * Merges partial results of all shards of the input file, in the order of shards,
+     * with the template, which is then asked to report the results.
+     */
+    public static void merge(GraphTemplate template, String inputFileName, int shards) throws IOException {
+        long inputLength = new File(inputFileName).length();
+        long counter = 0;
+
+        template.begin(inputFileName, inputFileName, null);
+
+        for (int i=0; i<shards; i++) {
+            String partialFileName = TemplateRunner.shardPrefix(inputFileName, i, shards) + ".partial";
+            DataInputStream partial = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(partialFileName)));
+
+            String templateName = partial.readUTF();
+            boolean sameParameters = TemplateRunner.readParameters(template, partial);
+            long savedLength = partial.readLong();
+            int shardIndex = partial.readInt();
+            int shardCount = partial.readInt();
+            if (!templateName.equals(template.getClass().getName()) || !sameParameters || savedLength != inputLength ||
+                shardIndex != i || shardCount != shards) {
+                partial.close();
+                throw new IOException(partialFileName + " does not belong to shard " + i + "/" + shards +
+                                      " of " + inputFileName + " processed by " + template.getClass().getName() +
+                                      " with parameters " + Arrays.toString(template.parameters()));
+            }
+
+            counter += partial.readLong();
+            template.mergePartial(partial);
+            partial.close();
+        }
+
+        template.end();
+        for (int i=0; i<shards; i++)                // partial results and outputs of shards are no longer needed
+            TemplateRunner.deleteOutputs(TemplateRunner.shardPrefix(inputFileName, i, shards));
+        System.out.println("Results of " + counter + " graphs from " + shards + " shards merged");
+    }
+
+    /**
+     * Arguments are the name of the template class, the name of the input file,
+     * the number of shards, and the parameters of the template.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] params = new String[args.length-3];
+        System.arraycopy(args, 3, params, 0, params.length);
+
+        merge(TemplateRunner.newTemplate(args[0], params), args[1], Integer.parseInt(args[2]));
+    }
+}
@@ -0,0 +1,640 @@
+/**
+ * SpectralIndex.java
+ *
+ * Index of a catalog of g6 files by an invariant, either a number such as energy
+ * or a vector such as the adjacency spectrum, so that questions like
+ * "which graphs have energy in [a,b]" or "which graphs have a spectrum within epsilon of this one"
+ * are answered in milliseconds instead of by another scan over all graphs.
+ *
+ * The index is a directory with a catalog of indexed files and a number of sorted runs.
+ * A run is a file of fixed-size entries (projection, value of the invariant, file, offset of the g6code),
+ * sorted by DoubleUtil.projection() of the values, just as ExternalGroupMap sorts its runs,
+ * and then by files and offsets, so that the order of entries does not depend on how they were added.
+ * Runs are memory mapped and searched by binary search on projections:
+ * - range queries of scalar invariants scan the entries between the projections of the bounds;
+ * - values within epsilon of a vector in every coordinate, including approximately equal values
+ *   (see DoubleUtil.equals()), have projections within epsilon times the sum of the projection weights;
+ * - the Euclidean distance of two vectors is at least the difference of their projections divided by
+ *   the norm of the projection weights, so nearest neighbours are found by scanning outwards from the projection
+ *   of the query until that bound exceeds the distance of the k-th nearest value found so far.
+ * Values of different lengths (e.g., spectra of graphs of different orders) are kept in different runs,
+ * and a query searches only the runs of its own length.
+ *
+ * The index is built once by add(), which computes the invariant for the graphs of a file
+ * and writes their entries in runs of at most RUN_SIZE entries. The catalog remembers how many bytes of each file
+ * are indexed, so that adding the same file again indexes only the graphs appended to it since,
+ * and new files simply add new runs. compact() merges all runs of the same length into one.
+ *
+ * From the command line:
+ *     java SpectralIndex add index-dir energy graph10.g6 graph11.g6
+ *     java SpectralIndex range index-dir 12.5 13
+ *     java SpectralIndex within index-dir 0.001 "I?qa`hhN?"   (a g6code, or a comma-separated vector)
+ *     java SpectralIndex equal index-dir "I?qa`hhN?"
+ *     java SpectralIndex nearest index-dir 10 "I?qa`hhN?"
+ *     java SpectralIndex compact index-dir
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class SpectralIndex {
+    /**
+     * Number of entries sorted in memory before they are written to a run.
+     */
+    public static final int RUN_SIZE = 1 << 20;
+
+    private static final String CATALOG = "catalog";
+    private static final String FORMAT = "graph6java spectral index 1";
+
+    private File directory;
+    private String invariant;                   // name of the invariant
+    private Function<Graph, double[]> function; // computes the invariant, null if it is not known by name
+    private ArrayList<String> files;            // indexed g6 files
+    private ArrayList<Long> indexed;            // number of bytes indexed in each file
+    private ArrayList<Run> runs;
+    private int nextRun;                        // number of the next run file
+
+    /**
+     * A graph found by a query.
+     */
+    public static class Entry {
+        public double[] value;                  // value of the invariant
+        public String fileName;
+        public long offset;                     // offset of the g6code within the file
+        public String g6code;
+        int fileIndex;                          // index of the file in the catalog
+        double distance;                        // distance from the query, for nearest()
+
+        public String toString() {
+            return g6code + ", " + ((value.length == 1) ? "" + value[0] : Graph.printVector(value));
+        }
+    }
+
+    /**
+     * Invariants known by name: "energy", "Lenergy", "Qenergy", "sprad" (the spectral radius),
+     * "Aspectrum", "Lspectrum" and "Qspectrum".
+     */
+    public static Function<Graph, double[]> invariant(String name) {
+        if (name.equals("energy"))
+            return g -> new double[] { g.energy() };
+        else if (name.equals("Lenergy"))
+            return g -> new double[] { g.Lenergy() };
+        else if (name.equals("Qenergy"))
+            return g -> new double[] { g.Qenergy() };
+        else if (name.equals("sprad"))
+            return g -> new double[] { g.Aspectrum()[g.n()-1] };
+        else if (name.equals("Aspectrum"))
+            return Graph::Aspectrum;
+        else if (name.equals("Lspectrum"))
+            return Graph::Lspectrum;
+        else if (name.equals("Qspectrum"))
+            return Graph::Qspectrum;
+        else
+            return null;
+    }
+
+    /**
+     * Opens the index in the directory, or creates an empty one for the invariant known by name.
+     */
+    public SpectralIndex(String directory, String invariant) throws IOException {
+        this(directory, invariant, invariant(invariant));
+    }
+
+    /**
+     * Opens the index in the directory, or creates an empty one,
+     * for the invariant with the given name computed by the function.
+     */
+    public SpectralIndex(String directory, String invariant, Function<Graph, double[]> function) throws IOException {
+        this.directory = new File(directory);
+        this.invariant = invariant;
+        this.function = function;
+        files = new ArrayList<String>();
+        indexed = new ArrayList<Long>();
+        runs = new ArrayList<Run>();
+        nextRun = 0;
+
+        File catalog = new File(this.directory, CATALOG);
+        if (!catalog.exists()) {
+            if (function == null)
+                throw new IllegalArgumentException("Unknown invariant " + invariant);
+            this.directory.mkdirs();
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalog)));
+        if (!in.readUTF().equals(FORMAT)) {
+            in.close();
+            throw new IOException(catalog + " is not a catalog of a spectral index");
+        }
+        String name = in.readUTF();
+        if (invariant != null && !invariant.equals(name)) {
+            in.close();
+            throw new IllegalArgumentException("Index " + directory + " is an index of " + name + ", not of " + invariant);
+        }
+        this.invariant = name;
+        if (this.function == null)
+            this.function = invariant(name);
+
+        int fileCount = in.readInt();
+        for (int i=0; i<fileCount; i++) {
+            files.add(in.readUTF());
+            indexed.add(in.readLong());
+        }
+        nextRun = in.readInt();
+        int runCount = in.readInt();
+        for (int i=0; i<runCount; i++)
+            runs.add(new Run(new File(this.directory, in.readUTF()), in.readInt(), in.readLong()));
+        in.close();
+    }
+
+    /**
+     * Opens an existing index, with the invariant named in its catalog.
+     */
+    public static SpectralIndex open(String directory) throws IOException {
+        if (!new File(directory, CATALOG).exists())
+            throw new FileNotFoundException("No spectral index in " + directory);
+        return new SpectralIndex(directory, null, null);
+    }
+
+    public String invariant() {
+        return invariant;
+    }
+
+    /**
+     * Value of the invariant of the graph.
+     */
+    public double[] value(Graph g) {
+        if (function == null)
+            throw new IllegalStateException("Invariant " + invariant + " is not known by name");
+        return function.apply(g);
+    }
+
+    /**
+     * Number of entries in the index.
+     */
+    public long size() {
+        long size = 0;
+        for (Run run : runs)
+            size += run.count;
+        return size;
+    }
+
+    /**
+     * Indexes the graphs of the g6 file that are not indexed yet:
+     * all of them for a new file, or those appended to the file since it was indexed.
+     *
+     * @return long Number of graphs indexed.
+     */
+    public long add(String g6FileName) throws IOException {
+        if (function == null)
+            throw new IllegalStateException("Invariant " + invariant + " is not known by name");
+
+        String path = new File(g6FileName).getCanonicalPath();
+        int fileIndex = files.indexOf(path);
+        long start = (fileIndex >= 0) ? indexed.get(fileIndex) : 0;
+        if (new File(path).length() < start)
+            throw new IOException(path + " is shorter than when it was indexed");
+        if (fileIndex < 0) {
+            fileIndex = files.size();
+            files.add(path);
+            indexed.add(0L);
+        }
+
+        HashMap<Integer, RunBuilder> builders = new HashMap<Integer, RunBuilder>();    // by lengths of values
+        G6Reader in = new G6Reader(path, start);
+        String g6code;
+        long counter = 0;
+        while ((g6code = in.readLine()) != null) {
+            double[] value = function.apply(new Graph(g6code));
+            RunBuilder builder = builders.get(value.length);
+            if (builder == null) {
+                builder = new RunBuilder(value.length);
+                builders.put(value.length, builder);
+            }
+            builder.add(value, fileIndex, in.offset());
+            if (builder.count == RUN_SIZE)
+                runs.add(builder.write());
+
+            counter++;
+            if (counter % 100000 == 0)
+                System.out.println("" + counter + " graphs indexed so far");
+        }
+        indexed.set(fileIndex, in.position());
+        in.close();
+
+        for (RunBuilder builder : builders.values())
+            if (builder.count > 0)
+                runs.add(builder.write());
+        saveCatalog();
+        return counter;
+    }
+
+    /**
+     * Merges all runs of the same length into a single run.
+     */
+    public void compact() throws IOException {
+        HashMap<Integer, ArrayList<Run>> byLength = new HashMap<Integer, ArrayList<Run>>();
+        for (Run run : runs) {
+            if (!byLength.containsKey(run.length))
+                byLength.put(run.length, new ArrayList<Run>());
+            byLength.get(run.length).add(run);
+        }
+
+        ArrayList<Run> merged = new ArrayList<Run>();
+        ArrayList<Run> obsolete = new ArrayList<Run>();
+        for (ArrayList<Run> group : byLength.values()) {
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+
+            File file = new File(directory, "run-" + (nextRun++) + ".dat");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            PriorityQueue<long[]> queue = new PriorityQueue<long[]>(     // (run, entry) in the order of entries
+                (a, b) -> group.get((int) a[0]).compare(a[1], group.get((int) b[0]), b[1]));
+            for (int r=0; r<group.size(); r++)
+                if (group.get(r).count > 0)
+                    queue.add(new long[] { r, 0 });
+
+            long count = 0;
+            while (!queue.isEmpty()) {
+                long[] head = queue.poll();
+                Run run = group.get((int) head[0]);
+                run.copyEntry(head[1], out);
+                count++;
+                if (++head[1] < run.count)
+                    queue.add(head);
+            }
+            out.close();
+
+            merged.add(new Run(file, group.get(0).length, count));
+            obsolete.addAll(group);
+        }
+
+        runs = merged;
+        saveCatalog();                          // old runs are deleted only once the catalog no longer refers to them
+        for (Run run : obsolete) {
+            run.close();
+            Files.deleteIfExists(run.file.toPath());
+        }
+    }
+
+    /**
+     * Graphs with the scalar invariant within [lo, hi], in increasing order of values.
+     */
+    public ArrayList<Entry> range(double lo, double hi) throws IOException {
+        double[] low = { lo }, high = { hi };
+        return search(1, DoubleUtil.projection(low), DoubleUtil.projection(high),
+                      value -> value[0] >= lo && value[0] <= hi);
+    }
+
+    /**
+     * Graphs whose value differs from the given one by at most epsilon in every coordinate.
+     */
+    public ArrayList<Entry> within(double[] value, double epsilon) throws IOException {
+        double p = DoubleUtil.projection(value);
+        double width = DoubleUtil.projectionWidth(value.length) / DoubleUtil.DOUBLE_EQUALITY_THRESHOLD * epsilon;
+        return search(value.length, p - width, p + width, other -> {
+            for (int i=0; i<value.length; i++)
+                if (Math.abs(other[i] - value[i]) > epsilon)
+                    return false;
+            return true;
+        });
+    }
+
+    /**
+     * Graphs whose value is approximately equal to the given one (see DoubleUtil.equals()).
+     */
+    public ArrayList<Entry> equal(double[] value) throws IOException {
+        double p = DoubleUtil.projection(value);
+        double width = DoubleUtil.projectionWidth(value.length);
+        return search(value.length, p - width, p + width, other -> DoubleUtil.equals(other, value));
+    }
+
+    /**
+     * The k graphs whose values are nearest to the given one in Euclidean distance, nearest first.
+     */
+    public ArrayList<Entry> nearest(double[] value, int k) throws IOException {
+        double p = DoubleUtil.projection(value);
+        double weightNorm = 0;                  // Euclidean norm of the projection weights
+        for (int i=0; i<value.length; i++) {
+            double[] unit = new double[value.length];
+            unit[i] = 1;
+            weightNorm += DoubleUtil.projection(unit) * DoubleUtil.projection(unit);
+        }
+        weightNorm = Math.sqrt(weightNorm);
+
+        PriorityQueue<Entry> best = new PriorityQueue<Entry>((a, b) -> Double.compare(b.distance, a.distance));
+        for (Run run : runs) {
+            if (run.length != value.length)
+                continue;
+
+            long start = run.lowerBound(p);
+            for (int direction=-1; direction<=1; direction+=2)
+                for (long i=(direction < 0) ? start-1 : start; i>=0 && i<run.count; i+=direction) {
+                    double bound = Math.abs(run.projection(i) - p) / weightNorm;
+                    if (best.size() == k && bound >= best.peek().distance)
+                        break;
+
+                    Entry entry = run.entry(i);
+                    double distance = 0;
+                    for (int j=0; j<value.length; j++)
+                        distance += (entry.value[j] - value[j]) * (entry.value[j] - value[j]);
+                    entry.distance = Math.sqrt(distance);
+                    if (best.size() < k)
+                        best.add(entry);
+                    else if (entry.distance < best.peek().distance) {
+                        best.poll();
+                        best.add(entry);
+                    }
+                }
+        }
+
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        while (!best.isEmpty())
+            result.add(0, best.poll());
+        resolve(result);
+        return result;
+    }
+
+    // Entries of runs with values of the given length, projections within [from, to] and values accepted by the test,
+    // in increasing order of projections
+    private ArrayList<Entry> search(int length, double from, double to, Predicate<double[]> test) throws IOException {
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        for (Run run : runs) {
+            if (run.length != length)
+                continue;
+            for (long i=run.lowerBound(from); i<run.count && run.projection(i) <= to; i++) {
+                Entry entry = run.entry(i);
+                if (test.test(entry.value))
+                    result.add(entry);
+            }
+        }
+
+        result.sort((a, b) -> {
+            int res = Double.compare(DoubleUtil.projection(a.value), DoubleUtil.projection(b.value));
+            if (res == 0)
+                res = Integer.compare(a.fileIndex, b.fileIndex);
+            return (res != 0) ? res : Long.compare(a.offset, b.offset);
+        });
+        resolve(result);
+        return result;
+    }
+
+    // Reads the g6codes of the entries back from their files
+    private void resolve(ArrayList<Entry> entries) throws IOException {
+        HashMap<String, RandomAccessFile> open = new HashMap<String, RandomAccessFile>();
+        for (Entry entry : entries) {
+            RandomAccessFile file = open.get(entry.fileName);
+            if (file == null) {
+                file = new RandomAccessFile(entry.fileName, "r");
+                open.put(entry.fileName, file);
+            }
+            entry.g6code = G6Reader.readCodeAt(file, entry.offset);
+        }
+        for (RandomAccessFile file : open.values())
+            file.close();
+    }
+
+    // Writes the catalog under a temporary name first, so that a crash leaves the previous catalog intact
+    private void saveCatalog() throws IOException {
+        File temporary = new File(directory, CATALOG + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeUTF(FORMAT);
+        out.writeUTF(invariant);
+        out.writeInt(files.size());
+        for (int i=0; i<files.size(); i++) {
+            out.writeUTF(files.get(i));
+            out.writeLong(indexed.get(i));
+        }
+        out.writeInt(nextRun);
+        out.writeInt(runs.size());
+        for (Run run : runs) {
+            out.writeUTF(run.file.getName());
+            out.writeInt(run.length);
+            out.writeLong(run.count);
+        }
+        out.flush();
+        stream.getFD().sync();
+        out.close();
+
+        Files.move(temporary.toPath(), new File(directory, CATALOG).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Entries of a single length collected in memory, to be sorted and written to a run.
+     */
+    private class RunBuilder {
+        int length;
+        int count;
+        double[] projections = new double[1024];
+        double[] values;
+        int[] fileIndices = new int[1024];
+        long[] offsets = new long[1024];
+
+        RunBuilder(int length) {
+            this.length = length;
+            values = new double[1024 * length];
+        }
+
+        void add(double[] value, int fileIndex, long offset) {
+            if (count == offsets.length) {
+                int capacity = Math.min(2*count, RUN_SIZE);
+                projections = Arrays.copyOf(projections, capacity);
+                values = Arrays.copyOf(values, capacity * length);
+                fileIndices = Arrays.copyOf(fileIndices, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+            projections[count] = DoubleUtil.projection(value);
+            System.arraycopy(value, 0, values, count * length, length);
+            fileIndices[count] = fileIndex;
+            offsets[count] = offset;
+            count++;
+        }
+
+        Run write() throws IOException {
+            int[] order = DoubleUtil.sortedIndices(projections, count);
+            File file = new File(directory, "run-" + (nextRun++) + ".dat");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            for (int i=0; i<count; i++) {
+                int e = order[i];
+                out.writeDouble(projections[e]);
+                for (int j=0; j<length; j++)
+                    out.writeDouble(values[e * length + j]);
+                out.writeInt(fileIndices[e]);
+                out.writeLong(offsets[e]);
+            }
+            out.close();
+
+            Run run = new Run(file, length, count);
+            count = 0;
+            return run;
+        }
+    }
+
+    /**
+     * A sorted run of entries (projection, value, file, offset) of the same length, mapped into memory when first searched.
+     * The file is mapped in several parts if it is larger than a single map allows.
+     */
+    private class Run {
+        File file;
+        int length;                     // length of values
+        long count;                     // number of entries
+        int entrySize;
+        long entriesPerPart;
+        ByteBuffer[] parts;
+
+        Run(File file, int length, long count) {
+            this.file = file;
+            this.length = length;
+            this.count = count;
+            entrySize = 8 + 8*length + 4 + 8;
+            entriesPerPart = Integer.MAX_VALUE / entrySize;
+        }
+
+        private void map() throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            parts = new ByteBuffer[(int) ((count + entriesPerPart - 1) / entriesPerPart)];
+            for (int i=0; i<parts.length; i++) {
+                long entries = Math.min(entriesPerPart, count - i * entriesPerPart);
+                parts[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * entriesPerPart * entrySize, entries * entrySize);
+            }
+            raf.close();                // maps stay valid after the file is closed
+        }
+
+        private ByteBuffer part(long i) throws IOException {
+            if (parts == null)
+                map();
+            return parts[(int) (i / entriesPerPart)];
+        }
+
+        private int position(long i) {
+            return (int) (i % entriesPerPart) * entrySize;
+        }
+
+        double projection(long i) {
+            try {
+                return part(i).getDouble(position(i));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Entry entry(long i) throws IOException {
+            ByteBuffer part = part(i);
+            int pos = position(i);
+            Entry entry = new Entry();
+            entry.value = new double[length];
+            for (int j=0; j<length; j++)
+                entry.value[j] = part.getDouble(pos + 8 + 8*j);
+            entry.fileIndex = part.getInt(pos + 8 + 8*length);
+            entry.fileName = files.get(entry.fileIndex);
+            entry.offset = part.getLong(pos + 12 + 8*length);
+            return entry;
+        }
+
+        // Compares entries by projections, and then by files and offsets, as they are sorted in runs
+        int compare(long i, Run other, long j) {
+            try {
+                ByteBuffer a = part(i), b = other.part(j);
+                int p = position(i), q = other.position(j);
+                int res = Double.compare(a.getDouble(p), b.getDouble(q));
+                if (res == 0)
+                    res = Integer.compare(a.getInt(p + 8 + 8*length), b.getInt(q + 8 + 8*length));
+                return (res != 0) ? res : Long.compare(a.getLong(p + 12 + 8*length), b.getLong(q + 12 + 8*length));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void copyEntry(long i, DataOutputStream out) throws IOException {
+            ByteBuffer part = part(i);
+            int pos = position(i);
+            for (int j=0; j<entrySize; j++)
+                out.write(part.get(pos + j));
+        }
+
+        // Index of the first entry with projection at least p
+        long lowerBound(double p) {
+            long lo = 0, hi = count;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (projection(mid) < p)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        void close() {
+            parts = null;
+        }
+    }
+
+    // Value of a query: a comma-separated vector of numbers, or a g6code whose invariant is computed
+    private static double[] query(SpectralIndex index, String arg) {
+        try {
+            String[] numbers = arg.replace("[", "").replace("]", "").split(",");
+            double[] value = new double[numbers.length];
+            for (int i=0; i<numbers.length; i++)
+                value[i] = Double.parseDouble(numbers[i].trim());
+            return value;
+        }
+        catch (NumberFormatException e) {       // digits are not g6 characters, so this must be a g6code
+            return index.value(new Graph(arg));
+        }
+    }
+
+    // Command line interface, see above
+    public static void main(String[] args) throws IOException {
+        String command = args[0];
+        long startTime = System.currentTimeMillis();
+
+        if (command.equals("add")) {
+            SpectralIndex index = new SpectralIndex(args[1], args[2]);
+            for (int i=3; i<args.length; i++)
+                System.out.println("" + index.add(args[i]) + " graphs of " + args[i] + " indexed");
+            System.out.println("" + index.size() + " graphs in " + index.runs.size() + " runs");
+        }
+        else if (command.equals("compact")) {
+            SpectralIndex index = open(args[1]);
+            index.compact();
+            System.out.println("" + index.size() + " graphs in " + index.runs.size() + " runs");
+        }
+        else {
+            SpectralIndex index = open(args[1]);
+            ArrayList<Entry> result;
+            if (command.equals("range"))
+                result = index.range(Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+            else if (command.equals("within"))
+                result = index.within(query(index, args[3]), Double.parseDouble(args[2]));
+            else if (command.equals("equal"))
+                result = index.equal(query(index, args[2]));
+            else if (command.equals("nearest"))
+                result = index.nearest(query(index, args[3]), Integer.parseInt(args[2]));
+            else
+                throw new IllegalArgumentException("Unknown command " + command);
+
+            for (Entry entry : result)
+                System.out.println(entry);
+            System.out.println("" + result.size() + " graphs found");
+        }
+
+        long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+}
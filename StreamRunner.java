@@ -0,0 +1,240 @@
+/**
+ * StreamRunner.java
+ *
+ * Runs a template over g6codes coming from a stream instead of a file:
+ * the standard input, a named pipe, or the output of a generator process such as geng,
+ * so that large sets of graphs need not be written to disk only to be read back.
+ *
+ * A reader thread reads g6codes in batches into a bounded queue, while the template
+ * processes them in the calling thread. When the template falls behind, the queue fills up,
+ * the reader stops reading, and the producer of the stream blocks on the full pipe,
+ * so that memory use stays bounded however fast the producer is.
+ * Offsets passed to the template are counted from the beginning of the stream,
+ * hence results are identical to those of a run over a file with the same contents.
+ *
+ * A generator may also be split into several parts, using geng's res/mod arguments:
+ * part res out of mod is produced by the generator command followed by "res/mod",
+ * and the parts are processed in parallel by separate instances of the template,
+ * whose partial results are then merged in the order of parts (see GraphTemplate.mergePartial()).
+ * Results are identical to those of a run over the concatenated outputs of parts 0/mod, 1/mod, ..., (mod-1)/mod.
+ *
+ * Streams cannot be split into shards or resumed from checkpoints,
+ * and templates that re-read g6codes from the input file by their offsets cannot process them.
+ */
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class StreamRunner {
+    /**
+     * Number of g6codes in a batch passed from the reader thread to the template.
+     */
+    public static final int BATCH_SIZE = 1024;
+
+    /**
+     * Maximum number of batches waiting in the queue.
+     */
+    public static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * A batch of g6codes with their offsets. A batch with count==-1 marks the end of the stream.
+     */
+    private static class Batch {
+        String[] codes = new String[BATCH_SIZE];
+        long[] offsets = new long[BATCH_SIZE];
+        int count;
+    }
+
+    /**
+     * Runs the template over all graphs from the stream,
+     * with names of output files starting with outputPrefix.
+     */
+    public static void run(GraphTemplate template, String outputPrefix, InputStream stream) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        template.begin(outputPrefix, outputPrefix, null);
+        IsomorphismFilter filter = TemplateRunner.newFilter();
+        long counter = process(template, stream, true, filter);
+        template.end();
+
+        System.out.println("" + counter + " graphs processed");
+        if (filter != null)
+            System.out.println("" + filter.repeats() + " isomorphic repeats skipped");
+        printElapsed(startTime);
+    }
+
+    /**
+     * Runs the template over all graphs produced by the generator command,
+     * split into the given number of parts processed in parallel.
+     * Names of output files start with outputPrefix.
+     */
+    public static void runGenerator(GraphTemplate template, String outputPrefix, String command, int parts)
+        throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        if (parts <= 1) {                               // a single generator process
+            Process generator = startGenerator(command, null);
+            IsomorphismFilter filter = TemplateRunner.newFilter();
+            long counter;
+            try {
+                template.begin(outputPrefix, outputPrefix, null);
+                counter = process(template, generator.getInputStream(), true, filter);
+                waitFor(generator, command);
+            }
+            finally {
+                generator.destroy();                    // in case the template failed while the generator runs
+            }
+            template.end();
+
+            System.out.println("" + counter + " graphs processed");
+            if (filter != null)
+                System.out.println("" + filter.repeats() + " isomorphic repeats skipped");
+            printElapsed(startTime);
+            return;
+        }
+
+        long counter = TemplateRunner.runParts(template, outputPrefix, parts, (partTemplate, part) -> {
+            String split = "" + part + "/" + parts;
+            Process generator = startGenerator(command, split);
+            try {
+                long partCounter = process(partTemplate, generator.getInputStream(), false);
+                waitFor(generator, command + " " + split);
+                return partCounter;
+            }
+            finally {
+                generator.destroy();
+            }
+        });
+
+        System.out.println("" + counter + " graphs from " + parts + " parts processed");
+        printElapsed(startTime);
+    }
+
+    /**
+     * Passes all graphs from the stream to a template that has already begun,
+     * reporting progress if asked to.
+     *
+     * @return long Number of graphs processed.
+     */
+    public static long process(GraphTemplate template, InputStream stream, boolean report) throws IOException {
+        return process(template, stream, report, null);
+    }
+
+    /**
+     * Passes the graphs from the stream to a template that has already begun,
+     * except those rejected by the filter of isomorphic repeats, if it is not null.
+     *
+     * @return long Number of graphs read from the stream.
+     */
+    public static long process(GraphTemplate template, InputStream stream, boolean report, IsomorphismFilter filter)
+        throws IOException {
+        ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+        Throwable[] failure = new Throwable[1];
+
+        Thread reader = new Thread(() -> {
+            boolean interrupted = false;
+            try {
+                G6Reader in = new G6Reader(stream);
+                Batch batch = new Batch();
+                String g6code;
+                while ((g6code = in.readLine()) != null) {
+                    batch.codes[batch.count] = g6code;
+                    batch.offsets[batch.count] = in.offset();
+                    if (++batch.count == BATCH_SIZE) {
+                        queue.put(batch);           // blocks while the queue is full
+                        batch = new Batch();
+                    }
+                }
+                if (batch.count > 0)
+                    queue.put(batch);
+            }
+            catch (InterruptedException e) {
+                interrupted = true;                     // the template does not take batches any more
+            }
+            catch (Throwable e) {
+                failure[0] = e;
+            }
+            finally {                                   // the end of the stream is passed on even after a failure,
+                Batch end = new Batch();                // which is then thrown by the calling thread
+                end.count = -1;
+                try {
+                    if (!interrupted)
+                        queue.put(end);
+                }
+                catch (InterruptedException e) {
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        long counter = 0;
+        try {
+            while (true) {
+                Batch batch = queue.take();
+                if (batch.count == -1)
+                    break;
+
+                for (int i=0; i<batch.count; i++) {
+                    Graph g = new Graph(batch.codes[i]);
+                    if (filter == null || filter.add(g))
+                        template.process(g, batch.offsets[i]);
+
+                    counter++;
+                    if (report && counter % 10000 == 0)
+                        System.out.println("" + counter + " graphs processed so far");
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for graphs");
+        }
+        finally {
+            reader.interrupt();                         // in case the template failed
+        }
+
+        if (failure[0] instanceof IOException)
+            throw (IOException) failure[0];
+        if (failure[0] != null)
+            throw new IOException("Reading graphs from the stream failed: " + failure[0], failure[0]);
+        return counter;
+    }
+
+    /**
+     * Starts the generator command, with split (e.g., "3/8") appended as the last argument if it is not null.
+     * The standard error of the generator is passed through.
+     */
+    private static Process startGenerator(String command, String split) throws IOException {
+        String[] words = command.trim().split("\\s+");
+        if (split != null) {
+            String[] longer = new String[words.length+1];
+            System.arraycopy(words, 0, longer, 0, words.length);
+            longer[words.length] = split;
+            words = longer;
+        }
+
+        return new ProcessBuilder(words).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Waits for the generator to finish and checks that it did not fail.
+     */
+    private static void waitFor(Process generator, String command) throws IOException {
+        try {
+            int status = generator.waitFor();
+            if (status != 0)
+                throw new IOException("Generator " + command + " exited with status " + status);
+        }
+        catch (InterruptedException e) {
+            generator.destroy();
+            throw new InterruptedIOException("Interrupted while waiting for " + command);
+        }
+    }
+
+    private static void printElapsed(long startTime) throws IOException {
+        TemplateRunner.reportCache();
+        TemplateRunner.closeDotSink();
+        long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+}
@@ -16,20 +16,23 @@
  *        0 if you do NOT want to create Graphviz .dot files,
  *        1 if you do want to create Graphviz .dot files for further visualisation
  * - study your results!
+ *
+ * The template is run by TemplateRunner, which calls process() for each graph in the input file.
+ * For long runs, checkpoints may be enabled with TemplateRunner.setCheckpointInterval(int seconds),
+ * and large input files may be split into shards (see TemplateRunner.setShard(int, int))
+ * whose output files are then concatenated by ShardMerge.
  */
 import java.io.*;
 
-public class SubsetTemplate {
+public class SubsetTemplate implements GraphTemplate {
     // Variables needed to run the template
     private String g6code;          // g6code of a graph
-    private Graph g;                // graph
+    private int createDotFiles;     // whether to write Graphviz .dot files for g6codes
        
     // Files
-    private BufferedReader in;      // input file with graphs
-    private PrintWriter outResults; // output file for selected graphs and other data
-
-    // graph counter, useful for occassionally printing the number of graphs processed so far
-    private static int counter;
+    private FileOutputStream outFile;   // output file, whose position is saved in checkpoints
+    private ResultWriter outResults; // output file for selected graphs and other data
+    private String outputFileName;  // name of the output file
     
     public SubsetTemplate() {
     }
@@ -40,69 +43,106 @@ public class SubsetTemplate {
      * while createDotFiles instructs whether to write Graphviz .dot files for g6codes
      */
     public void run(String inputFileName, int createDotFiles) throws IOException {
-        long startTime = System.currentTimeMillis();               // Take a note of starting time
-        counter = 0;                                               // Initialise counter
-        
-        in = new BufferedReader(new FileReader(inputFileName));    // Open input and output files
-        outResults = new PrintWriter(new BufferedWriter(new FileWriter(inputFileName + ".results.tex")));
-        
-        // Strings, arrays and other objects need to be created with "new" keyword.
-        // For arrays, one has to specify type and dimensions as well.
-        g6code = new String();
-        
-        while ((g6code = in.readLine())!=null) {  // Loading g6 codes until an empty line is found
-            g = new Graph(g6code);                // Create a graph out of its g6 code
+        this.createDotFiles = createDotFiles;
+        TemplateRunner.run(this, inputFileName);
+    }
+
+    /**
+     * Sets createDotFiles from a string, as in main()
+     */
+    public void configure(String[] params) {
+        createDotFiles = Integer.decode(params[0]);
+    }
+
+    /**
+     * Parameters in the form accepted by configure()
+     */
+    public String[] parameters() {
+        return new String[] { "" + createDotFiles };
+    }
+
+    /**
+     * Opens the output file, either anew or at the position saved in the checkpoint
+     */
+    public void begin(String inputFileName, String outputPrefix, DataInputStream checkpoint) throws IOException {
+        outputFileName = outputPrefix + ".results.tex";
+        outFile = TemplateRunner.openOutput(outputFileName, checkpoint);
+        outResults = new ResultWriter(outFile);
+    }
+
+    /**
+     * Called for each graph from the input file
+     */
+    public void process(Graph g, long offset) throws IOException {
+        g6code = g.g6code();
             
-            // Calculate necessary invariants here:
-            double[] eigs = g.Aspectrum();                 // For integral graphs example
+        // Calculate necessary invariants here:
+        double[] eigs = g.Aspectrum();                 // For integral graphs example
+        
+        // Write a criterion to select a graph into the subset here:
+        int integral = 1;                     // Instead of just: if (g.Aintegral())
+        for (int i=0; i<g.n(); i++)           //                      integral=0;
+             if (!DoubleUtil.equals(eigs[i], Math.round(eigs[i]))) {
+                 integral = 0;
+                 break;
+             }
             
-            // Write a criterion to select a graph into the subset here:
-            int integral = 1;                     // Instead of just: if (g.Aintegral())
-            for (int i=0; i<g.n(); i++)           //                      integral=0;
-                 if (!DoubleUtil.equals(eigs[i], Math.round(eigs[i]))) {
-                     integral = 0;
-                     break;
-                 }
-                
-            // Output selected graphs and other data to the output file here:
-            if (integral==1) {                    // For integral graphs example
-                outResults.println(g6code);       // output g6code and eigenvalues
-                outResults.println("Eigenvalues: ");
-                for (int i=0; i<g.n(); i++)
-                     outResults.printf("%.6f ", eigs[i]);
-                outResults.println();
-                
-                // export graph in Graphviz format for later visualisation
-                if (createDotFiles!=0) {
-                    StringBuilder data = new StringBuilder("eigenvalues=[");
-                    for (int i=0; i<g.n(); i++) {   // create string representation of spectrum
-                        data.append(eigs[i]);
-                        if (i<g.n()-1)
-                            data.append(", ");
-                        else
-                            data.append("]");
-                    }
-                    
-                    g.saveDotFormat("integral-n-" + g.n() + "-g6code-" + g6code + ".dot", 
-                                    data.toString());
-                }
-            }
+        // Output selected graphs and other data to the output file here:
+        if (integral==1) {                    // For integral graphs example
+            outResults.println(g6code);       // output g6code and eigenvalues
+            outResults.println("Eigenvalues: ");
+            for (int i=0; i<g.n(); i++)
+                 outResults.print(eigs[i], 6).print(' ');
+            outResults.println();
             
-            counter++;                            // Update counter and report progress
-            if (counter % 10000 == 0)
-                System.out.println("" + counter + " graphs processed so far");
+            // export graph in Graphviz format for later visualisation
+            if (createDotFiles!=0)              // with string representation of spectrum
+                g.saveDotFormat("integral-n-" + g.n() + "-g6code-" + g6code + ".dot", 
+                                ResultWriter.format(out -> out.print("eigenvalues=").printVector(eigs, "[,]")));
         }
-        
-        in.close();                              // Testing done, close the files
+    }
+
+    /**
+     * Only the position in the output file has to be saved in a checkpoint
+     */
+    public void saveState(DataOutputStream checkpoint) throws IOException {
+        outResults.flush();
+        TemplateRunner.savePosition(outFile, checkpoint);
+    }
+
+    /**
+     * Called after all graphs have been processed
+     */
+    public void end() throws IOException {
+        outResults.close();                      // Testing done, close the file
+    }
+
+    /**
+     * Partial result of a shard is the range of its output file that belongs to the merged output
+     */
+    public void endPartial(DataOutputStream partial) throws IOException {
+        outResults.flush();
+        partial.writeUTF(outputFileName);
+        partial.writeLong(0);
+        partial.writeLong(outFile.getChannel().position());
         outResults.close();
-        
-        long totalTime = System.currentTimeMillis() - startTime;    // Report elapsed time
-        System.out.println("Time elapsed: " + 
-            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+
+    /**
+     * Appends the output of the next shard to the output file
+     */
+    public void mergePartial(DataInputStream partial) throws IOException {
+        String shardFileName = partial.readUTF();
+        long from = partial.readLong();
+        long to = partial.readLong();
+
+        outResults.flush();
+        TemplateRunner.appendFile(shardFileName, from, to, outFile);
     }
     
     // This function may be used to run the template from out of BlueJ
     public static void main(String[] args) throws IOException, NumberFormatException {
+        args = TemplateRunner.parseOptions(args);
         new SubsetTemplate().run(args[0], Integer.decode(args[1]));
     }
 }
\ No newline at end of file
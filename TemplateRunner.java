@@ -0,0 +1,633 @@
+/**
+ * TemplateRunner.java
+ *
+ * Runs a GraphTemplate over a file containing graphs in g6 format:
+ * reads g6codes one by one, creates graphs and passes them to the template,
+ * occassionally reports the number of graphs processed so far, and reports the elapsed time.
+ *
+ * Runs over large sets of graphs may take days, so that the runner can also
+ * periodically write a checkpoint to inputFileName + ".checkpoint".
+ * The checkpoint contains the offset of the next g6code in the input file,
+ * the number of graphs processed so far and the state of the template
+ * (see GraphTemplate.saveState()). If checkpoints are enabled and such a file exists
+ * when the run is started, the run continues from the checkpoint and produces the same results
+ * as an uninterrupted run. The checkpoint file is deleted once the run is finished.
+ * A checkpoint of a run with another template, other parameters of the template or another input file is ignored.
+ *
+ * Checkpoints are disabled by default. They are enabled either by calling
+ * setCheckpointInterval(int seconds), or with the command line option --checkpoint=seconds
+ * that templates pass through parseOptions(String[]).
+ *
+ * A large input file may also be split into shards, which are processed independently,
+ * e.g., by several processes or on several machines sharing the file.
+ * Shard i out of N consists of the g6codes whose lines start
+ * within the byte range [i*size/N, (i+1)*size/N) of the input file.
+ * A shard is selected by setShard(int i, int N), or with the command line option --shard=i/N.
+ * Instead of reporting results, the template writes its partial results
+ * (see GraphTemplate.endPartial()) to inputFileName + ".shard-i-of-N.partial",
+ * and names of its other output files start with inputFileName + ".shard-i-of-N".
+ * Once all shards are done, ShardMerge combines their partial results
+ * into the results of a single run over the whole input file.
+ *
+ * Instead of a file, the input may also be a stream (see StreamRunner):
+ * the standard input if inputFileName is "-", a named pipe, or the output of a generator
+ * given by the command line option --generate="geng -c 10", which may be split into several parts
+ * processed in parallel with the option --parts=N.
+ * Graphs may also be generated within the same process by GraphGenerator,
+ * given by the command line option --enumerate="-c 10" with geng-like arguments, again together with --parts=N.
+ * In the latter cases, inputFileName only serves as the beginning of names of output files.
+ *
+ * With the command line option --unique (or setUnique(true)), graphs read from the input file or stream
+ * are passed through an IsomorphismFilter, so that the template processes only the first graph
+ * of each isomorphism class. The filter is saved in checkpoints, but it cannot be split among shards or parts,
+ * and it is not needed for graphs generated in-process, which are non-isomorphic already.
+ *
+ * With the command line option --cache=fileName (or --cache=fileName,megabytes, 256 by default),
+ * spectra and distance matrices are kept in a persistent InvariantCache, so that a later run over the same graphs,
+ * e.g., with a new invariant expression, reads them from the cache instead of computing them again.
+ * The hit rate of the cache is reported at the end of each run.
+ *
+ * The input file may also be a GraphStore instead of a g6 file, which is recognized by its first bytes.
+ * Offsets are then offsets of records within the store, and shards consist of the records
+ * that start within their byte ranges, so that everything above applies to stores as well.
+ *
+ * With the command line option --dots=fileName (or --dots=fileName,maxDrawings), drawings of graphs
+ * that templates save with Graph.saveDotFormat() are collected in a single .dot or .zip file by a DotSink,
+ * instead of being written to a separate file each. The sink of a shard writes to a file
+ * whose name contains the shard, as other output files do, and it is closed at the end of the run.
+ * The sink is saved in checkpoints, so that a resumed run continues its file instead of starting it anew.
+ */
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TemplateRunner {
+    private static int checkpointInterval = 0;     // seconds between two checkpoints, 0 if disabled
+    private static int shardIndex = 0;             // shard to be processed
+    private static int shardCount = 0;             // number of shards, 0 if the whole input is processed
+    private static String generatorCommand = null; // command producing g6codes, null if the input is read
+    private static int generatorParts = 1;         // number of parts of the generator run in parallel
+    private static GraphGenerator enumerator = null; // in-process generator, null if not used
+    private static boolean unique = false;         // skip graphs isomorphic to earlier ones?
+
+    /**
+     * Sets the number of seconds between two checkpoints, 0 to disable checkpoints.
+     */
+    public static void setCheckpointInterval(int seconds) {
+        checkpointInterval = seconds;
+    }
+
+    /**
+     * Responds whether runs write checkpoints, so that templates may keep what they need for them (see KeyJournal).
+     */
+    public static boolean checkpointsEnabled() {
+        return checkpointInterval > 0;
+    }
+
+    /**
+     * Selects the shard to be processed by subsequent runs: shard index out of count shards.
+     * Setting count to 0 processes the whole input file again.
+     */
+    public static void setShard(int index, int count) {
+        if (count < 0 || (count > 0 && (index < 0 || index >= count)))
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+
+        shardIndex = index;
+        shardCount = count;
+    }
+
+    /**
+     * Makes subsequent runs process the output of the generator command, split into parts
+     * by appending res/mod arguments to the command, as geng does. Setting command to null reads input files again.
+     */
+    public static void setGenerator(String command, int parts) {
+        if (parts < 1)
+            throw new IllegalArgumentException("Invalid number of parts " + parts);
+
+        generatorCommand = command;
+        generatorParts = parts;
+    }
+
+    /**
+     * Makes subsequent runs process the graphs generated in-process by the generator
+     * instead of reading input files. Setting generator to null reads input files again.
+     */
+    public static void setEnumerator(GraphGenerator generator) {
+        enumerator = generator;
+    }
+
+    /**
+     * Makes subsequent runs skip graphs isomorphic to graphs processed earlier in the same run.
+     */
+    public static void setUnique(boolean skipIsomorphic) {
+        unique = skipIsomorphic;
+    }
+
+    /**
+     * A new filter of isomorphic repeats for a run, or null if they are not to be skipped.
+     */
+    public static IsomorphismFilter newFilter() {
+        return unique ? new IsomorphismFilter() : null;
+    }
+
+    /**
+     * Opens the persistent cache of invariants used by all graphs (see InvariantCache),
+     * creating it with the given number of megabytes if it does not exist yet.
+     */
+    public static void setCache(String fileName, int megabytes) throws IOException {
+        if (Graph.cache() != null)
+            Graph.cache().close();
+        Graph.setCache(InvariantCache.open(fileName, megabytes));
+    }
+
+    /**
+     * Reports the hit rate of the invariant cache during the last run, if there is a cache.
+     */
+    public static void reportCache() {
+        if (Graph.cache() != null)
+            Graph.cache().report();
+    }
+
+    /**
+     * Collects drawings of the next run in a single file (see DotSink), at most maxDrawings of them.
+     * If a shard is selected, the shard is inserted into the file name before its extension.
+     */
+    public static void setDotSink(String fileName, long maxDrawings) throws IOException {
+        if (shardCount > 0) {
+            int dot = fileName.lastIndexOf('.');
+            if (dot <= fileName.lastIndexOf(File.separatorChar))
+                dot = fileName.length();
+            fileName = shardPrefix(fileName.substring(0, dot), shardIndex, shardCount) + fileName.substring(dot);
+        }
+
+        closeDotSink();
+        Graph.setDotSink(DotSink.open(fileName, maxDrawings));
+    }
+
+    /**
+     * Writes the remaining drawings of the last run, if there is a sink, and closes it,
+     * so that drawings of later runs are written to separate files again.
+     */
+    public static void closeDotSink() throws IOException {
+        DotSink sink = Graph.dotSink();
+        if (sink != null) {
+            Graph.setDotSink(null);
+            sink.close();
+        }
+    }
+
+    /**
+     * Consumes options of the form --name=value or --name value from command line arguments
+     * and the option --unique without a value,
+     * and returns the remaining arguments, which are then handled by the template itself.
+     */
+    public static String[] parseOptions(String[] args) throws IOException {
+        ArrayList<String> remaining = new ArrayList<String>();
+        String dots = null;                        // the sink is opened once the shard is known
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                remaining.add(arg);
+                continue;
+            }
+
+            if (arg.equals("--unique")) {
+                setUnique(true);
+                continue;
+            }
+
+            String name, value;
+            if (arg.indexOf('=') >= 0) {
+                name = arg.substring(0, arg.indexOf('='));
+                value = arg.substring(arg.indexOf('=')+1);
+            }
+            else if (i+1 < args.length) {
+                name = arg;
+                value = args[++i];
+            }
+            else
+                throw new IllegalArgumentException("Option " + arg + " has no value");
+
+            if (name.equals("--checkpoint"))
+                setCheckpointInterval(Integer.parseInt(value));
+            else if (name.equals("--shard")) {
+                int slash = value.indexOf('/');
+                if (slash < 0)
+                    throw new IllegalArgumentException("Option --shard expects i/N instead of " + value);
+                setShard(Integer.parseInt(value.substring(0, slash)), Integer.parseInt(value.substring(slash+1)));
+            }
+            else if (name.equals("--generate"))
+                setGenerator(value, generatorParts);
+            else if (name.equals("--enumerate"))
+                setEnumerator(GraphGenerator.parse(value));
+            else if (name.equals("--cache")) {
+                int comma = value.lastIndexOf(',');
+                if (comma < 0)
+                    setCache(value, 256);
+                else
+                    setCache(value.substring(0, comma), Integer.parseInt(value.substring(comma+1)));
+            }
+            else if (name.equals("--parts"))
+                setGenerator(generatorCommand, Integer.parseInt(value));
+            else if (name.equals("--dots"))
+                dots = value;
+            else
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+
+        if (dots != null) {
+            int comma = dots.lastIndexOf(',');
+            if (comma < 0)
+                setDotSink(dots, Long.MAX_VALUE);
+            else
+                setDotSink(dots.substring(0, comma), Long.parseLong(dots.substring(comma+1)));
+        }
+
+        return remaining.toArray(new String[0]);
+    }
+
+    /**
+     * Common beginning of names of output files of shard index out of count shards.
+     */
+    public static String shardPrefix(String inputFileName, int index, int count) {
+        return inputFileName + ".shard-" + index + "-of-" + count;
+    }
+
+    /**
+     * Responds whether a template begun with the input file name and the output prefix
+     * ends with endPartial() instead of end(), as shards, units and parts are given output prefixes
+     * by shardPrefix(), so that templates may keep what they need for their partial results (see KeyJournal).
+     */
+    public static boolean endsPartially(String inputFileName, String outputPrefix) {
+        return outputPrefix.startsWith(inputFileName + ".shard-") &&
+               outputPrefix.substring(inputFileName.length()).matches("\\.shard-[0-9]+-of-[0-9]+");
+    }
+
+    /**
+     * Deletes the output files whose names start with outputPrefix + ".",
+     * e.g., those of a shard once its results have been merged into the results of the whole run.
+     */
+    public static void deleteOutputs(String outputPrefix) {
+        File prefix = new File(outputPrefix).getAbsoluteFile();
+        String start = prefix.getName() + ".";
+        File[] files = prefix.getParentFile().listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files)
+            if (file.isFile() && file.getName().startsWith(start) && !file.delete())
+                System.out.println("Cannot delete " + file);
+    }
+
+    /**
+     * Runs the template over all graphs from the input file,
+     * or over the graphs of the selected shard only.
+     */
+    public static void run(GraphTemplate template, String inputFileName) throws IOException {
+        File inputFile = new File(inputFileName);
+        if (enumerator != null || generatorCommand != null || inputFileName.equals("-") || (inputFile.exists() && !inputFile.isFile())) {
+            if (shardCount > 0 || checkpointInterval > 0)
+                throw new IllegalArgumentException("Streams cannot be split into shards or checkpointed");
+            if (unique && enumerator == null && generatorCommand != null && generatorParts > 1)
+                throw new IllegalArgumentException("Isomorphic repeats cannot be skipped across parts");
+
+            if (enumerator != null)
+                enumerator.run(template, inputFileName, generatorParts);
+            else if (generatorCommand != null)
+                StreamRunner.runGenerator(template, inputFileName, generatorCommand, generatorParts);
+            else if (inputFileName.equals("-"))
+                StreamRunner.run(template, "stdin", System.in);
+            else {                                                 // named pipe
+                InputStream pipe = new FileInputStream(inputFile);
+                StreamRunner.run(template, inputFileName, pipe);
+                pipe.close();
+            }
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();               // Take a note of starting time
+        long inputLength = new File(inputFileName).length();
+        long offset = 0;                                           // Start from the beginning of the input
+        long end = Long.MAX_VALUE;                                 // and continue until its end
+        long counter = 0;                                          // Initialise counter
+
+        String outputPrefix = inputFileName;
+        if (shardCount > 0) {                                      // Restrict the run to the byte range of the shard
+            offset = shardIndex * inputLength / shardCount;
+            end = (shardIndex+1) * inputLength / shardCount;
+            outputPrefix = shardPrefix(inputFileName, shardIndex, shardCount);
+            if (unique)
+                throw new IllegalArgumentException("Isomorphic repeats cannot be skipped across shards");
+            System.out.println("Processing shard " + shardIndex + "/" + shardCount +
+                               ", bytes " + offset + " to " + end + " of " + inputFileName);
+        }
+
+        String checkpointFileName = outputPrefix + ".checkpoint";
+        Checkpoint checkpoint = null;
+        DataInputStream saved = null;
+        IsomorphismFilter filter = newFilter();
+
+        if (checkpointInterval > 0) {                              // Look for a checkpoint of the previous run
+            checkpoint = new Checkpoint(checkpointFileName, checkpointInterval);
+            saved = Checkpoint.load(checkpointFileName);
+
+            if (saved != null) {
+                String templateName = saved.readUTF();
+                boolean sameParameters = readParameters(template, saved);
+                long savedLength = saved.readLong();
+                boolean savedUnique = saved.readBoolean();
+                boolean savedDots = saved.readBoolean();
+
+                if (!templateName.equals(template.getClass().getName()) || !sameParameters || savedLength != inputLength ||
+                    savedUnique != unique || savedDots != (Graph.dotSink() != null)) {
+                    System.out.println("Checkpoint " + checkpointFileName + " belongs to a different run and is ignored");
+                    saved.close();
+                    saved = null;
+                }
+                else {
+                    offset = saved.readLong();
+                    counter = saved.readLong();
+                    if (unique)
+                        filter = IsomorphismFilter.read(saved);
+                    if (Graph.dotSink() != null)
+                        Graph.dotSink().resume(saved);
+                    System.out.println("Resuming from checkpoint after " + counter + " graphs");
+                }
+            }
+        }
+
+        template.begin(inputFileName, outputPrefix, saved);        // Let the template open its output files
+
+        GraphReader in;                                            // Open input file
+        if (saved != null) {                                       // the saved offset is always the beginning of a line
+            saved.close();
+            in = GraphStore.isStore(inputFileName) ? GraphStore.openRange(inputFileName, offset, end)
+                                                   : new G6Reader(inputFileName, offset, end);
+        }
+        else
+            in = openRange(inputFileName, offset, end);
+        Graph g;
+
+        while ((g = in.readGraph())!=null) {       // Loading graphs until the end of file
+            if (filter == null || filter.add(g))   // skipping isomorphic repeats if asked to
+                template.process(g, in.offset());
+
+            counter++;                             // Update counter and report progress
+            if (counter % 10000 == 0)
+                System.out.println("" + counter + " graphs processed so far");
+
+            if (checkpoint != null && checkpoint.due()) {
+                Checkpoint.State state = new Checkpoint.State();
+
+                state.writeUTF(template.getClass().getName());
+                writeParameters(template, state);
+                state.writeLong(inputLength);
+                state.writeBoolean(unique);
+                state.writeBoolean(Graph.dotSink() != null);
+                state.writeLong(in.position());
+                state.writeLong(counter);
+                if (filter != null)
+                    filter.write(state);
+                if (Graph.dotSink() != null)
+                    Graph.dotSink().saveState(state);
+                template.saveState(state);
+
+                checkpoint.save(state);
+            }
+        }
+
+        in.close();                                // Processing done, let the template report results
+        if (shardCount == 0)
+            template.end();
+        else {                                     // or write partial results of the shard
+            String partialFileName = outputPrefix + ".partial";
+            DataOutputStream partial = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partialFileName)));
+
+            partial.writeUTF(template.getClass().getName());
+            writeParameters(template, partial);
+            partial.writeLong(inputLength);
+            partial.writeInt(shardIndex);
+            partial.writeInt(shardCount);
+            partial.writeLong(counter);
+            template.endPartial(partial);
+            partial.close();
+
+            System.out.println("Partial results of " + counter + " graphs written to " + partialFileName);
+        }
+        if (checkpoint != null)
+            checkpoint.finish();
+        if (filter != null)
+            System.out.println("" + filter.repeats() + " isomorphic repeats skipped");
+        reportCache();
+        closeDotSink();
+
+        long totalTime = System.currentTimeMillis() - startTime;   // Report elapsed time
+        System.out.println("Time elapsed: " +
+            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+    }
+
+    /**
+     * Writes the parameters of the template (see GraphTemplate.parameters()) to a checkpoint or partial results,
+     * since results of a run can only be continued or merged by a template with the same parameters.
+     */
+    public static void writeParameters(GraphTemplate template, DataOutputStream out) throws IOException {
+        String[] params = template.parameters();
+        out.writeInt(params.length);
+        for (int i=0; i<params.length; i++)
+            out.writeUTF(params[i]);
+    }
+
+    /**
+     * Reads parameters written by writeParameters() and responds whether they are those of the template.
+     */
+    public static boolean readParameters(GraphTemplate template, DataInputStream in) throws IOException {
+        String[] params = new String[in.readInt()];
+        for (int i=0; i<params.length; i++)
+            params[i] = in.readUTF();
+        return Arrays.equals(params, template.parameters());
+    }
+
+    /**
+     * Runs the template over the graphs whose lines start within bytes [start, end) of the input file,
+     * and writes its partial results (see GraphTemplate.endPartial()) to the stream.
+     * Names of other output files of the template start with outputPrefix.
+     *
+     * @return long Number of graphs processed.
+     */
+    public static long runPart(GraphTemplate template, String inputFileName, String outputPrefix,
+                               long start, long end, DataOutputStream partial) throws IOException {
+        template.begin(inputFileName, outputPrefix, null);
+        long counter = process(template, inputFileName, start, end);
+        template.endPartial(partial);
+        return counter;
+    }
+
+    /**
+     * Passes the graphs whose lines start within bytes [start, end) of the input file
+     * to a template that has already begun, without reporting progress.
+     *
+     * @return long Number of graphs processed.
+     */
+    public static long process(GraphTemplate template, String inputFileName, long start, long end) throws IOException {
+        long counter = 0;
+
+        GraphReader in = openRange(inputFileName, start, end);
+        Graph g;
+        while ((g = in.readGraph())!=null) {
+            template.process(g, in.offset());
+            counter++;
+        }
+        in.close();
+
+        return counter;
+    }
+
+    /**
+     * Opens the input file, a g6 file or a GraphStore, for reading the graphs that start within bytes [start, end).
+     */
+    public static GraphReader openRange(String inputFileName, long start, long end) throws IOException {
+        if (GraphStore.isStore(inputFileName))
+            return GraphStore.openRange(inputFileName, start, end);
+        return G6Reader.openRange(inputFileName, start, end);
+    }
+
+    /**
+     * A source of graphs split into parts, such as a generator split by res/mod.
+     */
+    public interface PartSource {
+        /**
+         * Passes the graphs of the part to a template that has already begun.
+         *
+         * @return long Number of graphs processed.
+         */
+        long process(GraphTemplate template, int part) throws Exception;
+    }
+
+    /**
+     * Processes the parts of the source in parallel, each by its own instance of the template
+     * with names of output files starting with shardPrefix(outputPrefix, part, parts),
+     * and merges their partial results into the template in the order of parts.
+     *
+     * @return long Number of graphs processed.
+     */
+    public static long runParts(GraphTemplate template, String outputPrefix, int parts, PartSource source)
+        throws IOException {
+        byte[][] partials = new byte[parts][];
+        long[] counters = new long[parts];
+        Exception[] failures = new Exception[parts];
+        Thread[] threads = new Thread[parts];
+
+        for (int p=0; p<parts; p++) {
+            final int part = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    GraphTemplate partTemplate = newTemplate(template.getClass().getName(), template.parameters());
+                    partTemplate.begin(outputPrefix, shardPrefix(outputPrefix, part, parts), null);
+                    counters[part] = source.process(partTemplate, part);
+
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream partial = new DataOutputStream(bytes);
+                    partTemplate.endPartial(partial);
+                    partial.close();
+                    partials[part] = bytes.toByteArray();
+                }
+                catch (Exception e) {
+                    failures[part] = e;
+                }
+            });
+            threads[p].start();
+        }
+
+        template.begin(outputPrefix, outputPrefix, null);
+        long counter = 0;
+        for (int p=0; p<parts; p++) {               // merge parts in order, as soon as they are done
+            try {
+                threads[p].join();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for part " + p + "/" + parts);
+            }
+            if (failures[p] != null)
+                throw new IOException("Part " + p + "/" + parts + " failed: " + failures[p], failures[p]);
+
+            template.mergePartial(new DataInputStream(new ByteArrayInputStream(partials[p])));
+            partials[p] = null;
+            counter += counters[p];
+        }
+        template.end();
+
+        for (int p=0; p<parts; p++)                 // outputs of parts have been merged
+            deleteOutputs(shardPrefix(outputPrefix, p, parts));
+
+        return counter;
+    }
+
+    /**
+     * Creates an instance of the template class with the given name
+     * and sets its parameters, given as on the command line.
+     */
+    public static GraphTemplate newTemplate(String className, String[] params) {
+        GraphTemplate template;
+        try {
+            template = (GraphTemplate) Class.forName(className).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create template " + className + ": " + e);
+        }
+
+        template.configure(params);
+        return template;
+    }
+
+    /**
+     * Opens an output file of a template: a new one for a fresh run (checkpoint==null),
+     * or the existing one truncated to the position read from the checkpoint,
+     * so that the template continues writing exactly where the checkpoint was taken.
+     */
+    public static FileOutputStream openOutput(String fileName, DataInputStream checkpoint) throws IOException {
+        if (checkpoint == null)
+            return new FileOutputStream(fileName);
+        return openOutput(fileName, checkpoint.readLong());
+    }
+
+    /**
+     * Opens an existing output file truncated to the position, so that writing continues there.
+     */
+    public static FileOutputStream openOutput(String fileName, long position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        file.setLength(position);
+        file.close();
+
+        return new FileOutputStream(fileName, true);
+    }
+
+    /**
+     * Writes the current position of an output file to the checkpoint.
+     * Any writer on top of the output stream has to be flushed beforehand.
+     */
+    public static void savePosition(FileOutputStream out, DataOutputStream checkpoint) throws IOException {
+        checkpoint.writeLong(out.getChannel().position());
+    }
+
+    /**
+     * Appends bytes [from, to) of a file to an output stream,
+     * e.g., the output of a shard to the output of the merged run.
+     */
+    public static void appendFile(String fileName, long from, long to, OutputStream out) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        file.seek(from);
+
+        byte[] block = new byte[1 << 16];
+        for (long done=from; done<to; ) {
+            int read = file.read(block, 0, (int) Math.min(block.length, to-done));
+            if (read <= 0)
+                throw new EOFException(fileName + " is shorter than " + to + " bytes");
+            out.write(block, 0, read);
+            done += read;
+        }
+
+        file.close();
+    }
+}
@@ -1,4 +1,8 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
 public class Threshold extends Graph
 {
     public Threshold(String s) {
@@ -35,43 +39,289 @@ public class Threshold extends Graph
     }
     
     public static void run() throws IOException {
-        // Variables needed to run the template
-        Threshold g;                // graph
-    
-        // Files
-        PrintWriter outResults; // output file for selected graphs and other data
-        long startTime = System.currentTimeMillis();               // Take a note of starting time
-        
-        outResults = new PrintWriter(new BufferedWriter(new FileWriter("threshold10.csv")));
-        outResults.println("bit sequence, spectral radius, principal eigenvector");             // Header line of .csv file
-
-        int[] bits = new int[9];
-        for (bits[0]=0; bits[0]<=1; bits[0]++)
-        for (bits[1]=0; bits[1]<=1; bits[1]++)
-        for (bits[2]=0; bits[2]<=1; bits[2]++)
-        for (bits[3]=0; bits[3]<=1; bits[3]++)
-        for (bits[4]=0; bits[4]<=1; bits[4]++)
-        for (bits[5]=0; bits[5]<=1; bits[5]++)
-        for (bits[6]=0; bits[6]<=1; bits[6]++)
-        for (bits[7]=0; bits[7]<=1; bits[7]++)
-        for (bits[8]=0; bits[8]<=1; bits[8]++) {
-            g = new Threshold(bits);
-            double sprad = g.Aspectrum()[9];
-            double[][] eigenvectors = g.Aeigenvectors();
-            
-            // bit sequence
-            for (int i=0; i<9; i++)
-                outResults.print(bits[i]);
-            outResults.print(", " + sprad + ", [");
-            for (int i=0; i<10; i++)
-                outResults.printf("%.5f ", eigenvectors[i][9]);
-            outResults.println("]");
+        run(10);
+    }
+
+    /**
+     * Writes the spectral radius and the principal eigenvector of all threshold graphs on n vertices
+     * to "threshold" + n + ".csv", enumerating their bit sequences in parallel (see FamilyEnumerator).
+     */
+    public static void run(int n) throws IOException {
+        FamilyEnumerator enumerator = new FamilyEnumerator(ParameterSpace.bitStrings(n-1), Threshold::new,
+            (bits, g) -> {
+                double sprad = g.Aspectrum()[n-1];
+                double[][] eigenvectors = g.Aeigenvectors();
+                return line(bits, sprad, Graph.extractColumn(eigenvectors, n-1));
+            });
+
+        enumerator.run("threshold" + n + ".csv", "bit sequence, spectral radius, principal eigenvector");
+    }
+
+    /**
+     * Writes the same results as run(n) to "threshold" + n + "-gray.csv",
+     * but with bit sequences in the order of the Gray code, so that consecutive threshold graphs
+     * differ only in the edges of a single vertex. Instead of decomposing each graph from scratch,
+     * its principal eigenpair is then obtained from that of the previous graph (see GrayWalk).
+     */
+    public static void runGray(int n) throws IOException {
+        FamilyEnumerator enumerator = new FamilyEnumerator(ParameterSpace.grayCode(n-1), null,
+                                                           () -> new GrayWalk(n));
+
+        enumerator.run("threshold" + n + "-gray.csv", "bit sequence, spectral radius, principal eigenvector");
+    }
+
+    /**
+     * Checks that runGray(n) reports the same results as run(n) for all threshold graphs on n vertices,
+     * among which those with isolated vertices have zero entries in their principal eigenvectors:
+     * eigenvectors have to be printed identically, and spectral radii have to agree up to rounding errors.
+     * Differences are printed, and their number is returned.
+     */
+    public static int check(int n) throws IOException {
+        run(n);
+        runGray(n);
+
+        HashMap<String, String[]> expected = new HashMap<String, String[]>();
+        for (String line : Files.readAllLines(Paths.get("threshold" + n + ".csv")))
+            expected.put(line.substring(0, line.indexOf(',')), line.split(", ", 3));
+
+        int differences = 0;
+        List<String> lines = Files.readAllLines(Paths.get("threshold" + n + "-gray.csv"));
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(", ", 3);
+            String[] other = expected.remove(fields[0]);
+            if (other != null && other[2].equals(fields[2])) {
+                double sprad = Double.parseDouble(fields[1]);
+                if (Math.abs(sprad - Double.parseDouble(other[1])) <= 1e-9 * Math.max(1, sprad))
+                    continue;
+            }
+            System.out.println("run:     " + (other == null ? "missing" : String.join(", ", other)));
+            System.out.println("runGray: " + line);
+            differences++;
         }
+        differences += expected.size() - 1;     // lines missing from runGray, apart from the header
 
-        outResults.close();
-        
-        long totalTime = System.currentTimeMillis() - startTime;    // Report elapsed time
-        System.out.println("Time elapsed: " + 
-            (totalTime / 60000) + " min, " + ((double) (totalTime % 60000) / 1000) + " sec");
+        System.out.println(differences + " differences between run(" + n + ") and runGray(" + n + ")");
+        return differences;
+    }
+
+    // Line of results: bit sequence, spectral radius and principal eigenvector.
+    // Entries that round to zero are printed without a sign, since both Colt and Lanczos iterations
+    // leave zeros or rounding errors of either sign at isolated vertices.
+    private static String line(int[] bits, double sprad, double[] eigenvector) {
+        return ResultWriter.format(line -> {
+            for (int i=0; i<bits.length; i++)
+                line.print(bits[i]);
+            line.print(", ").print(sprad).print(", [");
+            for (int i=0; i<eigenvector.length; i++)
+                line.print(Math.abs(eigenvector[i]) < 0.5e-5 ? 0.0 : eigenvector[i], 5).print(' ');
+            line.print(']');
+        });
+    }
+
+    /**
+     * Follows threshold graphs along consecutive bit sequences, keeping the principal eigenpair of the last one.
+     *
+     * The adjacency matrix is never formed: vertex i>0 is adjacent to all vertices j<i if bits[i-1]==1,
+     * so that changing the bit sequence takes O(n) time, and so does a product Ax by prefix sums.
+     * The principal eigenpair of the next graph is found by restarted Lanczos iterations
+     * starting from the principal eigenvector of the previous graph, which changes little along the Gray code,
+     * so that a graph usually costs only a few products with A.
+     */
+    private static class GrayWalk implements FamilyEnumerator.Evaluator {
+        private static final int STEPS = 12;            // Lanczos steps before a restart
+        private static final double TOLERANCE = 1e-12;  // relative residual of the eigenpair
+
+        private int n;
+        private int[] bits;             // bit sequence of the current graph
+        private double[] x;             // principal eigenvector of the last graph, null at the beginning
+
+        GrayWalk(int n) {
+            this.n = n;
+            bits = new int[n-1];
+        }
+
+        public String evaluate(int[] params, Graph g) {
+            System.arraycopy(params, 0, bits, 0, n-1);
+
+            boolean edgeless = true;
+            for (int i=0; i<n-1; i++)
+                if (bits[i] == 1)
+                    edgeless = false;
+            if (edgeless) {             // every vector is principal, so take the one that Colt finds
+                x = new double[n];
+                x[n-1] = 1;
+                return line(bits, 0.0, x);
+            }
+
+            // Start from the previous eigenvector, perturbed towards the all-ones vector
+            // so that it is not orthogonal to the principal eigenvector of the new graph
+            double[] start = new double[n];
+            for (int i=0; i<n; i++)
+                start[i] = (x == null) ? 1 : Math.abs(x[i]) + 1e-3;
+
+            double lambda = 0;
+            double[] ax = new double[n];
+            for (int restart=0; restart<100; restart++) {
+                lambda = lanczos(start);
+                multiply(x, ax);
+
+                double residual = 0;
+                for (int i=0; i<n; i++)
+                    residual += (ax[i] - lambda*x[i]) * (ax[i] - lambda*x[i]);
+                if (Math.sqrt(residual) <= TOLERANCE * Math.max(1, lambda))
+                    break;
+                start = x;
+            }
+
+            return line(bits, lambda, x);
+        }
+
+        // y = Ax for the threshold graph given by bits
+        private void multiply(double[] x, double[] y) {
+            double later = 0;               // sum of x[i] over later vertices i adjacent to j
+            for (int j=n-1; j>=0; j--) {
+                y[j] = later;
+                if (j > 0 && bits[j-1] == 1)
+                    later += x[j];
+            }
+
+            double earlier = 0;             // sum of x[i] over i<j
+            for (int j=0; j<n; j++) {
+                if (j > 0 && bits[j-1] == 1)
+                    y[j] += earlier;
+                earlier += x[j];
+            }
+        }
+
+        /**
+         * Runs Lanczos steps from the start vector, with full reorthogonalization,
+         * until the residual estimate of the largest Ritz value is small enough or STEPS steps are done,
+         * and replaces x with the Ritz vector of the largest Ritz value.
+         *
+         * @return double The largest Ritz value.
+         */
+        private double lanczos(double[] start) {
+            int steps = Math.min(STEPS, n);
+            double[][] v = new double[steps][];
+            double[] alpha = new double[steps];
+            double[] beta = new double[steps];
+            double[] y = new double[steps];
+            double theta;
+
+            v[0] = start.clone();
+            scale(v[0], 1/norm(v[0]));
+
+            int size = 0;
+            while (true) {
+                double[] w = new double[n];
+                multiply(v[size], w);
+                alpha[size] = dot(w, v[size]);
+                for (int pass=0; pass<2; pass++)         // twice is enough
+                    for (int j=0; j<=size; j++) {
+                        double c = dot(w, v[j]);
+                        for (int i=0; i<n; i++)
+                            w[i] -= c * v[j][i];
+                    }
+                size++;
+
+                double b = norm(w);
+                theta = largestEigenpair(alpha, beta, size, y);
+                if (size == steps || b * Math.abs(y[size-1]) <= TOLERANCE * Math.max(1, Math.abs(theta)))
+                    break;                               // ||A x - theta x|| = b |y[size-1]|
+                beta[size-1] = b;
+                scale(w, 1/b);
+                v[size] = w;
+            }
+
+            x = new double[n];
+            for (int k=0; k<size; k++)
+                for (int i=0; i<n; i++)
+                    x[i] += y[k] * v[k][i];
+
+            double sum = 0;                              // principal eigenvector is nonnegative
+            for (int i=0; i<n; i++)
+                sum += x[i];
+            scale(x, (sum < 0 ? -1 : 1) / norm(x));
+            return theta;
+        }
+
+        /**
+         * Largest eigenvalue of the symmetric tridiagonal matrix with diagonal alpha[0..size-1]
+         * and subdiagonal beta[0..size-2], and its unit eigenvector in y:
+         * the eigenvalue is roughly located by bisection on Sturm sequences,
+         * and then the eigenvector is found by inverse iteration.
+         */
+        private static double largestEigenpair(double[] alpha, double[] beta, int size, double[] y) {
+            double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;    // Gershgorin bounds
+            for (int k=0; k<size; k++) {
+                double r = (k > 0 ? Math.abs(beta[k-1]) : 0) + (k+1 < size ? Math.abs(beta[k]) : 0);
+                lo = Math.min(lo, alpha[k] - r);
+                hi = Math.max(hi, alpha[k] + r);
+            }
+
+            while (hi - lo > 1e-6 * Math.max(1, Math.abs(hi))) {    // a rough bound is enough for the shift
+                double mid = (lo + hi) / 2;
+
+                int below = 0;                           // number of eigenvalues below mid
+                double d = 1;
+                for (int k=0; k<size; k++) {
+                    d = alpha[k] - mid - (k > 0 ? beta[k-1]*beta[k-1] / d : 0);
+                    if (d == 0)
+                        d = -1e-300;
+                    if (d < 0)
+                        below++;
+                }
+                if (below == size)
+                    hi = mid;
+                else
+                    lo = mid;
+            }
+
+            // Inverse iteration with a shift just above the eigenvalue: sigma I - T is positive definite,
+            // so that its tridiagonal systems are solved stably without pivoting
+            double sigma = hi + 1e-9 * Math.max(1, Math.abs(hi));
+            double[] c = new double[size];
+            for (int k=0; k<size; k++)
+                y[k] = 1;
+            for (int iteration=0; iteration<3; iteration++) {
+                double diagonal = sigma - alpha[0];
+                y[0] /= diagonal;
+                for (int k=1; k<size; k++) {
+                    c[k-1] = -beta[k-1] / diagonal;
+                    diagonal = sigma - alpha[k] + beta[k-1] * c[k-1];
+                    y[k] = (y[k] + beta[k-1] * y[k-1]) / diagonal;
+                }
+                for (int k=size-2; k>=0; k--)
+                    y[k] -= c[k] * y[k+1];
+
+                double norm = 0;
+                for (int k=0; k<size; k++)
+                    norm += y[k]*y[k];
+                norm = Math.sqrt(norm);
+                for (int k=0; k<size; k++)
+                    y[k] /= norm;
+            }
+
+            double theta = 0;                            // Rayleigh quotient is accurate to machine precision
+            for (int k=0; k<size; k++)
+                theta += y[k] * (alpha[k]*y[k] + (k > 0 ? beta[k-1]*y[k-1] : 0) + (k+1 < size ? beta[k]*y[k+1] : 0));
+            return theta;
+        }
+
+        private static double dot(double[] a, double[] b) {
+            double s = 0;
+            for (int i=0; i<a.length; i++)
+                s += a[i]*b[i];
+            return s;
+        }
+
+        private static double norm(double[] a) {
+            return Math.sqrt(dot(a, a));
+        }
+
+        private static void scale(double[] a, double c) {
+            for (int i=0; i<a.length; i++)
+                a[i] *= c;
+        }
     }
 }
@@ -0,0 +1,288 @@
+/**
+ * TreeSpectrum.java
+ *
+ * Spectral computations for the adjacency or Laplacian matrix of a forest in O(n) time per query,
+ * instead of the O(n^3) time of a dense eigendecomposition.
+ *
+ * The engine is the diagonalization algorithm of Jacobs and Trevisan (Locating the eigenvalues of trees, 2011):
+ * vertices are processed from the leaves towards the roots, and each vertex v receives the value
+ *     d(v) = M[v][v] - x - sum of 1/d(c) over its children c,
+ * which makes M - xI congruent to the diagonal matrix of values d(v). If some child c has d(c)=0,
+ * then instead d(c)=2, d(v)=-1/2, and the edge from v to its parent is removed.
+ * By Sylvester's law of inertia, the numbers of negative, zero and positive values d(v)
+ * are the numbers of eigenvalues of M below, equal to and above x.
+ * Any eigenvalue then follows by bisection to full precision, and its eigenvector
+ * by inverse iteration, since linear systems with the matrix M - xI of a forest are also solved in O(n) time.
+ *
+ * Graph uses this engine for forests in Aspectrum(), Lspectrum(), nullity(),
+ * Aintegral(), Lintegral() and fiedlerVector().
+ */
+import java.util.ArrayList;
+
+public class TreeSpectrum {
+    private int n;
+    private boolean laplacian;          // Laplacian matrix if true, adjacency matrix otherwise
+    private int[] order;                // vertices in breadth-first order from the roots, parents before children
+    private int[] parent;               // parent of each vertex in the rooted forest, -1 for roots
+    private double[] diagonal;          // diagonal entries: 0 for adjacency, degrees for Laplacian
+    private double bound;               // all eigenvalues lie within (-bound, bound)
+
+    // Work arrays of diagonalize()
+    private double[] d;                 // diagonal values d(v)
+    private double[] sum;               // sum of 1/d(c) over children c still linked to v
+    private int[] zeroChild;            // a linked child c of v with d(c)==0, or -1
+
+    /**
+     * Prepares the engine for the adjacency matrix (laplacian==false)
+     * or the Laplacian matrix (laplacian==true) of the forest with adjacency matrix A.
+     */
+    public TreeSpectrum(int[][] A, boolean laplacian) {
+        n = A.length;
+        this.laplacian = laplacian;
+
+        ArrayList<ArrayList<Integer>> neighbours = new ArrayList<ArrayList<Integer>>();
+        int maxDegree = 0;
+        diagonal = new double[n];
+        for (int v=0; v<n; v++) {
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            for (int u=0; u<n; u++)
+                if (A[v][u]==1)
+                    list.add(u);
+            neighbours.add(list);
+            maxDegree = Math.max(maxDegree, list.size());
+            diagonal[v] = laplacian ? list.size() : 0;
+        }
+        bound = (laplacian ? 2*maxDegree : maxDegree) + 1;
+
+        order = new int[n];
+        parent = new int[n];
+        boolean[] visited = new boolean[n];
+        int head = 0, tail = 0;
+        for (int root=0; root<n; root++) {
+            if (visited[root])
+                continue;
+            visited[root] = true;
+            parent[root] = -1;
+            order[tail++] = root;
+
+            while (head < tail) {
+                int v = order[head++];
+                for (int u : neighbours.get(v))
+                    if (u != parent[v]) {
+                        if (visited[u])
+                            throw new IllegalArgumentException("Graph is not a forest");
+                        visited[u] = true;
+                        parent[u] = v;
+                        order[tail++] = u;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Number of eigenvalues smaller than x.
+     */
+    public int countBelow(double x) {
+        double[] d = diagonalize(x);
+
+        int count = 0;
+        for (int v=0; v<n; v++)
+            if (d[v] < 0)
+                count++;
+        return count;
+    }
+
+    /**
+     * Number of eigenvalues equal to x, up to DoubleUtil.DOUBLE_EQUALITY_THRESHOLD,
+     * as they would be counted among the eigenvalues of a dense decomposition.
+     */
+    public int multiplicity(double x) {
+        return countBelow(x + DoubleUtil.DOUBLE_EQUALITY_THRESHOLD) - countBelow(x - DoubleUtil.DOUBLE_EQUALITY_THRESHOLD);
+    }
+
+    /**
+     * The k-th smallest eigenvalue, counting from 0, by bisection.
+     */
+    public double eigenvalue(int k) {
+        double lo = -bound, hi = bound;
+        while (true) {
+            double mid = (lo + hi) / 2;
+            if (mid <= lo || mid >= hi)
+                return mid;
+
+            if (countBelow(mid) > k)
+                hi = mid;
+            else
+                lo = mid;
+        }
+    }
+
+    /**
+     * All eigenvalues in increasing order, by bisection of intervals containing eigenvalues,
+     * so that repeated eigenvalues are located only once.
+     */
+    public double[] spectrum() {
+        double[] eigenvalues = new double[n];
+        bisect(-bound, bound, 0, n, eigenvalues);
+        return eigenvalues;
+    }
+
+    // Locates the eigenvalues with indices [below, upto) within the interval (lo, hi)
+    private void bisect(double lo, double hi, int below, int upto, double[] eigenvalues) {
+        if (below == upto)
+            return;
+
+        double mid = (lo + hi) / 2;
+        if (mid <= lo || mid >= hi) {           // the interval cannot be split any more
+            for (int k=below; k<upto; k++)
+                eigenvalues[k] = mid;
+            return;
+        }
+
+        int count = countBelow(mid);
+        bisect(lo, mid, below, count, eigenvalues);
+        bisect(mid, hi, count, upto, eigenvalues);
+    }
+
+    /**
+     * Nullity of the matrix: the number of eigenvalues equal to 0 (see multiplicity()).
+     */
+    public int nullity() {
+        return multiplicity(0);
+    }
+
+    /**
+     * Responds whether all eigenvalues are integers (up to DoubleUtil.DOUBLE_EQUALITY_THRESHOLD),
+     * by checking the integers from the smallest to the largest possible eigenvalue
+     * and stopping at the first eigenvalue found between two integers.
+     */
+    public boolean integral() {
+        double epsilon = DoubleUtil.DOUBLE_EQUALITY_THRESHOLD;
+        int done = 0;                           // number of eigenvalues accounted for so far
+
+        for (int k=(int) -Math.ceil(bound); k<=Math.ceil(bound); k++) {
+            if (countBelow(k - epsilon) != done)
+                return false;                   // an eigenvalue between k-1 and k
+            done = countBelow(k + epsilon);
+            if (done == n)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A unit eigenvector of the k-th smallest eigenvalue, by inverse iteration.
+     * If the eigenvalue is repeated, this is some vector of its eigenspace.
+     * Elimination without pivoting is unstable if the eigenvalue is also an eigenvalue of a subtree
+     * (e.g., the Laplacian eigenvalue 1 of trees with several leaves at one vertex), so the result is checked,
+     * and null is returned if it is not accurate, in which case a dense decomposition has to be used instead.
+     */
+    public double[] eigenvector(int k) {
+        double sigma = eigenvalue(k);
+
+        double[] x = new double[n];
+        for (int v=0; v<n; v++)                 // a start vector not orthogonal to any eigenvector in particular
+            x[v] = 1 + 0.1*(v % 7);
+
+        for (int iteration=0; iteration<3; iteration++) {
+            x = solve(sigma, x);
+
+            double norm = 0;
+            for (int v=0; v<n; v++)
+                norm += x[v]*x[v];
+            norm = Math.sqrt(norm);
+            double sign = (x[order[0]] < 0) ? -1 : 1;
+            for (int v=0; v<n; v++)
+                x[v] *= sign / norm;
+        }
+
+        double[] y = multiply(x);
+        for (int v=0; v<n; v++)
+            if (!(Math.abs(y[v] - sigma*x[v]) <= 1e-10 * bound))
+                return null;
+        return x;
+    }
+
+    // Product of the matrix and the vector x
+    private double[] multiply(double[] x) {
+        double weight = laplacian ? -1 : 1;
+        double[] y = new double[n];
+        for (int v=0; v<n; v++) {
+            y[v] += diagonal[v] * x[v];
+            if (parent[v] != -1) {
+                y[v] += weight * x[parent[v]];
+                y[parent[v]] += weight * x[v];
+            }
+        }
+        return y;
+    }
+
+    /**
+     * The diagonal values d(v) of the Jacobs-Trevisan algorithm for M - xI,
+     * in an array that is reused by the next call.
+     */
+    private double[] diagonalize(double x) {
+        if (d == null) {
+            d = new double[n];
+            sum = new double[n];
+            zeroChild = new int[n];
+        }
+        for (int v=0; v<n; v++) {
+            sum[v] = 0;
+            zeroChild[v] = -1;
+        }
+
+        for (int i=n-1; i>=0; i--) {            // children before parents
+            int v = order[i];
+            boolean linked = true;              // is v still linked to its parent?
+
+            if (zeroChild[v] != -1) {
+                d[zeroChild[v]] = 2;
+                d[v] = -0.5;
+                linked = false;
+            }
+            else
+                d[v] = diagonal[v] - x - sum[v];
+
+            if (linked && parent[v] != -1) {
+                if (d[v] == 0)
+                    zeroChild[parent[v]] = v;
+                else
+                    sum[parent[v]] += 1/d[v];
+            }
+        }
+
+        return d;
+    }
+
+    /**
+     * Solves (M - sigma I) y = b by eliminating vertices from the leaves towards the roots.
+     * Zero pivots, which occur only if sigma is an eigenvalue of a subtree,
+     * are replaced by tiny ones, as usual in inverse iteration.
+     */
+    private double[] solve(double sigma, double[] b) {
+        double weight = laplacian ? -1 : 1;     // off-diagonal entry of an edge
+        double tiny = 1e-14 * bound;
+        double[] d = new double[n];
+        double[] r = b.clone();
+
+        for (int v=0; v<n; v++)
+            d[v] = diagonal[v] - sigma;
+        for (int i=n-1; i>=0; i--) {
+            int v = order[i];
+            if (Math.abs(d[v]) < tiny)
+                d[v] = tiny;
+            if (parent[v] != -1) {
+                d[parent[v]] -= weight*weight / d[v];
+                r[parent[v]] -= weight / d[v] * r[v];
+            }
+        }
+
+        double[] y = new double[n];
+        for (int i=0; i<n; i++) {               // parents before children
+            int v = order[i];
+            y[v] = (parent[v] == -1) ? r[v] / d[v] : (r[v] - weight * y[parent[v]]) / d[v];
+        }
+        return y;
+    }
+}
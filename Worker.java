@@ -0,0 +1,76 @@
+/**
+ * Worker.java
+ *
+ * A worker of the Coordinator: connects to the coordinator over TCP,
+ * and repeatedly receives a unit of work (a template with its parameters
+ * and a byte range of an input file), runs the template over that range
+ * and sends back its partial results, until the coordinator has no more work.
+ * If the template fails on a unit, the worker reports the failure instead and goes on with the next unit.
+ *
+ * Workers are started by the coordinator itself on the local machine, or by hand on other hosts with
+ *     java Worker coordinatorHost port
+ * in which case input files have to be reachable under the same names as on the coordinator,
+ * e.g., on a shared file system.
+ */
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+public class Worker {
+    /**
+     * Processes units of work received from the coordinator at host:port.
+     */
+    public static void work(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        String name = ManagementFactory.getRuntimeMXBean().getName();    // pid@host
+        out.writeUTF(name);
+        out.flush();
+
+        while (in.readBoolean()) {                // false when there is no more work
+            String templateName = in.readUTF();
+            String[] params = new String[in.readInt()];
+            for (int i=0; i<params.length; i++)
+                params[i] = in.readUTF();
+            String inputFileName = in.readUTF();
+            String outputPrefix = in.readUTF();
+            long start = in.readLong();
+            long end = in.readLong();
+
+            long startTime = System.currentTimeMillis();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream partial = new DataOutputStream(bytes);
+            long counter;
+            try {
+                counter = TemplateRunner.runPart(TemplateRunner.newTemplate(templateName, params),
+                                                 inputFileName, outputPrefix, start, end, partial);
+                partial.close();
+            }
+            catch (Exception e) {                 // the coordinator decides whether the unit is tried again
+                System.out.println("Worker " + name + ": bytes " + start + " to " + end +
+                                   " of " + inputFileName + " failed: " + e);
+                out.writeBoolean(false);
+                out.writeUTF(e.toString());
+                out.flush();
+                continue;
+            }
+
+            out.writeBoolean(true);
+            out.writeLong(counter);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+
+            System.out.println("Worker " + name + ": " + counter + " graphs from bytes " + start + " to " + end +
+                               " of " + inputFileName + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        work(args[0], Integer.parseInt(args[1]));
+    }
+}